@@ -0,0 +1,87 @@
+package com.gjjfintech.aiprompts;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic, deterministic inputs for the benchmarks: model-like prose, Java sources and
+ * fenced responses of a given size.
+ */
+public final class Samples {
+
+    private static final String[] WORDS = {
+            "the", "service", "returns", "a", "list", "of", "orders", "for", "each", "customer", "and",
+            "validates", "input", "before", "saving", "to", "repository", "with", "retry", "logic", "when",
+            "the", "request", "fails", "we", "log", "an", "error", "message", "then", "continue"
+    };
+
+    private Samples() { }
+
+    public static String prose(int chars, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(chars + 16);
+        while (sb.length() < chars) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(random.nextInt(12) == 0 ? ".\n" : " ");
+        }
+        return sb.toString();
+    }
+
+    public static String javaSource(int chars, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(chars + 128);
+        sb.append("package com.example.orders;\n\nimport java.util.*;\n\npublic class OrderService").append(seed).append(" {\n");
+        int m = 0;
+        while (sb.length() < chars) {
+            sb.append("\n    /** ").append(prose(60, random.nextLong()).replace('\n', ' ')).append(" */\n")
+                    .append("    public List<String> method").append(m++).append("(Map<String, Integer> input) {\n")
+                    .append("        List<String> out = new ArrayList<>();\n")
+                    .append("        for (var e : input.entrySet()) {\n")
+                    .append("            if (e.getValue() > ").append(random.nextInt(100)).append(") out.add(e.getKey() + \"`~\");\n")
+                    .append("        }\n        return out;\n    }\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    /** An assistant answer of about {@code chars} characters with {@code fences} closed code blocks. */
+    public static String fencedResponse(int chars, int fences, long seed) {
+        int per = Math.max(200, chars / Math.max(1, fences));
+        StringBuilder sb = new StringBuilder(chars + 256);
+        for (int i = 0; i < fences; i++) {
+            sb.append(prose(per / 4, seed + i)).append("\n```java filename=Order").append(i).append(".java\n")
+                    .append(javaSource(per * 3 / 4, seed + i)).append("```\n");
+        }
+        return sb.append("\nLet me know if you need anything else.\n").toString();
+    }
+
+    /** Worst case for the old lazy DOTALL regexes: one fence that never closes, backticks everywhere. */
+    public static String unclosedFence(int chars, long seed) {
+        StringBuilder sb = new StringBuilder(chars + 64).append("Here is the code:\n```java\n");
+        while (sb.length() < chars) {
+            sb.append(javaSource(4096, seed++)).append("// ``not a fence`` ```inline``` \n");
+        }
+        return sb.toString();
+    }
+
+    public static Path tempDir(String prefix) {
+        try {
+            return Files.createTempDirectory("bench-" + prefix);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void deleteRecursively(Path dir) {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
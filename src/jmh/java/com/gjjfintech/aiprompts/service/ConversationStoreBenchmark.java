@@ -0,0 +1,83 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.Samples;
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversation history at 10, 100 and 1000 turns: loading from memory, loading from disk
+ * (fresh store, as after a restart or eviction) and appending a turn.
+ *
+ * {@code append} is measured single-shot: each iteration appends {@value #APPENDS} turns to a
+ * fresh conversation of {@code turns} turns, so the size stays at what the parameter says
+ * however many iterations run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConversationStoreBenchmark {
+
+    static final int APPENDS = 10;
+
+    @Param({"10", "100", "1000"})
+    public int turns;
+
+    private final CodegenProperties props = new CodegenProperties();
+    private final CodegenMetrics metrics = CodegenMetrics.noop();
+    private Path root;
+    private Path conversation;
+    private Path appendTarget;
+    private ConversationStore warm;
+    private ConversationStore appender;
+    private String prompt;
+    private String answer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        root = Samples.tempDir("conversations");
+        conversation = root.resolve("loaded");
+        prompt = Samples.prose(400, 1);
+        answer = Samples.fencedResponse(4_000, 1, 2);
+        ConversationStore writer = new ConversationStore(props, metrics);
+        for (int i = 0; i < turns; i++) writer.append(conversation, prompt, answer);
+        warm = new ConversationStore(props, metrics);
+        warm.load(conversation);
+    }
+
+    /** Every iteration appends to a fresh conversation that starts at {@code turns} turns. */
+    @Setup(Level.Iteration)
+    public void resetAppendTarget() {
+        if (appendTarget != null) Samples.deleteRecursively(appendTarget);
+        appendTarget = root.resolve("appended-" + System.nanoTime());
+        appender = new ConversationStore(props, metrics);
+        for (int i = 0; i < turns; i++) appender.append(appendTarget, prompt, answer);
+        appender.load(appendTarget);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Samples.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> loadCached() {
+        return warm.load(conversation);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> loadFromDisk() {
+        return new ConversationStore(props, metrics).load(conversation);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(APPENDS)
+    public void append() {
+        for (int i = 0; i < APPENDS; i++) appender.append(appendTarget, prompt, answer);
+    }
+}
@@ -0,0 +1,59 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.Samples;
+import com.gjjfintech.aiprompts.dto.SavedArtifact;
+import com.gjjfintech.aiprompts.util.CodeParser;
+import com.gjjfintech.aiprompts.util.FenceScanner;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Code-fence extraction on a small answer, a large multi-file answer and a response that
+ * opens a fence and never closes it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FenceParsingBenchmark {
+
+    @Param({"small", "large", "pathological"})
+    public String text;
+
+    private String response;
+    private Path generatedDir;
+    private final ArtifactSaver saver = new ArtifactSaver(CodegenMetrics.noop());
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        response = switch (text) {
+            case "small" -> Samples.fencedResponse(2_000, 2, 1);
+            case "large" -> Samples.fencedResponse(500_000, 40, 1);
+            default -> Samples.unclosedFence(500_000, 1);
+        };
+        generatedDir = Samples.tempDir("fences");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Samples.deleteRecursively(generatedDir);
+    }
+
+    @Benchmark
+    public CodeParser.CodeBlock extractFirstCodeBlock() {
+        return CodeParser.extractFirstCodeBlock(response, "java");
+    }
+
+    @Benchmark
+    public List<FenceScanner.Fence> scanAll() {
+        return FenceScanner.scan(response);
+    }
+
+    /** Includes writing every block to disk. */
+    @Benchmark
+    public List<SavedArtifact> saveAll() {
+        return saver.saveAll(response, generatedDir);
+    }
+}
@@ -0,0 +1,107 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gjjfintech.aiprompts.Samples;
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The local-image path of /generate-code: preparing a 3024x1964 screenshot (first time and
+ * cached) and base64-encoding it into the request body, against the old
+ * read-everything-then-encode-to-a-String path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageInputBenchmark {
+
+    private static final String MODEL = "gpt-4.1-mini";
+
+    private final CodegenProperties props = new CodegenProperties();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private Path dir;
+    private Path screenshot;
+    private ImagePreparer warm;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Samples.tempDir("images");
+        screenshot = dir.resolve("screenshot.png");
+        ImageIO.write(screenshot(3024, 1964), "png", screenshot.toFile());
+        warm = new ImagePreparer(props);
+        warm.prepare(screenshot, MODEL);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Samples.deleteRecursively(dir);
+    }
+
+    /** Digest, decode, downscale and re-encode. */
+    @Benchmark
+    public ImagePreparer.Prepared prepare() throws IOException {
+        return new ImagePreparer(props).prepare(screenshot, MODEL);
+    }
+
+    /** Digest of the file, then a cache hit. */
+    @Benchmark
+    public ImagePreparer.Prepared prepareCached() throws IOException {
+        return warm.prepare(screenshot, MODEL);
+    }
+
+    /** Cached preparation plus base64 written straight into the request body. */
+    @Benchmark
+    public void writeRequestBody() throws IOException {
+        ImageInput image = warm.prepare(screenshot, MODEL).toImageInput();
+        ChatCompletionBody.write(payload(image), OutputStream.nullOutputStream(), mapper);
+    }
+
+    /** Previous path: whole file as a data-URI String, then the whole body as bytes. */
+    @Benchmark
+    public byte[] legacyDataUrl() throws IOException {
+        byte[] bytes = Files.readAllBytes(screenshot);
+        String url = "data:image/png;base64," + Base64.getEncoder().encodeToString(bytes);
+        return mapper.writeValueAsBytes(payload(url));
+    }
+
+    private static Map<String, Object> payload(Object imageUrl) {
+        return Map.of(
+                "model", MODEL,
+                "messages", List.of(Map.of("role", "user", "content", List.of(
+                        Map.of("type", "text", "text", "Implement this screen"),
+                        Map.of("type", "image_url", "image_url", Map.of("url", imageUrl))))));
+    }
+
+    /** Flat UI blocks and text: compresses like a real screenshot rather than like noise. */
+    private static BufferedImage screenshot(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        Random random = new Random(7);
+        g.setColor(new Color(245, 246, 248));
+        g.fillRect(0, 0, width, height);
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 28));
+        for (int y = 80; y < height; y += 120) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            g.fillRoundRect(60, y, 300 + random.nextInt(width - 400), 80, 16, 16);
+            g.setColor(Color.DARK_GRAY);
+            g.drawString(Samples.prose(90, y).replace('\n', ' '), 90, y + 50);
+        }
+        g.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,59 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.Samples;
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Combining referenced input files (about 8 KB each): served from the content cache, and read
+ * from disk by a fresh aggregator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InputCodeAggregatorBenchmark {
+
+    @Param({"10", "50"})
+    public int files;
+
+    private final CodegenProperties props = new CodegenProperties();
+    private Path dir;
+    private List<String> relPaths;
+    private InputCodeAggregator warm;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Samples.tempDir("inputcode");
+        relPaths = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            String name = "src/OrderService" + i + ".java";
+            Files.createDirectories(dir.resolve("src"));
+            Files.writeString(dir.resolve(name), Samples.javaSource(8_192, i));
+            relPaths.add(name);
+        }
+        warm = new InputCodeAggregator(props);
+        warm.combine(dir, relPaths);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Samples.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public String combineCached() {
+        return warm.combine(dir, relPaths);
+    }
+
+    @Benchmark
+    public String combineFromDisk() {
+        return new InputCodeAggregator(props).combine(dir, relPaths);
+    }
+}
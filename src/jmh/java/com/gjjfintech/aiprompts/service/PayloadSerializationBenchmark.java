@@ -0,0 +1,57 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gjjfintech.aiprompts.Samples;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing a chat-and-save request body (system message, prior turns, multipart prompt):
+ * the streaming writer used by the clients against building the whole body as a byte array.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PayloadSerializationBenchmark {
+
+    @Param({"10", "100"})
+    public int turns;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private Map<String, Object> payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Object> messages = new ArrayList<>();
+        messages.add(Map.of("role", "system", "content", "Act as: senior Java developer. Be precise."));
+        for (int i = 0; i < turns; i++) {
+            messages.add(Map.of("role", "user", "content", Samples.prose(400, i)));
+            messages.add(Map.of("role", "assistant", "content", Samples.fencedResponse(4_000, 1, i)));
+        }
+        messages.add(Map.of("role", "user", "content", List.of(
+                Map.of("type", "text", "text", "Referenced input code:\n" + Samples.javaSource(20_000, 3)),
+                Map.of("type", "text", "text", "Current prompt:\nAdd paging to the order service"))));
+        payload = new LinkedHashMap<>();
+        payload.put("messages", messages);
+        payload.put("temperature", 0.2);
+        payload.put("top_p", 1);
+        payload.put("stream", false);
+    }
+
+    @Benchmark
+    public void streamingWriter() {
+        ChatCompletionBody.write(payload, OutputStream.nullOutputStream(), mapper);
+    }
+
+    @Benchmark
+    public byte[] writeValueAsBytes() throws IOException {
+        return mapper.writeValueAsBytes(payload);
+    }
+}
@@ -0,0 +1,70 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gjjfintech.aiprompts.Samples;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracting the answer from a Chat Completions response of 10 KB, 100 KB and 1 MB:
+ * the streaming extractor against the JsonNode tree and Map decoding it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseParsingBenchmark {
+
+    @Param({"10240", "102400", "1048576"})
+    public int bytes;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFactory factory = mapper.getFactory();
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("role", "assistant");
+        message.put("content", Samples.fencedResponse(Math.max(200, bytes - 600), Math.max(1, bytes / 25_000), 5));
+        message.put("refusal", null);
+        Map<String, Object> choice = new LinkedHashMap<>();
+        choice.put("index", 0);
+        choice.put("message", message);
+        choice.put("logprobs", null);
+        choice.put("finish_reason", "stop");
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", "chatcmpl-123");
+        response.put("object", "chat.completion");
+        response.put("created", 1_700_000_000);
+        response.put("model", "gpt-4.1-mini-2025-04-14");
+        response.put("choices", List.of(choice));
+        response.put("usage", Map.of("prompt_tokens", 1200, "completion_tokens", bytes / 4, "total_tokens", 1200 + bytes / 4));
+        response.put("system_fingerprint", "fp_123");
+        body = mapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public ProviderResult streaming() throws IOException {
+        return ChatCompletionParser.parse(body, "fallback", factory);
+    }
+
+    @Benchmark
+    public String tree() throws IOException {
+        JsonNode response = mapper.readTree(body);
+        return response.get("choices").get(0).get("message").get("content").asText();
+    }
+
+    @Benchmark
+    public Object map() throws IOException {
+        Map<String, Object> response = mapper.readValue(body, new TypeReference<Map<String, Object>>() { });
+        return ((Map<?, ?>) ((Map<?, ?>) ((List<?>) response.get("choices")).get(0)).get("message")).get("content");
+    }
+}
@@ -0,0 +1,39 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.Samples;
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local token counting (o200k_base) as done for context budgets and /estimate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TokenCounterBenchmark {
+
+    @Param({"1000", "100000"})
+    public int chars;
+
+    private final TokenCounter counter = new TokenCounter(new CodegenProperties());
+    private String prose;
+    private String code;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        prose = Samples.prose(chars, 11);
+        code = Samples.javaSource(chars, 11);
+    }
+
+    @Benchmark
+    public int prose() {
+        return counter.count("gpt-4.1-mini", prose);
+    }
+
+    @Benchmark
+    public int code() {
+        return counter.count("gpt-4.1-mini", code);
+    }
+}
@@ -0,0 +1,98 @@
+package com.gjjfintech.aiprompts.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Platform vs virtual threads (codegen.execution.mode) under closed-model load: runs
+ * {@link LoadTest} once per mode and concurrency level, each with a fresh application and stub,
+ * and prints one table comparing them.
+ *
+ * <pre>
+ *   mvn -Ploadtest verify -Dloadtest.main=com.gjjfintech.aiprompts.loadtest.ExecutionModeComparison \
+ *       -Dloadtest.args="--duration=30s --stub.latency=lognormal:600ms:2500ms"
+ * </pre>
+ *
+ * Options, besides those of {@link LoadTest} (which apply to every run):
+ * <pre>
+ *   --modes=platform,virtual
+ *   --levels=50,500,5000          concurrent clients
+ *   --out=target/loadtest-result.json   the summary; each run writes loadtest-result-&lt;mode&gt;-&lt;clients&gt;.json next to it
+ * </pre>
+ * All runs share this JVM, so later runs start with a warmer JIT; each run's warm-up phase
+ * evens most of that out.
+ */
+public final class ExecutionModeComparison {
+
+    private ExecutionModeComparison() { }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) throw new IllegalArgumentException("Expected --key=value, got " + arg);
+            opts.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        String[] modes = opts.getOrDefault("modes", "platform,virtual").split(",");
+        String[] levels = opts.getOrDefault("levels", "50,500,5000").split(",");
+        Path out = Paths.get(opts.getOrDefault("out", "target/loadtest-result.json"));
+        opts.keySet().removeAll(List.of("modes", "levels", "out", "rps", "concurrency", "app.codegen.execution.mode"));
+
+        List<Map<String, Object>> runs = new ArrayList<>();
+        for (String level : levels) {
+            for (String mode : modes) {
+                Map<String, String> runOpts = new LinkedHashMap<>(opts);
+                runOpts.put("concurrency", level.trim());
+                runOpts.put("app.codegen.execution.mode", mode.trim());
+                runOpts.put("out", sibling(out, mode.trim() + "-" + level.trim()).toString());
+                String[] runArgs = runOpts.entrySet().stream().map(e -> "--" + e.getKey() + "=" + e.getValue()).toArray(String[]::new);
+
+                Map<String, Object> run = new LinkedHashMap<>();
+                run.put("mode", mode.trim());
+                run.put("clients", Integer.parseInt(level.trim()));
+                run.put("report", LoadTest.run(runArgs));
+                runs.add(run);
+            }
+        }
+
+        print(runs);
+        Files.createDirectories(out.toAbsolutePath().getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(out.toFile(), Map.of("runs", runs));
+        System.out.println("Comparison written to " + out.toAbsolutePath());
+        System.exit(0);
+    }
+
+    /** {@code target/loadtest-result.json} -> {@code target/loadtest-result-virtual-500.json} */
+    private static Path sibling(Path out, String suffix) {
+        String name = out.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String file = dot > 0 ? name.substring(0, dot) + "-" + suffix + name.substring(dot) : name + "-" + suffix;
+        return out.resolveSibling(file);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(List<Map<String, Object>> runs) {
+        System.out.printf("%n%-9s %7s %-15s %8s %7s %9s %9s %9s %9s %9s %9s%n",
+                "mode", "clients", "endpoint", "requests", "errors", "ok/s", "p50 ms", "p99 ms", "max ms", "heap MB", "gc ms");
+        for (Map<String, Object> run : runs) {
+            Map<String, Object> report = (Map<String, Object>) run.get("report");
+            Map<String, Object> jvm = (Map<String, Object>) report.get("jvm");
+            ((Map<String, Object>) report.get("endpoints")).forEach((name, value) -> {
+                Map<String, Object> e = (Map<String, Object>) value;
+                Map<String, Object> l = (Map<String, Object>) e.get("latencyMs");
+                System.out.printf("%-9s %7d %-15s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f %9d%n",
+                        run.get("mode"), run.get("clients"), name, e.get("requests"),
+                        (long) e.get("failed") + (long) e.get("httpErrors") + (long) e.get("transportErrors"),
+                        e.get("okPerSecond"), l.get("p50"), l.get("p99"), l.get("max"),
+                        jvm.get("heapMaxUsedMb"), jvm.get("gcTimeMs"));
+            });
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.gjjfintech.aiprompts.loadtest;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A latency distribution, parsed from a spec:
+ * <pre>
+ *   fixed:500ms
+ *   uniform:200ms:1200ms
+ *   lognormal:600ms:2500ms     (median, p99)
+ * </pre>
+ */
+final class LatencyDistribution {
+
+    private static final double Z99 = 2.3263478740408408; // standard normal 99th percentile
+
+    private final String spec;
+    private final String kind;
+    private final long a;
+    private final long b;
+
+    private LatencyDistribution(String spec, String kind, long a, long b) {
+        this.spec = spec;
+        this.kind = kind;
+        this.a = a;
+        this.b = b;
+    }
+
+    static LatencyDistribution parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        String kind = parts[0].toLowerCase();
+        return switch (kind) {
+            case "fixed" -> new LatencyDistribution(spec, kind, millis(parts[1]), 0);
+            case "uniform", "lognormal" -> {
+                if (parts.length != 3) throw new IllegalArgumentException("Expected " + kind + ":<a>:<b>, got " + spec);
+                long x = millis(parts[1]), y = millis(parts[2]);
+                if (y < x) throw new IllegalArgumentException("Second value must not be smaller than the first: " + spec);
+                yield new LatencyDistribution(spec, kind, x, y);
+            }
+            default -> throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+        };
+    }
+
+    Duration sample() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long ms = switch (kind) {
+            case "fixed" -> a;
+            case "uniform" -> a == b ? a : random.nextLong(a, b + 1);
+            default -> {
+                // median = e^mu, p99 = e^(mu + Z99 * sigma)
+                double mu = Math.log(Math.max(1, a));
+                double sigma = Math.log(Math.max(1.0, (double) b / Math.max(1, a))) / Z99;
+                yield Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+            }
+        };
+        return Duration.ofMillis(Math.max(0, ms));
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    /** "250ms", "2s" or a bare number of milliseconds. */
+    static long millis(String value) {
+        String v = value.trim().toLowerCase();
+        if (v.endsWith("ms")) return Long.parseLong(v.substring(0, v.length() - 2));
+        if (v.endsWith("s")) return Math.round(Double.parseDouble(v.substring(0, v.length() - 1)) * 1000);
+        if (v.endsWith("m")) return Math.round(Double.parseDouble(v.substring(0, v.length() - 1)) * 60_000);
+        return Long.parseLong(v);
+    }
+}
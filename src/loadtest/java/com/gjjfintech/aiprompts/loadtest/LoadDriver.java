@@ -0,0 +1,191 @@
+package com.gjjfintech.aiprompts.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongFunction;
+
+/**
+ * Open-model load ({@link #run}): requests are started on a fixed schedule at the target rate,
+ * whether or not earlier ones have finished, and latency is measured from the scheduled start.
+ * A slow server therefore shows up as latency rather than as a lower request rate (no
+ * coordinated omission).
+ *
+ * Closed-model load ({@link #runClosed}): a fixed number of clients, each sending its next
+ * request as soon as the previous one answered. Concurrency stays constant and a slow server
+ * shows up as lower throughput; latency is measured from each send.
+ */
+final class LoadDriver {
+
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    /** One endpoint in the mix: {@code body} builds the JSON for the n-th request. */
+    record Target(String name, String path, int weight, LongFunction<String> body) { }
+
+    static final class Stats {
+        final String name;
+        final Histogram latencyMicros = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+        final AtomicLong ok = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();    // HTTP 200 but status FAILED / NO_CODE_FOUND
+        final AtomicLong httpErrors = new AtomicLong(); // non-2xx
+        final AtomicLong transportErrors = new AtomicLong();
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        long requests() {
+            return ok.get() + failed.get() + httpErrors.get() + transportErrors.get();
+        }
+    }
+
+    private final URI base;
+    private final List<Target> targets;
+    private final int maxInFlight;
+    private final HttpClient http;
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+
+    LoadDriver(URI base, List<Target> targets, int maxInFlight) {
+        this.base = base;
+        this.targets = targets;
+        this.maxInFlight = maxInFlight;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        targets.forEach(t -> stats.put(t.name(), new Stats(t.name())));
+    }
+
+    Map<String, Stats> stats() {
+        return stats;
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Runs {@code warmup} then {@code duration} at {@code rps}; only requests scheduled after the
+     * warm-up are recorded. Returns once every request has completed or {@code drainTimeout} passed.
+     */
+    void run(double rps, Duration warmup, Duration duration, Duration drainTimeout) {
+        long interval = Math.max(1, Math.round(1_000_000_000.0 / rps));
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        int totalWeight = targets.stream().mapToInt(Target::weight).sum();
+
+        for (long n = 0; ; n++) {
+            long scheduled = start + n * interval;
+            if (scheduled >= end) break;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            fire(pick(n, totalWeight), n, scheduled, scheduled >= measureFrom);
+        }
+
+        long drainUntil = System.nanoTime() + drainTimeout.toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < drainUntil) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+    }
+
+    /**
+     * Runs {@code concurrency} clients in a loop for {@code warmup} then {@code duration}; only
+     * requests sent after the warm-up are recorded. Returns once every client has stopped or
+     * {@code drainTimeout} passed after the end.
+     */
+    void runClosed(int concurrency, Duration warmup, Duration duration, Duration drainTimeout) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        int totalWeight = targets.stream().mapToInt(Target::weight).sum();
+        AtomicLong sequence = new AtomicLong();
+
+        ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+        for (int c = 0; c < concurrency; c++) {
+            clients.execute(() -> {
+                for (long sent; (sent = System.nanoTime()) < end; ) {
+                    long n = sequence.getAndIncrement();
+                    Target target = pick(n, totalWeight);
+                    HttpResponse<String> response = null;
+                    Throwable error = null;
+                    try {
+                        response = http.send(request(target, n), HttpResponse.BodyHandlers.ofString());
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Exception e) {
+                        error = e;
+                    }
+                    if (sent >= measureFrom) record(stats.get(target.name()), sent, response, error);
+                }
+            });
+        }
+        clients.shutdown();
+        if (!clients.awaitTermination(duration.plus(warmup).plus(drainTimeout).toMillis(), TimeUnit.MILLISECONDS)) {
+            clients.shutdownNow();
+        }
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    /** Weighted round robin, deterministic: weights 3,1 give A,A,A,B,A,A,A,B,... */
+    private Target pick(long n, int totalWeight) {
+        long slot = n % totalWeight;
+        for (Target t : targets) {
+            slot -= t.weight();
+            if (slot < 0) return t;
+        }
+        return targets.get(0);
+    }
+
+    private void fire(Target target, long n, long scheduled, boolean measured) {
+        Stats s = stats.get(target.name());
+        if (inFlight.get() >= maxInFlight) {
+            if (measured) dropped.incrementAndGet();
+            return;
+        }
+        inFlight.incrementAndGet();
+        http.sendAsync(request(target, n), HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            inFlight.decrementAndGet();
+            if (measured) record(s, scheduled, response, error);
+        });
+    }
+
+    private HttpRequest request(Target target, long n) {
+        return HttpRequest.newBuilder(base.resolve(target.path()))
+                .timeout(Duration.ofMinutes(5))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(target.body().apply(n)))
+                .build();
+    }
+
+    private static void record(Stats s, long startNanos, HttpResponse<String> response, Throwable error) {
+        s.latencyMicros.recordValue(Math.min(HIGHEST_MICROS, (System.nanoTime() - startNanos) / 1000));
+        if (error != null) {
+            s.transportErrors.incrementAndGet();
+        } else if (response.statusCode() / 100 != 2) {
+            s.httpErrors.incrementAndGet();
+        } else if (response.body().contains("\"status\":\"OK\"")) {
+            s.ok.incrementAndGet();
+        } else {
+            s.failed.incrementAndGet();
+        }
+    }
+}
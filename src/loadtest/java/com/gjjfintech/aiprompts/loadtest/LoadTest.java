@@ -0,0 +1,329 @@
+package com.gjjfintech.aiprompts.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.gjjfintech.aiprompts.CodegenServiceApplication;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load test: boots the application in this JVM against an embedded
+ * {@link StubProvider}, drives /generate-code and /chat-and-save with {@link LoadDriver}, at a
+ * fixed rate (open model) or with a fixed number of clients (closed model, --concurrency), and
+ * reports latency percentiles, throughput and heap usage. Runs offline; nothing leaves 127.0.0.1.
+ *
+ * <pre>
+ *   mvn -Ploadtest verify -Dloadtest.args="--rps=200 --duration=60s --stream=true"
+ * </pre>
+ *
+ * Options (defaults in brackets):
+ * <pre>
+ *   --rps=50  --warmup=10s  --duration=30s  --maxInFlight=20000
+ *   --concurrency=0               closed model with this many clients instead of --rps (0 = open model)
+ *   --mix=generate:1,chat:1       endpoints and weights
+ *   --stream=false                use the /stream variants
+ *   --provider=openai             provider for /generate-code (openai | azure)
+ *   --projects=50                 chat-and-save projects the requests are spread over
+ *   --cache=false                 let /generate-code use the response cache
+ *   --stub.latency=lognormal:600ms:2500ms   time to first token: fixed:X | uniform:X:Y | lognormal:median:p99
+ *   --stub.tokensPerSecond=100  --stub.responseChars=3000
+ *   --stub.errorRate=0  --stub.rate429=0  --stub.retryAfter=1
+ *   --out=target/loadtest-result.json
+ *   --app.&lt;property&gt;=&lt;value&gt;    passed to the application, e.g. --app.codegen.execution.mode=virtual
+ * </pre>
+ * Heap and GC figures cover this whole JVM, so they include the load generator and the stub.
+ */
+public final class LoadTest {
+
+    private LoadTest() { }
+
+    public static void main(String[] args) throws Exception {
+        run(args);
+        System.exit(0);
+    }
+
+    /** One load test run; prints and writes the report, and returns it. */
+    static Map<String, Object> run(String[] args) throws Exception {
+        Map<String, String> opts = new LinkedHashMap<>();
+        Map<String, String> appProps = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) throw new IllegalArgumentException("Expected --key=value, got " + arg);
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (key.startsWith("app.")) appProps.put(key.substring(4), value);
+            else opts.put(key, value);
+        }
+
+        double rps = Double.parseDouble(opts.getOrDefault("rps", "50"));
+        int concurrency = Integer.parseInt(opts.getOrDefault("concurrency", "0"));
+        Duration warmup = Duration.ofMillis(LatencyDistribution.millis(opts.getOrDefault("warmup", "10s")));
+        Duration duration = Duration.ofMillis(LatencyDistribution.millis(opts.getOrDefault("duration", "30s")));
+        boolean stream = Boolean.parseBoolean(opts.getOrDefault("stream", "false"));
+        String provider = opts.getOrDefault("provider", "openai");
+        int projects = Integer.parseInt(opts.getOrDefault("projects", "50"));
+        boolean cache = Boolean.parseBoolean(opts.getOrDefault("cache", "false"));
+        Path out = Paths.get(opts.getOrDefault("out", "target/loadtest-result.json"));
+
+        StubProvider.Settings stubSettings = new StubProvider.Settings(
+                LatencyDistribution.parse(opts.getOrDefault("stub.latency", "lognormal:600ms:2500ms")),
+                Double.parseDouble(opts.getOrDefault("stub.tokensPerSecond", "100")),
+                Integer.parseInt(opts.getOrDefault("stub.responseChars", "3000")),
+                Double.parseDouble(opts.getOrDefault("stub.errorRate", "0")),
+                Double.parseDouble(opts.getOrDefault("stub.rate429", "0")),
+                Integer.parseInt(opts.getOrDefault("stub.retryAfter", "1")));
+
+        Path work = Files.createTempDirectory("aiprompts-loadtest");
+        try (StubProvider stub = new StubProvider(stubSettings)) {
+            ConfigurableApplicationContext app = startApp(stub.port(), work, appProps);
+            try {
+                int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+                createProjects(work.resolve("files"), projects);
+
+                List<LoadDriver.Target> targets = targets(opts.getOrDefault("mix", "generate:1,chat:1"),
+                        stream, provider, projects, cache);
+                LoadDriver driver = new LoadDriver(URI.create("http://127.0.0.1:" + port),
+                        targets, Integer.parseInt(opts.getOrDefault("maxInFlight", "20000")));
+
+                System.out.printf("Load test: %s for %ss after %ss warm-up, stream=%s, app=%s, stub=%s%n",
+                        concurrency > 0 ? concurrency + " clients" : String.format("%.0f rps", rps),
+                        duration.toSeconds(), warmup.toSeconds(), stream, appProps, stubSettings);
+                HeapSampler heap = new HeapSampler();
+                heap.start(warmup);
+                if (concurrency > 0) driver.runClosed(concurrency, warmup, duration, Duration.ofMinutes(2));
+                else driver.run(rps, warmup, duration, Duration.ofMinutes(2));
+                heap.stop();
+
+                Map<String, Object> report = report(rps, concurrency, duration, stream, stubSettings, appProps, driver, stub, heap);
+                print(report);
+                Files.createDirectories(out.toAbsolutePath().getParent());
+                new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(out.toFile(), report);
+                System.out.println("Results written to " + out.toAbsolutePath());
+                return report;
+            } finally {
+                app.close();
+            }
+        } finally {
+            deleteQuietly(work);
+        }
+    }
+
+    /* ---------------------------- setup ---------------------------- */
+
+    private static ConfigurableApplicationContext startApp(int stubPort, Path work, Map<String, String> appProps) {
+        Map<String, String> props = new LinkedHashMap<>();
+        props.put("server.port", "0");
+        props.put("codegen.outputDir", work.resolve("out").toString());
+        props.put("codegen.filesBaseDir", work.resolve("files").toString());
+        props.put("codegen.openai.apiBaseUrl", "http://127.0.0.1:" + stubPort + "/v1");
+        props.put("codegen.azure.endpoint", "http://127.0.0.1:" + stubPort);
+        // API keys are read from environment variables; the stub ignores them, so any set variable will do
+        props.put("codegen.openai.apiKeyEnv", "PATH");
+        props.put("codegen.azure.apiKeyEnv", "PATH");
+        props.put("logging.level.root", "WARN");
+        props.put("spring.main.banner-mode", "off");
+        props.putAll(appProps);
+        String[] args = props.entrySet().stream().map(e -> "--" + e.getKey() + "=" + e.getValue()).toArray(String[]::new);
+        return new SpringApplicationBuilder(CodegenServiceApplication.class).run(args);
+    }
+
+    /** Each project gets two small reference files for chat-and-save to load. */
+    private static void createProjects(Path filesBase, int projects) throws IOException {
+        for (int i = 0; i < projects; i++) {
+            Path inputCode = Files.createDirectories(filesBase.resolve("p" + i).resolve("inputcode"));
+            Files.writeString(inputCode.resolve("OrderService.java"),
+                    "public class OrderService {\n    public int total(int[] xs) { int t = 0; for (int x : xs) t += x; return t; }\n}\n");
+            Files.writeString(inputCode.resolve("orders.ts"),
+                    "export async function orders(base: string) { return (await fetch(base + '/orders')).json(); }\n");
+        }
+    }
+
+    private static List<LoadDriver.Target> targets(String mix, boolean stream, String provider, int projects, boolean cache) {
+        List<LoadDriver.Target> targets = new ArrayList<>();
+        String suffix = stream ? "/stream" : "";
+        for (String entry : mix.split(",")) {
+            String[] kv = entry.trim().split(":");
+            int weight = kv.length > 1 ? Integer.parseInt(kv[1]) : 1;
+            if (weight <= 0) continue;
+            switch (kv[0]) {
+                case "generate" -> targets.add(new LoadDriver.Target("generate-code", "/generate-code" + suffix, weight,
+                        n -> "{\"id\":\"lt-" + n + "\",\"provider\":\"" + provider + "\","
+                                + "\"prompt\":\"Write a Java class with " + (n % 20 + 1) + " methods\","
+                                + "\"overrides\":{\"cache\":" + cache + "}}"));
+                case "chat" -> targets.add(new LoadDriver.Target("chat-and-save", "/chat-and-save" + suffix, weight,
+                        n -> "{\"project\":\"p" + (n % projects) + "\",\"systemRole\":\"Software Engineer/Architect Expert\","
+                                + "\"prompt\":\"Add paging to OrderService, step " + n + "\","
+                                + "\"codeFiles\":[\"OrderService.java\",\"orders.ts\"]}"));
+                default -> throw new IllegalArgumentException("Unknown endpoint in mix: " + kv[0]);
+            }
+        }
+        if (targets.isEmpty()) throw new IllegalArgumentException("Empty mix: " + mix);
+        return targets;
+    }
+
+    /* ---------------------------- reporting ---------------------------- */
+
+    private static Map<String, Object> report(double rps,
+                                              int concurrency,
+                                              Duration duration,
+                                              boolean stream,
+                                              StubProvider.Settings stubSettings,
+                                              Map<String, String> appProps,
+                                              LoadDriver driver,
+                                              StubProvider stub,
+                                              HeapSampler heap) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        Map<String, Object> settings = new LinkedHashMap<>();
+        if (concurrency > 0) settings.put("concurrency", concurrency);
+        else settings.put("targetRps", rps);
+        settings.put("durationSeconds", duration.toSeconds());
+        settings.put("stream", stream);
+        settings.put("stub", Map.of(
+                "latency", stubSettings.latency().toString(),
+                "tokensPerSecond", stubSettings.tokensPerSecond(),
+                "responseChars", stubSettings.responseChars(),
+                "errorRate", stubSettings.errorRate(),
+                "rate429", stubSettings.rateLimitRate()));
+        settings.put("app", appProps);
+        report.put("settings", settings);
+
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        for (LoadDriver.Stats s : driver.stats().values()) {
+            Histogram h = s.latencyMicros;
+            Map<String, Object> e = new LinkedHashMap<>();
+            e.put("requests", s.requests());
+            e.put("ok", s.ok.get());
+            e.put("failed", s.failed.get());
+            e.put("httpErrors", s.httpErrors.get());
+            e.put("transportErrors", s.transportErrors.get());
+            e.put("okPerSecond", round(s.ok.get() / (double) duration.toSeconds()));
+            Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("p50", ms(h.getValueAtPercentile(50)));
+            latency.put("p90", ms(h.getValueAtPercentile(90)));
+            latency.put("p99", ms(h.getValueAtPercentile(99)));
+            latency.put("p99.9", ms(h.getValueAtPercentile(99.9)));
+            latency.put("max", ms(h.getMaxValue()));
+            latency.put("mean", round(h.getMean() / 1000.0));
+            e.put("latencyMs", latency);
+            endpoints.put(s.name, e);
+        }
+        report.put("endpoints", endpoints);
+        report.put("droppedOverMaxInFlight", driver.dropped());
+        report.put("stubCalls", Map.of(
+                "total", stub.calls.get(), "errors", stub.errors.get(), "rateLimited", stub.rateLimited.get()));
+        report.put("jvm", heap.summary());
+        return report;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(Map<String, Object> report) {
+        System.out.printf("%n%-15s %8s %8s %7s %7s %9s %9s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "ok", "failed", "errors", "ok/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        ((Map<String, Object>) report.get("endpoints")).forEach((name, value) -> {
+            Map<String, Object> e = (Map<String, Object>) value;
+            Map<String, Object> l = (Map<String, Object>) e.get("latencyMs");
+            System.out.printf("%-15s %8d %8d %7d %7d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n", name,
+                    e.get("requests"), e.get("ok"), e.get("failed"),
+                    (long) e.get("httpErrors") + (long) e.get("transportErrors"),
+                    e.get("okPerSecond"), l.get("p50"), l.get("p90"), l.get("p99"), l.get("p99.9"), l.get("max"));
+        });
+        System.out.println("dropped: " + report.get("droppedOverMaxInFlight") + ", stub calls: " + report.get("stubCalls"));
+        System.out.println("jvm: " + report.get("jvm"));
+    }
+
+    private static double ms(long micros) {
+        return round(micros / 1000.0);
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 10) / 10.0;
+    }
+
+    private static void deleteQuietly(Path dir) {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException ignored) {
+            // temp directory; best effort
+        }
+    }
+
+    /** Heap used (sampled every 100 ms), GC activity and bytes allocated during the measured phase. */
+    private static final class HeapSampler {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        private final AtomicLong maxUsed = new AtomicLong();
+        private final AtomicLong sumUsed = new AtomicLong();
+        private final AtomicLong samples = new AtomicLong();
+        private volatile long gcCount0, gcMillis0, allocated0;
+        private long gcCount, gcMillis, allocated;
+
+        /** Takes the baseline and starts sampling once {@code delay} (the warm-up) has passed. */
+        void start(Duration delay) {
+            timer.schedule(() -> {
+                gcCount0 = gcCount();
+                gcMillis0 = gcMillis();
+                allocated0 = allocatedBytes();
+            }, delay.toMillis(), TimeUnit.MILLISECONDS);
+            timer.scheduleAtFixedRate(() -> {
+                long used = memory.getHeapMemoryUsage().getUsed();
+                maxUsed.accumulateAndGet(used, Math::max);
+                sumUsed.addAndGet(used);
+                samples.incrementAndGet();
+            }, delay.toMillis(), 100, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() throws InterruptedException {
+            timer.shutdownNow();
+            timer.awaitTermination(1, TimeUnit.SECONDS);
+            gcCount = gcCount() - gcCount0;
+            gcMillis = gcMillis() - gcMillis0;
+            allocated = allocatedBytes() - allocated0;
+        }
+
+        Map<String, Object> summary() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("heapMaxUsedMb", round(maxUsed.get() / 1048576.0));
+            m.put("heapAvgUsedMb", round(samples.get() == 0 ? 0 : sumUsed.get() / (double) samples.get() / 1048576.0));
+            m.put("heapCommittedMb", round(memory.getHeapMemoryUsage().getCommitted() / 1048576.0));
+            m.put("gcCount", gcCount);
+            m.put("gcTimeMs", gcMillis);
+            m.put("allocatedMb", round(allocated / 1048576.0));
+            return m;
+        }
+
+        private static long gcCount() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(c -> c > 0).sum();
+        }
+
+        private static long gcMillis() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(c -> c > 0).sum();
+        }
+
+        private static long allocatedBytes() {
+            return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean t
+                    ? t.getTotalThreadAllocatedBytes() : 0;
+        }
+    }
+}
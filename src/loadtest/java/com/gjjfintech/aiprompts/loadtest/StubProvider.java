@@ -0,0 +1,153 @@
+package com.gjjfintech.aiprompts.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the OpenAI and Azure Chat Completions endpoints, on Reactor Netty.
+ *
+ * Each call waits a time-to-first-token drawn from {@code latency}, then produces
+ * {@code responseChars} of fenced-code answer at {@code tokensPerSecond} (about 4 chars per
+ * token): streamed as SSE chunks every 50 ms, or sent at once when the last token would have
+ * been generated. A share of calls fails with 500 or with 429 + Retry-After instead.
+ */
+final class StubProvider implements AutoCloseable {
+
+    private static final long CHUNK_MILLIS = 50;
+
+    record Settings(LatencyDistribution latency,
+                    double tokensPerSecond,
+                    int responseChars,
+                    double errorRate,
+                    double rateLimitRate,
+                    int retryAfterSeconds) { }
+
+    private final Settings settings;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final byte[] completion;
+    private final List<String> chunks;
+    private final DisposableServer server;
+
+    final AtomicLong calls = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong rateLimited = new AtomicLong();
+
+    StubProvider(Settings settings) {
+        this.settings = settings;
+        String content = answer(settings.responseChars());
+        this.completion = json(Map.of(
+                "id", "chatcmpl-stub",
+                "object", "chat.completion",
+                "model", "stub-model",
+                "choices", List.of(Map.of(
+                        "index", 0,
+                        "message", Map.of("role", "assistant", "content", content),
+                        "finish_reason", "stop")),
+                "usage", Map.of("prompt_tokens", 500, "completion_tokens", tokens(), "total_tokens", 500 + tokens())));
+        this.chunks = chunk(content);
+        this.server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .route(routes -> routes
+                        .post("/v1/chat/completions", this::handle)
+                        .post("/openai/deployments/{deployment}/chat/completions", this::handle))
+                .bindNow();
+    }
+
+    int port() {
+        return server.port();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    private Publisher<Void> handle(HttpServerRequest request, HttpServerResponse response) {
+        return request.receive().aggregate().asString().defaultIfEmpty("").flatMap(body -> {
+            calls.incrementAndGet();
+            double roll = ThreadLocalRandom.current().nextDouble();
+            if (roll < settings.errorRate()) {
+                errors.incrementAndGet();
+                return response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR)
+                        .header("Content-Type", "application/json")
+                        .sendString(Mono.just("{\"error\":{\"message\":\"stub failure\",\"type\":\"server_error\"}}"))
+                        .then();
+            }
+            if (roll < settings.errorRate() + settings.rateLimitRate()) {
+                rateLimited.incrementAndGet();
+                return response.status(HttpResponseStatus.TOO_MANY_REQUESTS)
+                        .header("Content-Type", "application/json")
+                        .header("Retry-After", String.valueOf(settings.retryAfterSeconds()))
+                        .sendString(Mono.just("{\"error\":{\"message\":\"Rate limit reached\",\"type\":\"rate_limit_exceeded\"}}"))
+                        .then();
+            }
+            Duration firstToken = settings.latency().sample();
+            if (body.contains("\"stream\":true")) {
+                Flux<String> events = Flux.interval(firstToken, Duration.ofMillis(CHUNK_MILLIS))
+                        .take(chunks.size())
+                        .map(i -> "data: " + chunks.get(i.intValue()) + "\n\n")
+                        .concatWithValues("data: [DONE]\n\n");
+                return response.header("Content-Type", "text/event-stream").sendString(events).then();
+            }
+            Duration generation = Duration.ofMillis(Math.round(tokens() * 1000.0 / settings.tokensPerSecond()));
+            return Mono.delay(firstToken.plus(generation))
+                    .then(response.header("Content-Type", "application/json")
+                            .sendByteArray(Mono.just(completion))
+                            .then());
+        });
+    }
+
+    private int tokens() {
+        return Math.max(1, settings.responseChars() / 4);
+    }
+
+    /** Splits the answer into one SSE chunk per 50 ms of generation. */
+    private List<String> chunk(String content) {
+        int charsPerChunk = (int) Math.max(1, Math.round(settings.tokensPerSecond() * 4 * CHUNK_MILLIS / 1000.0));
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < content.length(); i += charsPerChunk) {
+            String piece = content.substring(i, Math.min(content.length(), i + charsPerChunk));
+            out.add(new String(json(Map.of(
+                    "id", "chatcmpl-stub",
+                    "model", "stub-model",
+                    "choices", List.of(Map.of("index", 0, "delta", Map.of("content", piece)))))));
+        }
+        return out;
+    }
+
+    private static String answer(int chars) {
+        StringBuilder code = new StringBuilder();
+        int i = 0;
+        while (code.length() < Math.max(0, chars - 120)) {
+            code.append("    public int method").append(i).append("(int x) { return x * ").append(i++).append("; }\n");
+        }
+        return "Here is the implementation:\n\n```java filename=Generated.java\npublic class Generated {\n"
+                + code + "}\n```\n\nLet me know if you need changes.";
+    }
+
+    private byte[] json(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
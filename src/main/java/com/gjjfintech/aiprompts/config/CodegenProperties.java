@@ -4,6 +4,11 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import lombok.Data;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @Configuration
 @ConfigurationProperties(prefix = "codegen")
 @Data
@@ -17,6 +22,58 @@ public class CodegenProperties {
 
     private OpenAI openai = new OpenAI();
     private Azure azure = new Azure();
+    private Http http = new Http();
+    private Io io = new Io();
+    private Execution execution = new Execution();
+    private Batch batch = new Batch();
+    private Jobs jobs = new Jobs();
+    private Cache cache = new Cache();
+    private Conversations conversations = new Conversations();
+    private Context context = new Context();
+    private Tokens tokens = new Tokens();
+    private Estimate estimate = new Estimate();
+    private References references = new References();
+    private Images images = new Images();
+    private Timings timings = new Timings();
+    private Jfr jfr = new Jfr();
+    private RateLimits rateLimits = new RateLimits();
+    private Hedging hedging = new Hedging();
+
+    /** Value reported for a provider or model that is not configured anywhere. */
+    public static final String OTHER = "other";
+
+    /** {@code provider} if it is one this service talks to, otherwise {@link #OTHER}. */
+    public static String knownProvider(String provider) {
+        return "openai".equals(provider) || "azure".equals(provider) ? provider : OTHER;
+    }
+
+    /**
+     * {@code model} if it is configured for {@code provider} (default model or deployment, an
+     * Azure backend, a rate-limit budget, a hedging secondary, or a per-model setting), otherwise
+     * {@link #OTHER}. Keeps per-model state and metric series bounded whatever callers send as
+     * overrides.model.
+     */
+    public String knownModel(String provider, String model) {
+        if (model == null || model.isBlank()) return OTHER;
+        if ("openai".equals(provider) && model.equals(openai.getModel())) return model;
+        if ("azure".equals(provider)) {
+            if (model.equals(azure.getDeployment())) return model;
+            for (Azure.Backend b : azure.getBackends()) {
+                if (model.equals(b.getDeployment())) return model;
+            }
+        }
+        if (rateLimits.getBudgets().containsKey(provider + ":" + model)) return model;
+        for (Hedging.Policy policy : hedging.getPolicies().values()) {
+            if (provider.equals(policy.getSecondary()) && model.equals(policy.getSecondaryModel())) return model;
+        }
+        if (context.getModelBudgets().containsKey(model)
+                || tokens.getEncodings().containsKey(model)
+                || estimate.getModels().containsKey(model)
+                || images.getModelMaxDimension().containsKey(model)) {
+            return model;
+        }
+        return OTHER;
+    }
 
     @Data
     public static class Parsing {
@@ -37,7 +94,208 @@ public class CodegenProperties {
         private String endpoint;
         private String apiVersion;
         private String apiKeyEnv;
-        private String deployment;
+        private String deployment;                     // also the name used for cache keys, rate limits and metrics
         private int timeoutSeconds = 60;
+        private List<Backend> backends = new ArrayList<>(); // empty = the single endpoint/deployment above
+        private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+        /** One endpoint + deployment; blank fields fall back to the values above. */
+        @Data
+        public static class Backend {
+            private String name;
+            private String endpoint;
+            private String deployment;
+            private String apiKeyEnv;
+            private String apiVersion;
+            private double weight = 1.0;               // relative capacity (e.g. quota)
+        }
+
+        @Data
+        public static class CircuitBreaker {
+            private int failureThreshold = 5;          // consecutive 5xx/timeouts/connection errors
+            private long openMillis = 30000;           // first ejection; doubles per failed probe
+            private long maxOpenMillis = 300000;
+            private long throttledMillis = 10000;      // ejection after a 429 without Retry-After
+        }
+
+        /** The configured backends with blanks filled in, or the single endpoint/deployment. */
+        public List<Backend> resolvedBackends() {
+            List<Backend> out = new ArrayList<>();
+            List<Backend> source = backends.isEmpty() ? List.of(new Backend()) : backends;
+            for (int i = 0; i < source.size(); i++) {
+                Backend b = source.get(i);
+                Backend r = new Backend();
+                r.setEndpoint(b.getEndpoint() != null && !b.getEndpoint().isBlank() ? b.getEndpoint() : endpoint);
+                r.setDeployment(b.getDeployment() != null && !b.getDeployment().isBlank() ? b.getDeployment() : deployment);
+                r.setApiKeyEnv(b.getApiKeyEnv() != null && !b.getApiKeyEnv().isBlank() ? b.getApiKeyEnv() : apiKeyEnv);
+                r.setApiVersion(b.getApiVersion() != null && !b.getApiVersion().isBlank() ? b.getApiVersion() : apiVersion);
+                r.setWeight(b.getWeight() > 0 ? b.getWeight() : 1.0);
+                r.setName(b.getName() != null && !b.getName().isBlank() ? b.getName() : (source.size() == 1 ? "default" : "backend-" + i));
+                out.add(r);
+            }
+            return out;
+        }
+    }
+
+    @Data
+    public static class Http {
+        private int maxConnections = 50;             // per provider endpoint
+        private int pendingAcquireMaxCount = 500;    // callers allowed to queue for a connection
+        private int pendingAcquireTimeoutSeconds = 30;
+        private int maxIdleTimeSeconds = 30;         // close pooled connections idle for longer
+        private int maxLifeTimeSeconds = 300;        // recycle connections (DNS / load balancer changes)
+        private int evictInBackgroundSeconds = 30;
+        private int connectTimeoutMillis = 10000;
+        private boolean keepAlive = true;
+        private boolean http2 = false;               // negotiate h2 via ALPN, falls back to HTTP/1.1
+        private int warmupConnections = 2;           // connections opened per endpoint at startup (0 = off)
+        private long maxResponseBytes = 16L * 1024 * 1024; // larger provider responses (or SSE events) are rejected
+    }
+
+    @Data
+    public static class Io {
+        private int threadCap = 32;          // max threads doing blocking file I/O
+        private int queuedTaskCap = 10000;   // tasks allowed to wait for one of them
+    }
+
+    @Data
+    public static class Execution {
+        private String mode = "platform";        // platform | virtual (Tomcat + I/O work on virtual threads)
+        private boolean detectPinning = true;    // virtual mode: log carrier-thread pinning via JFR
+        private int pinnedThresholdMillis = 20;  // only report pins longer than this
+    }
+
+    @Data
+    public static class Batch {
+        private int maxJobs = 1000;                                 // per /generate-code/batch call
+        private int defaultConcurrency = 4;                         // in-flight jobs per provider
+        private Map<String, Integer> providerConcurrency = new HashMap<>(); // e.g. openai: 8, azure: 4
+    }
+
+    @Data
+    public static class Jobs {
+        private int workers = 8;              // jobs executing concurrently
+        private int maxQueued = 10000;        // submissions beyond this are rejected (503)
+        private boolean fsync = false;        // force each journal append to disk
+        private int retentionHours = 24;      // finished jobs kept (and journaled) this long
+        private int purgeIntervalMinutes = 15; // expired jobs dropped and the journal compacted this often
+    }
+
+    @Data
+    public static class Cache {
+        private boolean enabled = true;
+        private boolean deterministicOnly = true; // only cache calls with temperature 0
+        private int memoryMaxEntries = 500;
+        private long diskMaxMb = 512;             // outputDir/.cache; least recently used evicted first
+        private int ttlHours = 168;
+    }
+
+    @Data
+    public static class Conversations {
+        private long cacheMaxMb = 64;   // in-memory conversations; least recently used evicted first
+        private int lockStripes = 64;   // rounded up to a power of two
+    }
+
+    @Data
+    public static class Context {
+        private int defaultBudgetTokens = 100000;                      // input tokens per chat-and-save call
+        private Map<String, Integer> modelBudgets = new HashMap<>();    // Azure deployment name -> budget
+        private int reserveOutputTokens = 4096;                        // subtracted from the budget
+        private int keepRecentTurns = 4;                               // user+assistant pairs never trimmed
+        private List<String> trimOrder = new ArrayList<>(List.of("history", "references")); // trimmed first -> last
+        private int imageTokens = 1105;                                // estimate per attached image
+    }
+
+    @Data
+    public static class Tokens {
+        private String defaultEncoding = "o200k_base";            // for models jtokkit does not know (e.g. Azure deployments)
+        private Map<String, String> encodings = new HashMap<>();  // model/deployment -> cl100k_base | o200k_base
+    }
+
+    @Data
+    public static class Estimate {
+        private Pricing defaults = new Pricing();
+        private Map<String, Pricing> models = new HashMap<>();    // model/deployment -> pricing and speed
+
+        @Data
+        public static class Pricing {
+            private double inputUsdPerMillion = 2.50;
+            private double outputUsdPerMillion = 10.00;
+            private long firstTokenMillis = 600;                  // time to first output token
+            private double outputTokensPerSecond = 80;
+            private int expectedOutputTokens = 1200;              // capped by maxOutputTokens
+        }
+    }
+
+    @Data
+    public static class References {
+        private long cacheMaxMb = 64;                 // cached reference file contents, LRU
+        private int maxFiles = 100;                   // per request; the rest are skipped
+        private long maxTotalBytes = 4 * 1024 * 1024; // per request; files that would exceed it are skipped
+    }
+
+    @Data
+    public static class Images {
+        private boolean enabled = true;                              // false sends files as they are on disk
+        private int maxDimension = 2048;                             // longest side, unless set per model
+        private Map<String, Integer> modelMaxDimension = new HashMap<>(); // model/deployment -> longest side
+        private int maxShortSide = 768;                              // vision models tile at this size anyway
+        private float jpegQuality = 0.85f;
+        private long cacheMaxMb = 64;                                // prepared images, by content digest
+    }
+
+    @Data
+    public static class Timings {
+        private boolean expose = true;            // Server-Timing header + "timings" field on responses
+        private long slowRequestMillis = 20000;   // log the stage breakdown of slower requests (0 = off)
+    }
+
+    @Data
+    public static class Jfr {
+        private boolean enabled = false;              // in-process recording with jfr/codegen.jfc
+        private long maxAgeMinutes = 30;
+        private long maxSizeMb = 250;
+        private String destination = "codegen.jfr";   // written on shutdown
+    }
+
+    @Data
+    public static class RateLimits {
+        private boolean enabled = true;
+        private Budget defaults = new Budget();
+        private Map<String, Budget> budgets = new HashMap<>(); // provider or provider:model -> budget
+        private long queueTimeoutMillis = 30000;     // callers wait this long for a slot, then fail
+        private int maxQueued = 500;                 // per provider+model; beyond this calls fail at once
+        private int maxRetries = 3;                  // on 429
+        private long backoffMillis = 1000;           // base of the jittered exponential backoff
+        private long maxBackoffMillis = 60000;       // a longer Retry-After fails the call instead
+
+        @Data
+        public static class Budget {
+            private int requestsPerMinute = 0;       // 0 = unlimited
+            private int tokensPerMinute = 0;         // prompt estimate + max output tokens; 0 = unlimited
+            private int burstSeconds = 10;           // bucket size, in seconds of budget
+            private int initialConcurrency = 64;
+            private int minConcurrency = 1;
+            private int maxConcurrency = 512;
+            private double latencyTolerance = 2.0;   // back off when a call takes this much longer than usual
+        }
+    }
+
+    @Data
+    public static class Hedging {
+        private boolean enabled = false;
+        private Map<String, Policy> policies = new HashMap<>(); // primary provider -> policy
+
+        @Data
+        public static class Policy {
+            private String secondary;                 // openai | azure
+            private String secondaryModel;            // model/deployment for the secondary; blank = its default
+            private double percentile = 0.95;         // hedge calls slower than this share of recent ones
+            private long minDelayMillis = 2000;
+            private long initialDelayMillis = 20000;  // until window/10 primary latencies are known
+            private int window = 500;                 // recent primary calls
+            private double maxHedgeRate = 0.05;       // hedges per primary call, at most
+            private boolean failover = true;          // retry on the secondary when the primary fails
+        }
     }
 }
@@ -0,0 +1,26 @@
+package com.gjjfintech.aiprompts.config;
+
+import com.gjjfintech.aiprompts.jfr.CodegenRecording;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Continuous flight recording (codegen.jfr.enabled=true) for running without JVM flags.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "codegen.jfr", name = "enabled", havingValue = "true")
+public class JfrConfig {
+
+    @Bean
+    public CodegenRecording codegenRecording(CodegenProperties props) {
+        CodegenProperties.Jfr jfr = props.getJfr();
+        return new CodegenRecording(
+                Duration.ofMinutes(jfr.getMaxAgeMinutes()),
+                jfr.getMaxSizeMb() * 1024 * 1024,
+                Path.of(jfr.getDestination()));
+    }
+}
@@ -0,0 +1,68 @@
+package com.gjjfintech.aiprompts.config;
+
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Watches for virtual threads that stay pinned to their carrier (blocking inside a
+ * synchronized block or a native frame) using the JDK's jdk.VirtualThreadPinned event,
+ * and logs the offending stack so the section can be reworked (ReentrantLock, or moved
+ * off the request path). No agent or JVM flag is needed.
+ */
+public class PinnedThreadMonitor implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(PinnedThreadMonitor.class);
+    private static final int MAX_FRAMES = 12;
+
+    private final Duration threshold;
+    private final AtomicLong pinnedCount = new AtomicLong();
+    private RecordingStream stream;
+
+    public PinnedThreadMonitor(int thresholdMillis) {
+        this.threshold = Duration.ofMillis(Math.max(0, thresholdMillis));
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        stream = new RecordingStream();
+        stream.enable("jdk.VirtualThreadPinned").withThreshold(threshold).withStackTrace();
+        stream.onEvent("jdk.VirtualThreadPinned", event -> {
+            pinnedCount.incrementAndGet();
+            log.warn("Virtual thread pinned for {} ms on '{}':\n{}",
+                    event.getDuration().toMillis(),
+                    event.getThread() != null ? event.getThread().getJavaName() : "?",
+                    format(event.getStackTrace()));
+        });
+        stream.startAsync();
+        log.info("Virtual-thread pinning monitor started (threshold {} ms)", threshold.toMillis());
+    }
+
+    public long pinnedCount() {
+        return pinnedCount.get();
+    }
+
+    @Override
+    public void destroy() {
+        if (stream != null) stream.close();
+    }
+
+    private static String format(RecordedStackTrace trace) {
+        if (trace == null) return "  (no stack trace)";
+        List<RecordedFrame> frames = trace.getFrames();
+        return frames.stream()
+                .limit(MAX_FRAMES)
+                .map(f -> "  at " + f.getMethod().getType().getName() + "." + f.getMethod().getName()
+                        + (f.isJavaFrame() ? ":" + f.getLineNumber() : " (native)"))
+                .collect(Collectors.joining("\n"));
+    }
+}
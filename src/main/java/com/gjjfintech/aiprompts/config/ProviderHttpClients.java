@@ -0,0 +1,201 @@
+package com.gjjfintech.aiprompts.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.Http11SslContextSpec;
+import reactor.netty.http.Http2SslContextSpec;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.SocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Long-lived, pooled WebClients for the LLM providers.
+ * One client (and one Reactor Netty connection pool) is built per provider + endpoint
+ * the first time it is needed and then reused for every call, so TLS sessions and
+ * keep-alive connections survive between prompts.
+ */
+@Component
+public class ProviderHttpClients implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ProviderHttpClients.class);
+
+    private final WebClient.Builder webClientBuilder;
+    private final CodegenProperties props;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, PooledClient> clients = new ConcurrentHashMap<>();
+    private final Map<String, PoolEntry> pools = new ConcurrentHashMap<>();
+
+    public ProviderHttpClients(WebClient.Builder webClientBuilder, CodegenProperties props, MeterRegistry meterRegistry) {
+        this.webClientBuilder = webClientBuilder;
+        this.props = props;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public WebClient openAi() {
+        return client("openai", props.getOpenai().getApiBaseUrl(), false).webClient();
+    }
+
+    public WebClient azure(String endpoint) {
+        // Azure calls have always trusted any certificate (corporate proxies); keep that behaviour.
+        return client("azure", endpoint, true).webClient();
+    }
+
+    /**
+     * Snapshot of every connection pool the clients have opened so far.
+     */
+    public List<PoolStats> poolStats() {
+        List<PoolStats> out = new ArrayList<>();
+        pools.forEach((key, e) -> out.add(new PoolStats(
+                e.poolName(),
+                String.valueOf(e.remoteAddress()),
+                e.metrics().acquiredSize(),
+                e.metrics().idleSize(),
+                e.metrics().allocatedSize(),
+                e.metrics().pendingAcquireSize(),
+                e.metrics().maxAllocatedSize(),
+                e.metrics().maxPendingAcquireSize()
+        )));
+        return out;
+    }
+
+    /**
+     * Pre-warms the configured endpoints: initialises the event loop, DNS resolver and
+     * TLS context, then opens a few connections so the first prompt does not pay for them.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmup() {
+        warmup("openai", props.getOpenai().getApiBaseUrl(), false);
+        props.getAzure().resolvedBackends().stream()
+                .map(CodegenProperties.Azure.Backend::getEndpoint)
+                .distinct()
+                .forEach(endpoint -> warmup("azure", endpoint, true));
+    }
+
+    @Override
+    public void destroy() {
+        clients.values().forEach(c -> c.connectionProvider().dispose());
+        clients.clear();
+        pools.clear();
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    private PooledClient client(String provider, String baseUrl, boolean trustAll) {
+        if (baseUrl == null || baseUrl.isBlank()) {
+            throw new IllegalStateException("No base URL configured for provider " + provider);
+        }
+        String key = provider + "|" + baseUrl.toLowerCase(Locale.ROOT);
+        return clients.computeIfAbsent(key, k -> build(provider, baseUrl, trustAll));
+    }
+
+    private PooledClient build(String provider, String baseUrl, boolean trustAll) {
+        CodegenProperties.Http http = props.getHttp();
+        String poolName = provider + "@" + URI.create(baseUrl).getHost();
+
+        ConnectionProvider connectionProvider = ConnectionProvider.builder(poolName)
+                .maxConnections(http.getMaxConnections())
+                .pendingAcquireMaxCount(http.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(Duration.ofSeconds(http.getPendingAcquireTimeoutSeconds()))
+                .maxIdleTime(Duration.ofSeconds(http.getMaxIdleTimeSeconds()))
+                .maxLifeTime(Duration.ofSeconds(http.getMaxLifeTimeSeconds()))
+                .evictInBackground(Duration.ofSeconds(http.getEvictInBackgroundSeconds()))
+                .metrics(true, () -> this::register)
+                .build();
+
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .keepAlive(http.isKeepAlive())
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, http.getConnectTimeoutMillis());
+
+        if (http.isHttp2()) {
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+        if (trustAll) {
+            httpClient = http.isHttp2()
+                    ? httpClient.secure(ssl -> ssl.sslContext(Http2SslContextSpec.forClient()
+                            .configure(b -> b.trustManager(InsecureTrustManagerFactory.INSTANCE))))
+                    : httpClient.secure(ssl -> ssl.sslContext(Http11SslContextSpec.forClient()
+                            .configure(b -> b.trustManager(InsecureTrustManagerFactory.INSTANCE))));
+        }
+
+        // Completions are parsed as a stream of buffers; this only bounds single SSE events
+        int maxInMemory = (int) Math.min(Integer.MAX_VALUE, http.getMaxResponseBytes());
+        WebClient webClient = webClientBuilder.clone()
+                .baseUrl(baseUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(maxInMemory))
+                .build();
+
+        log.info("Created pooled HTTP client '{}' for {} (maxConnections={}, http2={})",
+                poolName, baseUrl, http.getMaxConnections(), http.isHttp2());
+        return new PooledClient(webClient, httpClient, connectionProvider);
+    }
+
+    private void register(String poolName, String id, SocketAddress remoteAddress, ConnectionPoolMetrics metrics) {
+        pools.put(poolName + "|" + id, new PoolEntry(poolName, remoteAddress, metrics));
+        Tags tags = Tags.of("pool", poolName, "remote", String.valueOf(remoteAddress));
+        gauge("codegen.http.pool.active", tags, metrics, ConnectionPoolMetrics::acquiredSize);
+        gauge("codegen.http.pool.idle", tags, metrics, ConnectionPoolMetrics::idleSize);
+        gauge("codegen.http.pool.allocated", tags, metrics, ConnectionPoolMetrics::allocatedSize);
+        gauge("codegen.http.pool.pending", tags, metrics, ConnectionPoolMetrics::pendingAcquireSize);
+    }
+
+    private void gauge(String name, Tags tags, ConnectionPoolMetrics metrics, ToDoubleFunction<ConnectionPoolMetrics> value) {
+        Gauge.builder(name, metrics, value).tags(tags).strongReference(true).register(meterRegistry);
+    }
+
+    private void warmup(String provider, String baseUrl, boolean trustAll) {
+        if (baseUrl == null || baseUrl.isBlank() || baseUrl.contains("YOUR-RESOURCE")) return;
+        PooledClient c = client(provider, baseUrl, trustAll);
+        int connections = props.getHttp().getWarmupConnections();
+
+        c.httpClient().warmup()
+                .thenMany(Flux.range(0, Math.max(0, connections))
+                        .flatMap(i -> c.webClient().head()
+                                .retrieve()
+                                .toBodilessEntity()
+                                .onErrorResume(e -> Mono.empty())))
+                .timeout(Duration.ofSeconds(props.getHttp().getPendingAcquireTimeoutSeconds()))
+                .subscribe(
+                        ignored -> {},
+                        e -> log.warn("Warm-up of {} failed: {}", baseUrl, e.toString()),
+                        () -> log.info("Warmed up {} ({} connections)", baseUrl, connections));
+    }
+
+    private record PooledClient(WebClient webClient, HttpClient httpClient, ConnectionProvider connectionProvider) { }
+
+    private record PoolEntry(String poolName, SocketAddress remoteAddress, ConnectionPoolMetrics metrics) { }
+
+    public record PoolStats(String pool,
+                            String remoteAddress,
+                            int active,
+                            int idle,
+                            int allocated,
+                            int pendingAcquires,
+                            int maxConnections,
+                            int maxPendingAcquires) { }
+}
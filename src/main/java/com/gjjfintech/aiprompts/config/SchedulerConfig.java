@@ -0,0 +1,29 @@
+package com.gjjfintech.aiprompts.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Schedulers for the reactive request path. Provider calls run on the Netty event loop;
+ * the remaining blocking work (image reads, artifact/conversation writes) is moved onto
+ * a bounded I/O scheduler so it never stalls the event loop or grows without limit.
+ * In virtual execution mode that work runs on virtual threads instead.
+ */
+@Configuration
+public class SchedulerConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public Scheduler ioScheduler(CodegenProperties props) {
+        if ("virtual".equalsIgnoreCase(props.getExecution().getMode())) {
+            return Schedulers.fromExecutorService(
+                    Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("codegen-io-vt-", 0).factory()),
+                    "codegen-io-virtual");
+        }
+        CodegenProperties.Io io = props.getIo();
+        return Schedulers.newBoundedElastic(io.getThreadCap(), io.getQueuedTaskCap(), "codegen-io");
+    }
+}
@@ -0,0 +1,31 @@
+package com.gjjfintech.aiprompts.config;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual-thread execution mode (codegen.execution.mode=virtual): Tomcat handles every
+ * request on its own virtual thread instead of the fixed platform worker pool, and
+ * {@link SchedulerConfig} moves the blocking I/O stages onto virtual threads as well.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "codegen.execution", name = "mode", havingValue = "virtual")
+public class VirtualThreadConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer() {
+        return handler -> handler.setExecutor(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("tomcat-vt-", 0).factory()));
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "codegen.execution", name = "detect-pinning", havingValue = "true", matchIfMissing = true)
+    public PinnedThreadMonitor pinnedThreadMonitor(CodegenProperties props) {
+        return new PinnedThreadMonitor(props.getExecution().getPinnedThresholdMillis());
+    }
+}
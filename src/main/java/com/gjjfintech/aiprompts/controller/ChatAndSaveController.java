@@ -2,14 +2,20 @@ package com.gjjfintech.aiprompts.controller;
 
 import com.gjjfintech.aiprompts.dto.ChatAndSaveRequest;
 import com.gjjfintech.aiprompts.dto.ChatAndSaveResponse;
+import com.gjjfintech.aiprompts.exception.RateLimitedException;
 import com.gjjfintech.aiprompts.service.ChatAndSaveService;
+import com.gjjfintech.aiprompts.service.StageTimings;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @RestController
-@CrossOrigin(origins = {"http://localhost:5173"})
+@CrossOrigin(origins = {"http://localhost:5173"}, exposedHeaders = "Server-Timing")
 public class ChatAndSaveController {
 
     private final ChatAndSaveService service;
@@ -21,8 +27,24 @@ public class ChatAndSaveController {
     @PostMapping(path = "/chat-and-save", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
     public Mono<ResponseEntity<ChatAndSaveResponse>> chatAndSave(@RequestBody ChatAndSaveRequest req) {
         return service.process(req)
-                .map(ResponseEntity::ok)
+                .map(response -> {
+                    String serverTiming = StageTimings.serverTiming(response.timings);
+                    ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+                    if (serverTiming != null) ok.header("Server-Timing", serverTiming);
+                    return ok.body(response);
+                })
+                .onErrorResume(RateLimitedException.class, ex -> {
+                    ResponseEntity.BodyBuilder tooMany = ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS);
+                    if (ex.getRetryAfterSeconds() != null) tooMany.header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()));
+                    return Mono.just(tooMany.body(ChatAndSaveResponse.rateLimited("Error: " + ex.getMessage(), ex.getRetryAfterSeconds())));
+                })
                 .onErrorResume(ex -> Mono.just(ResponseEntity.internalServerError()
                         .body(ChatAndSaveResponse.failed("Error: " + ex.getMessage()))));
     }
+
+    @PostMapping(path = "/chat-and-save/stream", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> chatAndSaveStream(@RequestBody ChatAndSaveRequest req) {
+        return service.processStream(req)
+                .map(e -> ServerSentEvent.builder(e.data()).event(e.event()).build());
+    }
 }
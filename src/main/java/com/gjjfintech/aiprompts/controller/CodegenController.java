@@ -1,26 +1,45 @@
 package com.gjjfintech.aiprompts.controller;
 
 import com.gjjfintech.aiprompts.dto.GenerateCodeRequest;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.gjjfintech.aiprompts.dto.GenerateCodeResponse;
+import com.gjjfintech.aiprompts.service.BatchCodegenService;
 import com.gjjfintech.aiprompts.service.CodegenService;
+import com.gjjfintech.aiprompts.service.StageTimings;
 import jakarta.validation.Valid;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 
 /**
  * REST controller exposing a simple API to generate code from a prompt
  * (with an optional image reference) and save it to a configured directory.
  */
 @RestController
-@CrossOrigin(origins = {"http://localhost:5190"})
+@CrossOrigin(origins = {"http://localhost:5190"}, exposedHeaders = "Server-Timing")
 @RequestMapping
 public class CodegenController {
 
     private final CodegenService codegenService;
+    private final BatchCodegenService batchCodegenService;
+    private final ObjectMapper objectMapper;
 
-    public CodegenController(CodegenService codegenService) {
+    public CodegenController(CodegenService codegenService,
+                             BatchCodegenService batchCodegenService,
+                             ObjectMapper objectMapper) {
         this.codegenService = codegenService;
+        this.batchCodegenService = batchCodegenService;
+        this.objectMapper = objectMapper;
     }
 
     /**
@@ -34,16 +53,73 @@ public class CodegenController {
     /**
      * Accepts a single generation job, forwards it to the provider (OpenAI/Azure),
      * parses the response, saves the file, and returns the saved path + status.
+     * The stage breakdown is also sent as a Server-Timing header. A call refused by the
+     * provider rate limiter answers 429 with Retry-After.
      */
     @PostMapping(
             path = "/generate-code",
             consumes = MediaType.APPLICATION_JSON_VALUE,
             produces = MediaType.APPLICATION_JSON_VALUE
     )
-    public ResponseEntity<GenerateCodeResponse> generateCode(
+    public Mono<ResponseEntity<GenerateCodeResponse>> generateCode(
+            @RequestBody @Valid GenerateCodeRequest request
+    ) {
+        return codegenService.process(request).map(response -> {
+            String serverTiming = StageTimings.serverTiming(response.getTimings());
+            ResponseEntity.BodyBuilder builder = "RATE_LIMITED".equals(response.getError())
+                    ? ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    : ResponseEntity.ok();
+            if (response.getRetryAfterSeconds() != null) builder.header(HttpHeaders.RETRY_AFTER, String.valueOf(response.getRetryAfterSeconds()));
+            if (serverTiming != null) builder.header("Server-Timing", serverTiming);
+            return builder.body(response);
+        });
+    }
+
+    /**
+     * Streaming variant of /generate-code. Emits Server-Sent Events: "token" for each chunk
+     * of the model output, "artifact" once the code block has been saved, and a final "done"
+     * event carrying the GenerateCodeResponse.
+     */
+    @PostMapping(
+            path = "/generate-code/stream",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE
+    )
+    public Flux<ServerSentEvent<Object>> generateCodeStream(
             @RequestBody @Valid GenerateCodeRequest request
     ) {
-        GenerateCodeResponse response = codegenService.process(request);
-        return ResponseEntity.ok(response);
+        return codegenService.processStream(request)
+                .map(e -> ServerSentEvent.builder(e.data()).event(e.event()).build());
+    }
+
+    /**
+     * Submits many jobs at once as a JSON array. Jobs run in parallel (bounded per provider)
+     * and each GenerateCodeResponse is streamed back as one NDJSON line as soon as it
+     * completes, i.e. not in submission order. A failing job yields a FAILED line only.
+     */
+    @PostMapping(
+            path = "/generate-code/batch",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE
+    )
+    public Flux<GenerateCodeResponse> generateCodeBatch(
+            @RequestBody List<GenerateCodeRequest> requests
+    ) {
+        return batchCodegenService.processBatch(requests);
+    }
+
+    /**
+     * Same as above, with the jobs sent as NDJSON (one GenerateCodeRequest per line). Lines are
+     * parsed as they are read, and reading stops once the batch is over codegen.batch.maxJobs.
+     */
+    @PostMapping(
+            path = "/generate-code/batch",
+            consumes = MediaType.APPLICATION_NDJSON_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE
+    )
+    public Flux<GenerateCodeResponse> generateCodeBatchNdjson(InputStream body) throws IOException {
+        try (MappingIterator<GenerateCodeRequest> it = objectMapper.readerFor(GenerateCodeRequest.class).readValues(body)) {
+            return batchCodegenService.processBatch(it);
+        }
     }
 }
@@ -0,0 +1,47 @@
+package com.gjjfintech.aiprompts.controller;
+
+import com.gjjfintech.aiprompts.dto.ChatAndSaveRequest;
+import com.gjjfintech.aiprompts.dto.EstimateResponse;
+import com.gjjfintech.aiprompts.dto.GenerateCodeRequest;
+import com.gjjfintech.aiprompts.service.EstimateService;
+import jakarta.validation.Valid;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+/**
+ * Dry-run counterparts of /generate-code and /chat-and-save: same request bodies, but only
+ * the input tokens per part and the predicted cost and latency are returned. The provider
+ * is not called and nothing is saved.
+ *
+ * POST /estimate/generate-code   body = GenerateCodeRequest
+ * POST /estimate/chat-and-save   body = ChatAndSaveRequest
+ * Response:
+ * {
+ *   "model": "gpt-4.1-mini", "encoding": "o200k_base",
+ *   "inputTokens": { "system": 12, "prompt": 240, "images": 0 }, "totalInputTokens": 252,
+ *   "predictedOutputTokens": 1200, "predictedCostUsd": 0.00202, "predictedLatencyMillis": 12500
+ * }
+ */
+@RestController
+@CrossOrigin(origins = {"http://localhost:5190"})
+@RequestMapping("/estimate")
+public class EstimateController {
+
+    private final EstimateService estimateService;
+
+    public EstimateController(EstimateService estimateService) {
+        this.estimateService = estimateService;
+    }
+
+    @PostMapping(path = "/generate-code", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<EstimateResponse> generateCode(@RequestBody @Valid GenerateCodeRequest request) {
+        return ResponseEntity.ok(estimateService.estimate(request));
+    }
+
+    @PostMapping(path = "/chat-and-save", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<EstimateResponse>> chatAndSave(@RequestBody ChatAndSaveRequest request) {
+        return estimateService.estimate(request).map(ResponseEntity::ok);
+    }
+}
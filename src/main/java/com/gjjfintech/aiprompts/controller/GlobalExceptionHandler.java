@@ -4,6 +4,8 @@ import com.gjjfintech.aiprompts.dto.GenerateCodeResponse;
 import com.gjjfintech.aiprompts.exception.CodegenException;
 import com.gjjfintech.aiprompts.exception.ParseException;
 import com.gjjfintech.aiprompts.exception.ProviderException;
+import com.gjjfintech.aiprompts.exception.RateLimitedException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -28,6 +30,23 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
     }
 
+    @ExceptionHandler(RateLimitedException.class)
+    public ResponseEntity<GenerateCodeResponse> handleRateLimitedException(RateLimitedException ex) {
+        GenerateCodeResponse response = new GenerateCodeResponse(
+                null,
+                "FAILED",
+                null,
+                null,
+                ex.getMessage(),
+                "RATE_LIMITED"
+        );
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS);
+        if (ex.getRetryAfterSeconds() != null) {
+            builder.header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()));
+        }
+        return builder.body(response);
+    }
+
     @ExceptionHandler(ProviderException.class)
     public ResponseEntity<GenerateCodeResponse> handleProviderException(ProviderException ex) {
         GenerateCodeResponse response = new GenerateCodeResponse(
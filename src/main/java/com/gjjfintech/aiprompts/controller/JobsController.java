@@ -0,0 +1,50 @@
+package com.gjjfintech.aiprompts.controller;
+
+import com.gjjfintech.aiprompts.dto.GenerateCodeRequest;
+import com.gjjfintech.aiprompts.dto.JobStatus;
+import com.gjjfintech.aiprompts.service.JobService;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Asynchronous variant of /generate-code: submit a job, then poll or cancel it by id.
+ *
+ * POST   /jobs        body = GenerateCodeRequest  -> 202 + JobStatus (503 when the queue is full)
+ * GET    /jobs/{id}                               -> JobStatus (result set once COMPLETED)
+ * DELETE /jobs/{id}                               -> JobStatus after cancellation
+ */
+@RestController
+@CrossOrigin(origins = {"http://localhost:5190"})
+@RequestMapping("/jobs")
+public class JobsController {
+
+    private final JobService jobService;
+
+    public JobsController(JobService jobService) {
+        this.jobService = jobService;
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatus> submit(@RequestBody @Valid GenerateCodeRequest request) {
+        return jobService.submit(request)
+                .map(status -> ResponseEntity.status(HttpStatus.ACCEPTED).body(status))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+    }
+
+    @GetMapping(path = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatus> get(@PathVariable String id) {
+        return jobService.get(id)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @DeleteMapping(path = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatus> cancel(@PathVariable String id) {
+        return jobService.cancel(id)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
@@ -0,0 +1,34 @@
+package com.gjjfintech.aiprompts.controller;
+
+import com.gjjfintech.aiprompts.config.ProviderHttpClients;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Exposes connection pool statistics of the provider HTTP clients, for sizing
+ * codegen.http.maxConnections / pendingAcquireMaxCount.
+ *
+ * GET /provider-pools
+ * Response:
+ * [
+ *   { "pool": "azure@my.openai.azure.com", "active": 3, "idle": 5, "pendingAcquires": 0, ... }
+ * ]
+ */
+@RestController
+public class ProviderPoolsController {
+
+    private final ProviderHttpClients httpClients;
+
+    public ProviderPoolsController(ProviderHttpClients httpClients) {
+        this.httpClients = httpClients;
+    }
+
+    @GetMapping(path = "/provider-pools", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<ProviderHttpClients.PoolStats>> poolStats() {
+        return ResponseEntity.ok(httpClients.poolStats());
+    }
+}
@@ -0,0 +1,29 @@
+package com.gjjfintech.aiprompts.controller;
+
+import com.gjjfintech.aiprompts.service.ResponseCache;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Exposes response cache effectiveness.
+ *
+ * GET /response-cache
+ * Response:
+ * { "memoryHits": 12, "diskHits": 3, "misses": 5, "hitRatio": 0.75, "memoryEntries": 8, "diskEntries": 8, "diskBytes": 20480 }
+ */
+@RestController
+public class ResponseCacheController {
+
+    private final ResponseCache responseCache;
+
+    public ResponseCacheController(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    @GetMapping(path = "/response-cache", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ResponseCache.Stats> stats() {
+        return ResponseEntity.ok(responseCache.stats());
+    }
+}
@@ -1,7 +1,10 @@
 package com.gjjfintech.aiprompts.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 public class ChatAndSaveResponse {
     public String id;
@@ -10,6 +13,12 @@ public class ChatAndSaveResponse {
     public String messageContent;
     public List<SavedArtifact> savedArtifacts;
     public String notes;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Map<String, Double> timings; // optional stage -> milliseconds (also sent as Server-Timing)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String error;                // optional error type if FAILED (e.g. RATE_LIMITED)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long retryAfterSeconds;      // with error RATE_LIMITED (also sent as Retry-After)
 
     public static ChatAndSaveResponse failed(String message) {
         ChatAndSaveResponse r = new ChatAndSaveResponse();
@@ -21,4 +30,11 @@ public class ChatAndSaveResponse {
         r.notes = null;
         return r;
     }
+
+    public static ChatAndSaveResponse rateLimited(String message, Long retryAfterSeconds) {
+        ChatAndSaveResponse r = failed(message);
+        r.error = "RATE_LIMITED";
+        r.retryAfterSeconds = retryAfterSeconds;
+        return r;
+    }
 }
\ No newline at end of file
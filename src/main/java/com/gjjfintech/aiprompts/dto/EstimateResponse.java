@@ -0,0 +1,28 @@
+package com.gjjfintech.aiprompts.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Response DTO returned by the /estimate endpoints: what a request would cost, computed
+ * locally without calling the provider.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EstimateResponse {
+
+    private String provider;
+    private String model;                     // model or Azure deployment
+    private String encoding;                  // cl100k_base | o200k_base
+    private Map<String, Integer> inputTokens; // per part: system, history, references, prompt, images
+    private int totalInputTokens;
+    private Integer budgetTokens;             // chat-and-save only: context budget after output reserve
+    private int predictedOutputTokens;
+    private double predictedCostUsd;
+    private long predictedLatencyMillis;
+    private String notes;
+}
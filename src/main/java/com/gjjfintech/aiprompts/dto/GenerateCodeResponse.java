@@ -1,9 +1,12 @@
 package com.gjjfintech.aiprompts.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.Map;
+
 /**
  * Response DTO returned by the /generate-code endpoint.
  */
@@ -18,4 +21,14 @@ public class GenerateCodeResponse {
     private String savedFile;  // Absolute path on disk (Windows style)
     private String message;
     private String error;      // Optional error description if FAILED
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, Double> timings; // Optional stage -> milliseconds (also sent as Server-Timing)
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long retryAfterSeconds;      // With error RATE_LIMITED (also sent as Retry-After)
+
+    public GenerateCodeResponse(String id, String status, String modelUsed, String savedFile, String message, String error) {
+        this(id, status, modelUsed, savedFile, message, error, null, null);
+    }
 }
@@ -0,0 +1,21 @@
+package com.gjjfintech.aiprompts.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * State of an asynchronous generation job (see /jobs endpoints).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobStatus {
+
+    private String id;
+    private String state;          // QUEUED | RUNNING | COMPLETED | CANCELLED
+    private Long submittedAt;      // epoch millis
+    private Long startedAt;
+    private Long finishedAt;
+    private GenerateCodeResponse result; // set once COMPLETED (status OK | NO_CODE_FOUND | FAILED)
+}
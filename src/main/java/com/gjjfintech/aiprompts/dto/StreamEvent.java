@@ -0,0 +1,25 @@
+package com.gjjfintech.aiprompts.dto;
+
+import java.util.Map;
+
+/**
+ * One Server-Sent Event emitted by the streaming endpoints.
+ *
+ * event = "token"    data = {"text": "..."}           (a chunk of the assistant message)
+ * event = "artifact" data = SavedArtifact             (a code block was written to disk)
+ * event = "done"     data = GenerateCodeResponse | ChatAndSaveResponse
+ */
+public record StreamEvent(String event, Object data) {
+
+    public static StreamEvent token(String text) {
+        return new StreamEvent("token", Map.of("text", text));
+    }
+
+    public static StreamEvent artifact(SavedArtifact artifact) {
+        return new StreamEvent("artifact", artifact);
+    }
+
+    public static StreamEvent done(Object response) {
+        return new StreamEvent("done", response);
+    }
+}
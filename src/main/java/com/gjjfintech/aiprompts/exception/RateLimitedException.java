@@ -0,0 +1,33 @@
+package com.gjjfintech.aiprompts.exception;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a provider call could not be made within its rate limit: the local queue wait
+ * ran out, or the provider kept answering 429 after the allowed retries.
+ */
+public class RateLimitedException extends ProviderException {
+
+    private final Duration retryAfter;
+
+    public RateLimitedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public RateLimitedException(String message, Duration retryAfter, Throwable cause) {
+        super(message, cause);
+        this.retryAfter = retryAfter;
+    }
+
+    /** How long the caller should wait before trying again; null if unknown. */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /** {@link #getRetryAfter()} in whole seconds (at least 1) for a Retry-After header; null if unknown. */
+    public Long getRetryAfterSeconds() {
+        if (retryAfter == null) return null;
+        return Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    }
+}
@@ -0,0 +1,73 @@
+package com.gjjfintech.aiprompts.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Continuous in-process flight recording with the JDK "default" profile plus
+ * {@value #SETTINGS} (this package's events), kept on disk for {@code maxAge} and written to
+ * {@code destination} when the application shuts down. The same settings can be used from the
+ * command line instead: {@code -XX:StartFlightRecording:settings=default,settings=codegen.jfc}.
+ */
+public class CodegenRecording implements InitializingBean, DisposableBean {
+
+    public static final String SETTINGS = "/jfr/codegen.jfc";
+
+    private static final Logger log = LoggerFactory.getLogger(CodegenRecording.class);
+
+    private final Duration maxAge;
+    private final long maxSizeBytes;
+    private final Path destination;
+    private Recording recording;
+
+    public CodegenRecording(Duration maxAge, long maxSizeBytes, Path destination) {
+        this.maxAge = maxAge;
+        this.maxSizeBytes = maxSizeBytes;
+        this.destination = destination;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException, ParseException {
+        Map<String, String> settings = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+        settings.putAll(codegenSettings().getSettings());
+
+        recording = new Recording(settings);
+        recording.setName("codegen");
+        recording.setToDisk(true);
+        recording.setMaxAge(maxAge);
+        recording.setMaxSize(maxSizeBytes);
+        recording.setDestination(destination);
+        recording.start();
+        log.info("Flight recording started (max age {} min, dumped to {} on shutdown)", maxAge.toMinutes(), destination.toAbsolutePath());
+    }
+
+    @Override
+    public void destroy() {
+        if (recording == null) return;
+        recording.stop(); // writes to the destination
+        recording.close();
+    }
+
+    private static Configuration codegenSettings() throws IOException, ParseException {
+        InputStream in = CodegenRecording.class.getResourceAsStream(SETTINGS);
+        if (in == null) throw new IOException("Missing " + SETTINGS + " on the classpath");
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return Configuration.create(reader);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.gjjfintech.aiprompts.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Appending one user/assistant turn to a project's conversation log, including the wait for
+ * its lock stripe.
+ */
+@Name("com.gjjfintech.aiprompts.ConversationAppend")
+@Label("Conversation Append")
+@Category({"AI Prompts", "Conversations"})
+@Description("A chat-and-save turn written to conversation/messages.jsonl")
+@StackTrace(false)
+public class ConversationAppendEvent extends Event {
+
+    @Label("Project")
+    public String project;
+
+    @Label("Turn Size")
+    @Description("Estimated in-memory size of the appended messages")
+    @DataAmount
+    public long bytes;
+
+    @Label("Messages")
+    @Description("Messages in the conversation afterwards; -1 if it is not cached")
+    public int messages;
+}
@@ -0,0 +1,34 @@
+package com.gjjfintech.aiprompts.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Loading a project's conversation history, including the wait for its lock stripe.
+ */
+@Name("com.gjjfintech.aiprompts.ConversationLoad")
+@Label("Conversation Load")
+@Category({"AI Prompts", "Conversations"})
+@Description("Prior messages of a chat-and-save project read from the cache or from disk")
+@StackTrace(false)
+public class ConversationLoadEvent extends Event {
+
+    @Label("Project")
+    public String project;
+
+    @Label("Messages")
+    public int messages;
+
+    @Label("Size")
+    @Description("Estimated in-memory size of the messages")
+    @DataAmount
+    public long bytes;
+
+    @Label("Cache Hit")
+    public boolean cacheHit;
+}
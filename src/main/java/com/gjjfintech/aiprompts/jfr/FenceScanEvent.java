@@ -0,0 +1,39 @@
+package com.gjjfintech.aiprompts.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Extraction of fenced code blocks from a complete provider response.
+ */
+@Name("com.gjjfintech.aiprompts.FenceScan")
+@Label("Fence Scan")
+@Category({"AI Prompts", "Parsing"})
+@Description("Fenced code blocks extracted from a provider response")
+@StackTrace(false)
+public class FenceScanEvent extends Event {
+
+    @Label("Source")
+    @Description("CodeParser (generate-code) or ArtifactSaver (chat-and-save)")
+    public String source;
+
+    @Label("Project")
+    @Description("chat-and-save project, if any")
+    public String project;
+
+    @Label("Text Length")
+    @Description("Characters scanned")
+    public long textLength;
+
+    @Label("Fences")
+    @Description("Terminated fenced blocks found (CodeParser stops at the first)")
+    public int fences;
+
+    @Label("Language")
+    @Description("Language of the first block, if any")
+    public String language;
+}
@@ -0,0 +1,31 @@
+package com.gjjfintech.aiprompts.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A generated file written to disk.
+ */
+@Name("com.gjjfintech.aiprompts.FileWrite")
+@Label("Generated File Write")
+@Category({"AI Prompts", "Files"})
+@Description("Generated code saved to the output directory or a project's generatedcode folder")
+@StackTrace(false)
+public class FileWriteEvent extends Event {
+
+    @Label("Kind")
+    @Description("output (generate-code) or artifact (chat-and-save)")
+    public String kind;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,63 @@
+package com.gjjfintech.aiprompts.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One Chat Completions call, from subscription until the response is parsed (or the last
+ * stream chunk arrives). Calls served by the response cache or coalesced by single-flight
+ * are not provider calls and are not recorded.
+ */
+@Name("com.gjjfintech.aiprompts.ProviderCall")
+@Label("Provider Call")
+@Category({"AI Prompts", "Provider"})
+@Description("A Chat Completions request to OpenAI or Azure OpenAI")
+@StackTrace(false)
+public class ProviderCallEvent extends Event {
+
+    @Label("Endpoint")
+    @Description("generate-code or chat-and-save")
+    public String endpoint;
+
+    @Label("Provider")
+    public String provider;
+
+    @Label("Model")
+    @Description("Model (OpenAI) or deployment (Azure) requested")
+    public String model;
+
+    @Label("Project")
+    @Description("chat-and-save project, if any")
+    public String project;
+
+    @Label("Request Id")
+    @Description("generate-code job id, if any")
+    public String requestId;
+
+    @Label("Streamed")
+    public boolean stream;
+
+    @Label("Request Size")
+    @DataAmount
+    public long requestBytes;
+
+    @Label("Response Size")
+    @Description("Body bytes read; 0 for streamed calls")
+    @DataAmount
+    public long responseBytes;
+
+    @Label("Prompt Tokens")
+    public int promptTokens;
+
+    @Label("Completion Tokens")
+    public int completionTokens;
+
+    @Label("Outcome")
+    @Description("success, empty, rate_limited, client_error, server_error, timeout, error or cancelled")
+    public String outcome;
+}
@@ -1,46 +1,103 @@
 package com.gjjfintech.aiprompts.service;
 
 import com.gjjfintech.aiprompts.dto.SavedArtifact;
+import com.gjjfintech.aiprompts.jfr.FenceScanEvent;
+import com.gjjfintech.aiprompts.jfr.FileWriteEvent;
+import com.gjjfintech.aiprompts.util.FenceScanner;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 @Service
 public class ArtifactSaver {
 
-    private static final Pattern FENCE = Pattern.compile(
-            "(?ms)```(?<lang>[a-zA-Z0-9_+\\-\\.]*)(?:\\s+filename=(?<fname>[^\\r\\n`]+))?\\s*\\n(?<code>.*?)\\n```"
-    );
+    private final CodegenMetrics metrics;
+
+    public ArtifactSaver(CodegenMetrics metrics) {
+        this.metrics = metrics;
+    }
 
     public List<SavedArtifact> saveAll(String assistantText, Path generatedDir) {
+        return saveAll(assistantText, generatedDir, new StageTimings());
+    }
+
+    /** Same as above, adding the fence scan to {@code timings} as "parse" and the writes as "artifacts". */
+    public List<SavedArtifact> saveAll(String assistantText, Path generatedDir, StageTimings timings) {
         List<SavedArtifact> artifacts = new ArrayList<>();
         if (assistantText == null || assistantText.isBlank()) return artifacts;
 
-        Matcher m = FENCE.matcher(assistantText);
-        int idx = 1;
-        while (m.find()) {
-            String lang = emptyToNull(m.group("lang"));
-            String fname = emptyToNull(m.group("fname"));
-            String code = m.group("code") != null ? m.group("code") : "";
-
-            String ext = extForLang(lang);
-            String fileName = (fname != null) ? sanitizeFilename(fname) : String.format("snippet-%03d%s", idx, ext);
+        FenceScanEvent event = new FenceScanEvent();
+        long start = System.nanoTime();
+        event.begin();
+        List<FenceScanner.Fence> fences = FenceScanner.scan(assistantText);
+        event.end();
+        timings.record("parse", start);
+        metrics.parse(CodegenMetrics.CHAT_AND_SAVE, System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.source = "ArtifactSaver";
+            event.project = project(generatedDir);
+            event.textLength = assistantText.length();
+            event.fences = (int) fences.stream().filter(FenceScanner.Fence::terminated).count();
+            event.language = fences.isEmpty() ? null : fences.get(0).language();
+            event.commit();
+        }
 
-            Path out = generatedDir.resolve(fileName);
-            try {
-                Files.createDirectories(out.getParent());
-                Files.writeString(out, code, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                artifacts.add(new SavedArtifact(fileName, lang, out.toAbsolutePath().toString()));
+        long writeStart = System.nanoTime();
+        int idx = 1;
+        for (FenceScanner.Fence fence : fences) {
+            if (!fence.terminated()) continue;
+            SavedArtifact saved = save(fence.language(), fence.filename(), fence.content(), idx, generatedDir);
+            if (saved != null) {
+                artifacts.add(saved);
                 idx++;
-            } catch (IOException ignored) {}
+            }
         }
+        timings.record("artifacts", writeStart);
         return artifacts;
     }
 
+    /**
+     * Writes a single code block using the same naming rules as {@link #saveAll}:
+     * the fence's filename attribute if present, otherwise snippet-NNN.ext.
+     * Returns null if the file could not be written.
+     */
+    public SavedArtifact save(String lang, String fname, String code, int idx, Path generatedDir) {
+        lang = emptyToNull(lang);
+        fname = emptyToNull(fname);
+        String ext = extForLang(lang);
+        String fileName = (fname != null) ? sanitizeFilename(fname) : String.format("snippet-%03d%s", idx, ext);
+
+        Path out = generatedDir.resolve(fileName);
+        FileWriteEvent event = new FileWriteEvent();
+        long start = System.nanoTime();
+        event.begin();
+        try {
+            Files.createDirectories(out.getParent());
+            Files.writeString(out, code != null ? code : "", StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            event.end();
+            if (event.shouldCommit()) {
+                event.kind = "artifact";
+                event.path = out.toString();
+                event.bytes = code != null ? code.getBytes(StandardCharsets.UTF_8).length : 0;
+                event.commit();
+            }
+            return new SavedArtifact(fileName, lang, out.toAbsolutePath().toString());
+        } catch (IOException ignored) {
+            return null;
+        } finally {
+            metrics.artifactWrite(CodegenMetrics.CHAT_AND_SAVE, System.nanoTime() - start);
+        }
+    }
+
+    /** generatedDir is {@code <filesBaseDir>/<project>/generatedcode}. */
+    private static String project(Path generatedDir) {
+        Path parent = generatedDir.toAbsolutePath().getParent();
+        return parent != null && parent.getFileName() != null ? parent.getFileName().toString() : null;
+    }
+
     private static String sanitizeFilename(String name) {
         String n = name.trim().replace("\\", "/");
         n = n.substring(n.lastIndexOf('/') + 1);
@@ -0,0 +1,373 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Routes Azure calls over the configured backends (codegen.azure.backends).
+ *
+ * Each call goes to the healthy backend with the lowest {@code (inFlight + 1) x EWMA latency / weight}
+ * (ties broken at random). A backend with no latency yet is scored with the average of the
+ * others, so new or recovered backends get traffic straight away.
+ *
+ * Every backend has a circuit breaker: failureThreshold consecutive failures (5xx, timeouts,
+ * connection errors) open it for openMillis, and a 429 opens it at once for the Retry-After
+ * (or throttledMillis). Once that has passed, one probe call is let through: success closes the
+ * breaker, failure opens it again for twice as long (up to maxOpenMillis). When every backend
+ * is open, the one due back first is used anyway as a probe, so a single backend behaves as
+ * before and its ejection keeps growing while it keeps failing.
+ *
+ * A call that fails on one backend with such an error is retried on another one it has not
+ * tried yet; streams only before their first delta. Client errors (4xx other than 429) count
+ * as a healthy answer and are not retried. Errors raised on this side (a missing API key, an
+ * unparseable or empty answer, a local rate-limit refusal) say nothing about the backend's
+ * health: they leave the breaker alone and are not retried elsewhere. Backends whose API key
+ * env var is unset are left out at startup, unless none has a key.
+ */
+final class AzureBackends {
+
+    private static final Logger log = LoggerFactory.getLogger(AzureBackends.class);
+    private static final double LATENCY_ALPHA = 0.1;
+    private static final String PROVIDER = "azure";
+
+    /** Where one call goes: a backend and the deployment to call on it. */
+    record Route(Backend backend, String deployment) {
+        String endpoint() {
+            return backend.config.getEndpoint();
+        }
+
+        String apiVersion() {
+            return backend.config.getApiVersion();
+        }
+
+        String apiKeyEnv() {
+            return backend.config.getApiKeyEnv();
+        }
+    }
+
+    private final List<Backend> backends;
+    private final CodegenProperties.Azure.CircuitBreaker breaker;
+    private final CodegenMetrics metrics;
+    private final ProviderRateLimiter rateLimiter;
+
+    AzureBackends(CodegenProperties.Azure azure, CodegenMetrics metrics, ProviderRateLimiter rateLimiter) {
+        this.breaker = azure.getCircuitBreaker();
+        this.metrics = metrics;
+        this.rateLimiter = rateLimiter;
+        List<CodegenProperties.Azure.Backend> configs = azure.resolvedBackends();
+        List<CodegenProperties.Azure.Backend> keyed = configs.stream().filter(AzureBackends::hasApiKey).toList();
+        for (CodegenProperties.Azure.Backend config : configs) {
+            if (hasApiKey(config)) continue;
+            log.warn("Azure backend {}: API key env var ({}) is not set; {}", config.getName(), config.getApiKeyEnv(),
+                    keyed.isEmpty() ? "its calls will fail" : "not using it");
+        }
+        List<Backend> list = new ArrayList<>();
+        for (CodegenProperties.Azure.Backend config : keyed.isEmpty() ? configs : keyed) {
+            Backend b = new Backend(config);
+            metrics.gauge("codegen.azure.backend.inflight", b, Backend::inFlight, "backend", config.getName());
+            metrics.gauge("codegen.azure.backend.latency.ewma", b, Backend::latencyMillis, "backend", config.getName());
+            metrics.gauge("codegen.azure.backend.open", b, Backend::openGauge, "backend", config.getName());
+            list.add(b);
+        }
+        this.backends = List.copyOf(list);
+    }
+
+    /**
+     * Runs {@code call} on the best backend for {@code deployment} (null = each backend's own),
+     * moving to another backend when it fails with a 429, 5xx, timeout or connection error.
+     * Each attempt waits for a slot in its backend's rate limiter
+     * ({@link ProviderRateLimiter#onBackend}); 429 retries are left to the caller
+     * ({@link ProviderRateLimiter#retrying}).
+     *
+     * @param usedTokens tokens the backend reports for a result, or -1 if unknown
+     */
+    <T> Mono<T> call(String deployment, Function<Route, Mono<T>> call, ToIntFunction<T> usedTokens) {
+        return Mono.defer(() -> attempt(deployment, route -> rateLimiter.onBackend(PROVIDER, route.backend().name(),
+                route.deployment(), () -> call.apply(route), usedTokens), new HashSet<>()));
+    }
+
+    /** Streaming variant of {@link #call}: only moves to another backend before the first delta. */
+    <T> Flux<T> stream(String deployment, Function<Route, Flux<T>> call) {
+        return Flux.defer(() -> attemptStream(deployment, route -> rateLimiter.streamOnBackend(PROVIDER, route.backend().name(),
+                route.deployment(), () -> call.apply(route)), new HashSet<>()));
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    private <T> Mono<T> attempt(String deployment, Function<Route, Mono<T>> call, Set<Backend> tried) {
+        Lease lease = pick(deployment, tried);
+        Route route = route(deployment, lease.backend);
+        return call.apply(route)
+                .doOnSuccess(v -> lease.success())
+                .doOnCancel(lease::cancel)
+                .onErrorResume(e -> {
+                    boolean failover = lease.failure(e);
+                    tried.add(route.backend());
+                    if (!failover || !hasAlternative(deployment, tried)) return Mono.error(e);
+                    metrics.circuit("azure", route.backend().name(), "failover");
+                    log.warn("Azure backend {} failed ({}), retrying on another backend", route.backend().name(), e.toString());
+                    return attempt(deployment, call, tried);
+                });
+    }
+
+    private <T> Flux<T> attemptStream(String deployment, Function<Route, Flux<T>> call, Set<Backend> tried) {
+        Lease lease = pick(deployment, tried);
+        Route route = route(deployment, lease.backend);
+        AtomicBoolean started = new AtomicBoolean();
+        return call.apply(route)
+                .doOnNext(delta -> started.set(true))
+                .doOnComplete(lease::success)
+                .doOnCancel(lease::cancel)
+                .onErrorResume(e -> {
+                    boolean failover = lease.failure(e);
+                    tried.add(route.backend());
+                    if (!failover || started.get() || !hasAlternative(deployment, tried)) return Flux.error(e);
+                    metrics.circuit("azure", route.backend().name(), "failover");
+                    log.warn("Azure backend {} failed ({}), retrying on another backend", route.backend().name(), e.toString());
+                    return attemptStream(deployment, call, tried);
+                });
+    }
+
+    /** Backends that serve {@code deployment}: those configured with it, otherwise all of them. */
+    private List<Backend> candidates(String deployment) {
+        if (deployment == null || deployment.isBlank()) return backends;
+        List<Backend> matching = backends.stream().filter(b -> deployment.equals(b.config.getDeployment())).toList();
+        return matching.isEmpty() ? backends : matching;
+    }
+
+    private boolean hasAlternative(String deployment, Set<Backend> tried) {
+        return candidates(deployment).stream().anyMatch(b -> !tried.contains(b));
+    }
+
+    /** Claims the best backend for one call: lowest score first, skipping those that cannot take it. */
+    private Lease pick(String deployment, Set<Backend> tried) {
+        List<Backend> candidates = candidates(deployment);
+        List<Backend> untried = candidates.stream().filter(b -> !tried.contains(b)).toList();
+        if (!untried.isEmpty()) candidates = untried;
+
+        long now = System.nanoTime();
+        double avgLatency = candidates.stream().mapToDouble(Backend::ewmaNanos).filter(l -> l > 0).average().orElse(1);
+        List<ScoredBackend> scored = new ArrayList<>(candidates.size());
+        for (Backend b : candidates) scored.add(new ScoredBackend(b, b.score(avgLatency)));
+        Collections.shuffle(scored, ThreadLocalRandom.current()); // the sort is stable: ties broken at random
+        scored.sort(Comparator.comparingDouble(ScoredBackend::score));
+        for (ScoredBackend s : scored) {
+            Lease lease = s.backend().tryAcquire(now);
+            if (lease != null) return lease;
+        }
+        // all ejected: use the one due back first as the probe
+        Backend best = null;
+        for (Backend b : candidates) {
+            if (best == null || b.openUntil() < best.openUntil()) best = b;
+        }
+        return best.forceProbe();
+    }
+
+    private static Route route(String deployment, Backend backend) {
+        String target = (deployment != null && !deployment.isBlank()) ? deployment : backend.config.getDeployment();
+        return new Route(backend, target);
+    }
+
+    private record ScoredBackend(Backend backend, double score) { }
+
+    private static boolean hasApiKey(CodegenProperties.Azure.Backend config) {
+        String key = config.getApiKeyEnv() != null ? System.getenv(config.getApiKeyEnv()) : null;
+        return key != null && !key.isBlank();
+    }
+
+    /** 429, 5xx, timeouts and connection errors: the ones that say the backend is unwell. */
+    private static boolean isFailure(Throwable e) {
+        if (e instanceof WebClientResponseException w) {
+            int status = w.getStatusCode().value();
+            return status == 429 || status >= 500;
+        }
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof WebClientRequestException || t instanceof TimeoutException || t instanceof IOException) return true;
+        }
+        return false;
+    }
+
+    /** A 4xx other than 429: the backend is up and answered, the request was at fault. */
+    private static boolean isClientError(Throwable e) {
+        return e instanceof WebClientResponseException w && w.getStatusCode().is4xxClientError() && w.getStatusCode().value() != 429;
+    }
+
+    /** One backend's load and health. Mutable state is guarded by {@code this}. */
+    final class Backend {
+        final CodegenProperties.Azure.Backend config;
+
+        private int inFlight;
+        private double ewmaNanos;
+        private int consecutiveFailures;
+        private long openUntil;          // nanoTime; 0 = closed
+        private long openNanos;          // length of the current/last ejection
+        private boolean probing;         // half-open: the one probe call is in flight
+
+        Backend(CodegenProperties.Azure.Backend config) {
+            this.config = config;
+        }
+
+        String name() {
+            return config.getName();
+        }
+
+        synchronized long inFlight() {
+            return inFlight;
+        }
+
+        synchronized long latencyMillis() {
+            return (long) (ewmaNanos / 1_000_000);
+        }
+
+        synchronized long openGauge() {
+            return openUntil != 0 ? 1 : 0;
+        }
+
+        synchronized double ewmaNanos() {
+            return ewmaNanos;
+        }
+
+        synchronized long openUntil() {
+            return openUntil;
+        }
+
+        synchronized double score(double defaultLatency) {
+            double latency = ewmaNanos > 0 ? ewmaNanos : defaultLatency;
+            return (inFlight + 1) * latency / config.getWeight();
+        }
+
+        /**
+         * Takes a call if the breaker is closed, or claims the probe if it is open, due and no
+         * probe is running; null otherwise. Check and claim happen under one lock so two callers
+         * cannot both probe.
+         */
+        synchronized Lease tryAcquire(long now) {
+            if (openUntil == 0) {
+                inFlight++;
+                return new Lease(this, false);
+            }
+            if (now < openUntil || probing) return null;
+            probing = true;
+            inFlight++;
+            return new Lease(this, true);
+        }
+
+        /** Used when every backend is open: the call counts as a probe, so a failure doubles the ejection. */
+        synchronized Lease forceProbe() {
+            probing = true;
+            inFlight++;
+            return new Lease(this, true);
+        }
+
+        void succeeded(long latencyNanos) {
+            boolean recovered;
+            synchronized (this) {
+                inFlight--;
+                ewmaNanos = ewmaNanos == 0 ? latencyNanos : ewmaNanos + LATENCY_ALPHA * (latencyNanos - ewmaNanos);
+                consecutiveFailures = 0;
+                recovered = openUntil != 0;
+                openUntil = 0;
+                openNanos = 0;
+                probing = false;
+            }
+            if (recovered) {
+                log.info("Azure backend {} is healthy again", name());
+                metrics.circuit("azure", name(), "closed");
+            }
+        }
+
+        /** Returns whether the error is worth retrying on another backend. */
+        boolean failed(Throwable e, boolean probe) {
+            boolean rateLimited = ProviderRateLimiter.isRateLimit(e);
+            boolean failure = isFailure(e);
+            Duration ejectFor = null;
+            synchronized (this) {
+                inFlight--;
+                if (!failure) {
+                    if (isClientError(e)) {
+                        // the backend answered; it is healthy even though the request was not
+                        consecutiveFailures = 0;
+                        if (probe) {
+                            openUntil = 0;
+                            openNanos = 0;
+                        }
+                    }
+                    if (probe) probing = false; // otherwise nothing learnt: let another call probe
+                    return false;
+                }
+                consecutiveFailures++;
+                if (rateLimited) {
+                    Duration retryAfter = ProviderRateLimiter.retryAfter((WebClientResponseException) e);
+                    ejectFor = retryAfter != null ? retryAfter : Duration.ofMillis(breaker.getThrottledMillis());
+                } else if (probe && openNanos > 0) {
+                    ejectFor = Duration.ofNanos(Math.min(openNanos * 2, Duration.ofMillis(breaker.getMaxOpenMillis()).toNanos()));
+                } else if (openUntil == 0 && consecutiveFailures >= breaker.getFailureThreshold()) {
+                    // calls already in flight when the breaker opened do not reset its ejection
+                    ejectFor = Duration.ofMillis(Math.min(breaker.getOpenMillis(), breaker.getMaxOpenMillis()));
+                }
+                if (probe) probing = false;
+                if (ejectFor != null) {
+                    openNanos = ejectFor.toNanos();
+                    openUntil = System.nanoTime() + Math.max(1, openNanos);
+                }
+            }
+            if (ejectFor != null) {
+                log.warn("Azure backend {} ejected for {} ms ({})", name(), ejectFor.toMillis(), rateLimited ? "throttled" : e.toString());
+                metrics.circuit("azure", name(), rateLimited ? "throttled" : "open");
+            }
+            return true;
+        }
+
+        void cancelled(boolean probe) {
+            synchronized (this) {
+                inFlight--;
+                if (probe) probing = false; // the probe did not finish; let another call probe
+            }
+        }
+    }
+
+    /** One call's claim on a backend; ends exactly once. */
+    private static final class Lease {
+        private final Backend backend;
+        private final boolean probe;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Lease(Backend backend, boolean probe) {
+            this.backend = backend;
+            this.probe = probe;
+        }
+
+        void success() {
+            if (done.compareAndSet(false, true)) backend.succeeded(System.nanoTime() - start);
+        }
+
+        boolean failure(Throwable e) {
+            if (!done.compareAndSet(false, true)) return false;
+            return backend.failed(e, probe);
+        }
+
+        void cancel() {
+            if (done.compareAndSet(false, true)) backend.cancelled(probe);
+        }
+    }
+}
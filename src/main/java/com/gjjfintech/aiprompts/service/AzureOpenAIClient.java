@@ -1,73 +1,195 @@
 package com.gjjfintech.aiprompts.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.gjjfintech.aiprompts.config.CodegenProperties;
-import io.netty.handler.ssl.SslContextBuilder;
-import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import com.gjjfintech.aiprompts.config.ProviderHttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpHeaders;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.MediaType;
-import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.function.client.WebClient;
-import reactor.netty.http.client.HttpClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * Minimal Azure OpenAI client targeting the Chat Completions API.
  * Uses deployment name instead of model, and api-version query param.
+ * Calls are spread over codegen.azure.backends by {@link AzureBackends}.
  */
 @Component
 public class AzureOpenAIClient implements LLMClient {
 
     private static final Logger log = LoggerFactory.getLogger(AzureOpenAIClient.class);
+    private static final String PROVIDER = "azure";
 
-    private final WebClient.Builder webClientBuilder;
+    private final ProviderHttpClients httpClients;
     private final CodegenProperties props;
-
-    public AzureOpenAIClient(WebClient.Builder webClientBuilder, CodegenProperties props) {
-        this.webClientBuilder = webClientBuilder;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Executor bodyWriter;
+    private final CodegenMetrics metrics;
+    private final AzureBackends backends;
+
+    public AzureOpenAIClient(ProviderHttpClients httpClients,
+                                CodegenProperties props,
+                                @Qualifier("ioScheduler") Scheduler ioScheduler,
+                                CodegenMetrics metrics,
+                                ProviderRateLimiter rateLimiter) {
+        this.httpClients = httpClients;
         this.props = props;
+        this.metrics = metrics;
+        this.backends = new AzureBackends(props.getAzure(), metrics, rateLimiter);
+        // request bodies are serialized on the I/O scheduler, straight into the connection's buffers
+        this.bodyWriter = ioScheduler::schedule;
     }
 
     @Override
-    public ProviderResult generate(String modelOverride,
-                                   String systemPrompt,
-                                   String userPrompt,
-                                   ImageInput image,
-                                   Double temperature,
-                                   Integer maxOutputTokens) {
-
-        String endpoint = props.getAzure().getEndpoint();
-        String apiVersion = props.getAzure().getApiVersion();
-        String deployment = (modelOverride != null && !modelOverride.isBlank())
-                ? modelOverride
-                : props.getAzure().getDeployment();
-
-        String apiKey = System.getenv(props.getAzure().getApiKeyEnv());
-        if (apiKey == null || apiKey.isBlank()) {
-            throw new IllegalStateException("AZURE API key env var (" + props.getAzure().getApiKeyEnv() + ") is not set");
-        }
+    public Mono<ProviderResult> generate(String modelOverride,
+                                         String systemPrompt,
+                                         String userPrompt,
+                                         ImageInput image,
+                                         Double temperature,
+                                         Integer maxOutputTokens) {
+        Map<String, Object> payload = buildPayload(systemPrompt, userPrompt, image, temperature, maxOutputTokens, false);
+        return backends.call(override(modelOverride), route -> {
+            String deployment = route.deployment();
+            String apiKey = apiKey(route.apiKeyEnv());
+            WebClient client = httpClients.azure(route.endpoint());
+
+            // Azure path format: /openai/deployments/{deployment}/chat/completions?api-version=...
+            return metrics.provider(CodegenMetrics.GENERATE_CODE, PROVIDER, deployment, call -> client.post()
+                    .uri(uriBuilder -> uriBuilder
+                            .path("/openai/deployments/" + deployment + "/chat/completions")
+                            .queryParam("api-version", route.apiVersion())
+                            .build())
+                    .header("api-key", apiKey)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(ChatCompletionBody.of(payload, mapper, bodyWriter, call::requestBytes))
+                    .retrieve()
+                    .bodyToFlux(DataBuffer.class)
+                    .as(body -> ChatCompletionParser.parse(body, deployment, mapper.getFactory(),
+                            props.getHttp().getMaxResponseBytes(), call::responseBytes))
+                    .timeout(Duration.ofSeconds(props.getAzure().getTimeoutSeconds()))
+                    .switchIfEmpty(Mono.error(() -> new IllegalStateException("Azure OpenAI returned no choices")))
+                    .map(response -> toResult(response, deployment)));
+        }, RateLimitedLLMClient::usedTokens);
+    }
 
-        HttpClient insecureHttpClient = HttpClient.create().secure(ssl -> {
-            ssl.sslContext(
-                    SslContextBuilder.forClient()
-                            .trustManager(InsecureTrustManagerFactory.INSTANCE) // trust all
-            );
+    private static ProviderResult toResult(ProviderResult response, String deployment) {
+        String content = response.content() != null ? response.content() : "";
+        // Azure typically doesn’t echo a 'model' field; report the deployment
+        return new ProviderResult(deployment, content, response.finishReason(), response.usage());
+    }
+
+    @Override
+    public Flux<ProviderResult> stream(String modelOverride,
+                                       String systemPrompt,
+                                       String userPrompt,
+                                       ImageInput image,
+                                       Double temperature,
+                                       Integer maxOutputTokens) {
+        Map<String, Object> payload = buildPayload(systemPrompt, userPrompt, image, temperature, maxOutputTokens, true);
+        return postStream(CodegenMetrics.GENERATE_CODE, override(modelOverride), payload);
+    }
+
+    /**
+     * Multi-message chat call used by the chat-and-save flow (prior turns + multipart user content).
+     * Emits nothing when the response has no choices; content is null when the message had none.
+     */
+    public Mono<ProviderResult> chat(List<Map<String, Object>> messages) {
+        return backends.call(null, route -> {
+            String deployment = coalesce(route.deployment(), "");
+            String apiVersion = coalesce(route.apiVersion(), "2024-02-15-preview");
+            String apiKey = readEnv(route.apiKeyEnv());
+            if (!StringUtils.hasText(apiKey)) {
+                return Mono.error(new IllegalStateException("AZURE API key env var (" + route.apiKeyEnv() + ") is not set"));
+            }
+
+            return metrics.provider(CodegenMetrics.CHAT_AND_SAVE, PROVIDER, deployment, call -> httpClients.azure(route.endpoint()).post()
+                    .uri(uriBuilder -> uriBuilder
+                            .path("/openai/deployments/" + deployment + "/chat/completions")
+                            .queryParam("api-version", apiVersion)
+                            .build())
+                    .header("api-key", apiKey)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.APPLICATION_JSON)
+                    .body(ChatCompletionBody.of(chatBody(messages, false), mapper, bodyWriter, call::requestBytes))
+                    .retrieve()
+                    .bodyToFlux(DataBuffer.class)
+                    .as(body -> ChatCompletionParser.parse(body, deployment, mapper.getFactory(),
+                            props.getHttp().getMaxResponseBytes(), call::responseBytes))
+                    .timeout(Duration.ofSeconds(props.getAzure().getTimeoutSeconds())));
+        }, RateLimitedLLMClient::usedTokens);
+    }
+
+    /**
+     * Streaming variant of {@link #chat}: emits the assistant message as content deltas.
+     */
+    public Flux<ProviderResult> chatStream(List<Map<String, Object>> messages) {
+        return postStream(CodegenMetrics.CHAT_AND_SAVE, null, chatBody(messages, true));
+    }
+
+    /* ---------------- helpers ---------------- */
+
+    /** {@code deployment} is the caller's override, or null for each backend's own. */
+    private Flux<ProviderResult> postStream(String endpointTag, String deployment, Map<String, Object> payload) {
+        return backends.stream(deployment, route -> {
+            String target = coalesce(route.deployment(), "");
+            String apiVersion = coalesce(route.apiVersion(), "2024-02-15-preview");
+            String apiKey = apiKey(route.apiKeyEnv());
+
+            // timeoutSeconds now bounds the gap between chunks, not the whole generation
+            return metrics.providerStream(endpointTag, PROVIDER, target, call -> {
+                Flux<ServerSentEvent<String>> events = httpClients.azure(route.endpoint()).post()
+                        .uri(uriBuilder -> uriBuilder
+                                .path("/openai/deployments/" + target + "/chat/completions")
+                                .queryParam("api-version", apiVersion)
+                                .build())
+                        .header("api-key", apiKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .body(ChatCompletionBody.of(payload, mapper, bodyWriter, call::requestBytes))
+                        .retrieve()
+                        .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<String>>() {});
+                return ChatCompletionChunks.deltas(events, target, mapper)
+                        .timeout(Duration.ofSeconds(props.getAzure().getTimeoutSeconds()));
+            });
         });
+    }
 
-        WebClient client = webClientBuilder
-                .baseUrl(endpoint)
-                .clientConnector(new ReactorClientHttpConnector(insecureHttpClient))
-                .defaultHeader("api-key", apiKey)
-                .build();
+    /** The deployment the caller asked for, or null to let each backend use its own. */
+    private static String override(String modelOverride) {
+        return (modelOverride != null && !modelOverride.isBlank()) ? modelOverride : null;
+    }
 
+    private static String apiKey(String apiKeyEnv) {
+        String apiKey = readEnv(apiKeyEnv);
+        if (apiKey == null || apiKey.isBlank()) {
+            throw new IllegalStateException("AZURE API key env var (" + apiKeyEnv + ") is not set");
+        }
+        return apiKey;
+    }
+
+    private static Map<String, Object> buildPayload(String systemPrompt,
+                                                    String userPrompt,
+                                                    ImageInput image,
+                                                    Double temperature,
+                                                    Integer maxOutputTokens,
+                                                    boolean stream) {
         Object system = Map.of(
                 "role", "system",
                 "content", systemPrompt != null ? systemPrompt : "You are a helpful coding assistant."
@@ -79,7 +201,7 @@ public class AzureOpenAIClient implements LLMClient {
                     "role", "user",
                     "content", List.of(
                             Map.of("type", "text", "text", userPrompt),
-                            Map.of("type", "image_url", "image_url", Map.of("url", image.url()))
+                            Map.of("type", "image_url", "image_url", Map.of("url", image))
                     )
             );
         } else {
@@ -89,145 +211,29 @@ public class AzureOpenAIClient implements LLMClient {
             );
         }
 
-        Map<String, Object> payload = Map.of(
-                "messages", List.of(system, userContent),
-                "temperature", temperature != null ? temperature : 0.2,
-                "max_tokens", maxOutputTokens != null ? maxOutputTokens : 4096
-        );
-
-        // Azure path format: /openai/deployments/{deployment}/chat/completions?api-version=...
-        JsonNode response = client.post()
-                .uri(uriBuilder -> uriBuilder
-                        .path("/openai/deployments/" + deployment + "/chat/completions")
-                        .queryParam("api-version", apiVersion)
-                        .build())
-                .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(payload)
-                .retrieve()
-                .bodyToMono(JsonNode.class)
-                .timeout(Duration.ofSeconds(props.getAzure().getTimeoutSeconds()))
-                .block();
-
-        if (response == null) throw new IllegalStateException("Azure OpenAI returned null response");
-
-        var choices = response.get("choices");
-        if (choices == null || !choices.isArray() || choices.isEmpty()) {
-            throw new IllegalStateException("Azure OpenAI returned no choices");
-        }
-
-        var first = choices.get(0);
-        String content = null;
-        var msg = first.get("message");
-        if (msg != null) {
-            var c = msg.get("content");
-            if (c != null && !c.isNull()) content = c.asText();
-        }
-        String modelUsed = deployment; // Azure typically doesn’t echo a 'model' field
-
-        if (content == null) content = "";
-
-        return new ProviderResult(modelUsed, content);
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("messages", List.of(system, userContent));
+        payload.put("temperature", temperature != null ? temperature : 0.2);
+        payload.put("max_tokens", maxOutputTokens != null ? maxOutputTokens : 4096);
+        if (stream) payload.put("stream", true);
+        return payload;
     }
 
-    private static String basicAuthValue(String user, String pass) {
-        String token = user + ":" + pass;
-        String base64 = Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8));
-        return "Basic " + base64;
-    }
-}
-
-/*
-
-package com.gjjfintech.aiprompts.service;
-
-import com.gjjfintech.aiprompts.config.CodegenProperties;
-import org.springframework.http.MediaType;
-import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
-import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.publisher.Mono;
-
-import java.nio.charset.StandardCharsets;
-import java.util.*;
-
-@Service
-public class AzureOpenAIClient {
-
-    private final CodegenProperties props;
-    private final WebClient.Builder webClientBuilder;
-
-    public AzureOpenAIClient(CodegenProperties props, WebClient.Builder webClientBuilder) {
-        this.props = props;
-        this.webClientBuilder = webClientBuilder;
-    }
-
-    public Mono<Map<String, Object>> chat(List<Map<String, Object>> messages) {
-        String endpoint = trimTrailingSlash(props.getAzure().getEndpoint());
-        String deployment = coalesce(props.getAzure().getDeployment(), "");
-        String apiVersion = coalesce(props.getAzure().getApiVersion(), "2024-02-15-preview");
-
-        String url = endpoint + "/openai/deployments/" + deployment + "/chat/completions?api-version=" + apiVersion;
-        WebClient client = webClientBuilder.baseUrl(url).build();
-
+    private static Map<String, Object> chatBody(List<Map<String, Object>> messages, boolean stream) {
         Map<String, Object> body = new HashMap<>();
         body.put("messages", messages);
         body.put("temperature", 0.2);
         body.put("top_p", 1);
-        body.put("stream", false);
-
-        return client.post()
-                .contentType(MediaType.APPLICATION_JSON)
-                .accept(MediaType.APPLICATION_JSON)
-                .headers(h -> {
-                    String apiKey = readEnv(props.getAzure().getApiKeyEnv());
-                    if (StringUtils.hasText(apiKey)) {
-                        h.set("api-key", apiKey);
-                    } else {
-                        String u = readEnv(props.getAzure().getUsernameEnv());
-                        String p = readEnv(props.getAzure().getPasswordEnv());
-                        if (StringUtils.hasText(u) && StringUtils.hasText(p)) {
-                            String basic = Base64.getEncoder().encodeToString((u + ":" + p).getBytes(StandardCharsets.UTF_8));
-                            h.set("Authorization", "Basic " + basic);
-                        }
-                    }
-                })
-                .bodyValue(body)
-                .retrieve()
-                .bodyToMono(Map.class);
-    }
-
-    @SuppressWarnings("unchecked")
-    public String extractAssistantText(Map<?, ?> azureResponse) {
-        Object choices = azureResponse.get("choices");
-        if (!(choices instanceof List<?> list) || list.isEmpty()) return null;
-        Object first = list.get(0);
-        if (!(first instanceof Map<?, ?> m)) return null;
-        Object message = m.get("message");
-        if (!(message instanceof Map<?, ?> mm)) return null;
-
-        Object content = mm.get("content");
-        if (content instanceof String s) return s;
-
-        if (content instanceof List<?> parts) {
-            StringBuilder sb = new StringBuilder();
-            for (Object o : parts) {
-                if (o instanceof Map<?, ?> pm) {
-                    Object type = pm.get("type");
-                    if ("text".equals(type)) {
-                        Object t = pm.get("text");
-                        if (t != null) sb.append(t);
-                    }
-                }
-            }
-            return sb.length() > 0 ? sb.toString() : null;
-        }
-        return null;
+        body.put("stream", stream);
+        return body;
     }
 
     private static String coalesce(String a, String b) { return StringUtils.hasText(a) ? a : b; }
-    private static String trimTrailingSlash(String s) { return (s != null && s.endsWith("/")) ? s.substring(0, s.length()-1) : s; }
     private static String readEnv(String name) { return (StringUtils.hasText(name) ? System.getenv(name) : null); }
-}
-
 
- */
\ No newline at end of file
+    private static String basicAuthValue(String user, String pass) {
+        String token = user + ":" + pass;
+        String base64 = Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+        return "Basic " + base64;
+    }
+}
@@ -0,0 +1,94 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import com.gjjfintech.aiprompts.dto.GenerateCodeRequest;
+import com.gjjfintech.aiprompts.dto.GenerateCodeResponse;
+import com.gjjfintech.aiprompts.exception.CodegenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs many generation jobs at once. Jobs are grouped by provider and each group is fanned
+ * out with its own concurrency limit (codegen.batch.providerConcurrency), so a slow provider
+ * cannot starve the other one. Results are emitted in completion order, and a failing job
+ * only produces a FAILED entry for itself.
+ */
+@Service
+public class BatchCodegenService {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchCodegenService.class);
+
+    private final CodegenService codegenService;
+    private final CodegenProperties props;
+
+    public BatchCodegenService(CodegenService codegenService, CodegenProperties props) {
+        this.codegenService = codegenService;
+        this.props = props;
+    }
+
+    public Flux<GenerateCodeResponse> processBatch(List<GenerateCodeRequest> requests) {
+        if (requests == null || requests.isEmpty()) return Flux.empty();
+        if (requests.size() > props.getBatch().getMaxJobs()) {
+            return Flux.error(new CodegenException(
+                    "Batch of " + requests.size() + " jobs exceeds codegen.batch.maxJobs=" + props.getBatch().getMaxJobs()));
+        }
+
+        Map<String, List<GenerateCodeRequest>> byProvider = new LinkedHashMap<>();
+        for (GenerateCodeRequest r : requests) {
+            byProvider.computeIfAbsent(providerOf(r), k -> new ArrayList<>()).add(r);
+        }
+        log.info("Batch of {} jobs across providers {}", requests.size(), byProvider.keySet());
+
+        List<Flux<GenerateCodeResponse>> lanes = new ArrayList<>();
+        byProvider.forEach((provider, jobs) -> lanes.add(
+                Flux.fromIterable(jobs).flatMap(this::runIsolated, concurrencyFor(provider))));
+        return Flux.merge(lanes);
+    }
+
+    /**
+     * Same as {@link #processBatch(List)} for jobs parsed as they are read (NDJSON): stops at
+     * the first job past codegen.batch.maxJobs, so an oversized body is refused without being
+     * read to the end.
+     */
+    public Flux<GenerateCodeResponse> processBatch(Iterator<GenerateCodeRequest> requests) {
+        int maxJobs = props.getBatch().getMaxJobs();
+        List<GenerateCodeRequest> jobs = new ArrayList<>();
+        while (requests.hasNext()) {
+            if (jobs.size() >= maxJobs) {
+                return Flux.error(new CodegenException("Batch exceeds codegen.batch.maxJobs=" + maxJobs));
+            }
+            jobs.add(requests.next());
+        }
+        return processBatch(jobs);
+    }
+
+    private Mono<GenerateCodeResponse> runIsolated(GenerateCodeRequest request) {
+        return codegenService.process(request)
+                .onErrorResume(e -> Mono.just(new GenerateCodeResponse(
+                        request != null ? request.getId() : null, "FAILED", null, null,
+                        e.getMessage(), e.getClass().getSimpleName()
+                )));
+    }
+
+    private String providerOf(GenerateCodeRequest r) {
+        String p = (r != null && r.getProvider() != null && !r.getProvider().isBlank())
+                ? r.getProvider()
+                : props.getProviderDefault();
+        return p != null ? p.toLowerCase(Locale.ROOT) : "";
+    }
+
+    private int concurrencyFor(String provider) {
+        Integer c = props.getBatch().getProviderConcurrency().get(provider);
+        return Math.max(1, c != null ? c : props.getBatch().getDefaultConcurrency());
+    }
+}
@@ -0,0 +1,84 @@
+package com.gjjfintech.aiprompts.service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Supplier;
+
+/**
+ * {@link LLMClient} decorator that serves repeated calls from the {@link ResponseCache}.
+ * Calls the cache does not accept (see {@link ResponseCache#cacheable}) go straight through.
+ */
+final class CachingLLMClient implements LLMClient {
+
+    private final String provider;
+    private final LLMClient delegate;
+    private final Supplier<String> defaultModel;
+    private final ResponseCache cache;
+
+    CachingLLMClient(String provider, LLMClient delegate, Supplier<String> defaultModel, ResponseCache cache) {
+        this.provider = provider;
+        this.delegate = delegate;
+        this.defaultModel = defaultModel;
+        this.cache = cache;
+    }
+
+    @Override
+    public Mono<ProviderResult> generate(String modelOverride,
+                                         String systemPrompt,
+                                         String userPrompt,
+                                         ImageInput image,
+                                         Double temperature,
+                                         Integer maxOutputTokens) {
+        if (!cache.cacheable(temperature)) {
+            return delegate.generate(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens);
+        }
+        return Mono.defer(() -> {
+            String key = key(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens);
+            return cache.lookup(key)
+                    .switchIfEmpty(Mono.defer(() -> delegate
+                            .generate(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens)
+                            .doOnNext(result -> cache.put(key, result))));
+        });
+    }
+
+    /**
+     * A hit is replayed as a single delta; a miss streams from the provider and stores the
+     * assembled message once the stream completes.
+     */
+    @Override
+    public Flux<ProviderResult> stream(String modelOverride,
+                                       String systemPrompt,
+                                       String userPrompt,
+                                       ImageInput image,
+                                       Double temperature,
+                                       Integer maxOutputTokens) {
+        if (!cache.cacheable(temperature)) {
+            return delegate.stream(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens);
+        }
+        return Flux.defer(() -> {
+            String key = key(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens);
+            return cache.lookup(key).flux()
+                    .switchIfEmpty(Flux.defer(() -> {
+                        StringBuilder text = new StringBuilder();
+                        String[] modelUsed = { null };
+                        return delegate.stream(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens)
+                                .doOnNext(delta -> {
+                                    modelUsed[0] = delta.modelUsed();
+                                    text.append(delta.content());
+                                })
+                                .doOnComplete(() -> cache.put(key, new ProviderResult(modelUsed[0], text.toString())));
+                    }));
+        });
+    }
+
+    private String key(String modelOverride,
+                       String systemPrompt,
+                       String userPrompt,
+                       ImageInput image,
+                       Double temperature,
+                       Integer maxOutputTokens) {
+        String model = (modelOverride != null && !modelOverride.isBlank()) ? modelOverride : defaultModel.get();
+        return ProviderCallKey.of(provider, model, systemPrompt, userPrompt, image, temperature, maxOutputTokens);
+    }
+}
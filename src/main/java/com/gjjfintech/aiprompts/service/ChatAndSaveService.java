@@ -1,15 +1,23 @@
 package com.gjjfintech.aiprompts.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.gjjfintech.aiprompts.config.CodegenProperties;
 import com.gjjfintech.aiprompts.dto.ChatAndSaveRequest;
 import com.gjjfintech.aiprompts.dto.ChatAndSaveResponse;
 import com.gjjfintech.aiprompts.dto.SavedArtifact;
+import com.gjjfintech.aiprompts.dto.StreamEvent;
+import com.gjjfintech.aiprompts.exception.CodegenException;
+import com.gjjfintech.aiprompts.exception.RateLimitedException;
 import com.gjjfintech.aiprompts.util.FileUtils;
+import com.gjjfintech.aiprompts.util.FenceScanner;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.*;
@@ -17,23 +25,39 @@ import java.util.*;
 @Service
 public class ChatAndSaveService {
 
+    private static final String PROVIDER = "azure";
+
     private final CodegenProperties props;
     private final ConversationStore conversationStore;
     private final InputCodeAggregator inputCodeAggregator;
     private final AzureOpenAIClient azureClient;
     private final ArtifactSaver artifactSaver;
-    private final ObjectMapper om = new ObjectMapper();
+    private final ContextBuilder contextBuilder;
+    private final ImagePreparer imagePreparer;
+    private final ProviderRateLimiter rateLimiter;
+    private final Scheduler ioScheduler;
+    private final CodegenMetrics metrics;
 
     public ChatAndSaveService(CodegenProperties props,
                               ConversationStore conversationStore,
                               InputCodeAggregator inputCodeAggregator,
                               AzureOpenAIClient azureClient,
-                              ArtifactSaver artifactSaver) {
+                              ArtifactSaver artifactSaver,
+                              ContextBuilder contextBuilder,
+                              ImagePreparer imagePreparer,
+                              ProviderRateLimiter rateLimiter,
+                              @Qualifier("ioScheduler") Scheduler ioScheduler,
+                              CodegenMetrics metrics) {
         this.props = props;
         this.conversationStore = conversationStore;
         this.inputCodeAggregator = inputCodeAggregator;
         this.azureClient = azureClient;
         this.artifactSaver = artifactSaver;
+        this.contextBuilder = contextBuilder;
+        this.imagePreparer = imagePreparer;
+        this.rateLimiter = rateLimiter;
+        this.ioScheduler = ioScheduler;
+        this.metrics = metrics;
     }
 
     public Mono<ChatAndSaveResponse> process(ChatAndSaveRequest req) {
@@ -42,101 +66,223 @@ public class ChatAndSaveService {
             return Mono.just(ChatAndSaveResponse.failed("project, systemRole and prompt are required"));
         }
 
+        // Conversation/reference/image reads are blocking: do them on the I/O scheduler
+        return metrics.request(CodegenMetrics.CHAT_AND_SAVE, PROVIDER, Mono.defer(() -> {
+            StageTimings timings = new StageTimings();
+            return Mono.fromCallable(() -> prepare(req, timings))
+                    .subscribeOn(ioScheduler)
+                    .flatMap(turn -> timings.time("provider", chat(turn))
+                            .defaultIfEmpty(new ProviderResult(props.getAzure().getDeployment(), null))
+                            .publishOn(ioScheduler)
+                            .map(resp -> {
+                                String assistantText = resp.content() != null ? resp.content() : "(no content)";
+
+                                // Save artifacts
+                                List<SavedArtifact> artifacts = artifactSaver.saveAll(assistantText, turn.generatedDir(), timings);
+
+                                // Append to conversation and persist
+                                long appendStart = System.nanoTime();
+                                conversationStore.append(turn.conversationDir(), req.prompt, assistantText);
+                                timings.record("append", appendStart);
+
+                                ChatAndSaveResponse out = new ChatAndSaveResponse();
+                                out.id = "azure-" + Instant.now().toEpochMilli();
+                                out.status = "OK";
+                                out.modelUsed = resp.modelUsed();
+                                out.messageContent = assistantText;
+                                out.savedArtifacts = artifacts;
+                                out.notes = turn.context().notes() + "; finish_reason=" + resp.finishReason()
+                                        + (resp.usage() != null ? "; usage=" + resp.usage().promptTokens() + "+" + resp.usage().completionTokens() + " tokens" : "");
+
+                                Map<String, Double> millis = timings.toMillis();
+                                StageTimings.logIfSlow(millis, props.getTimings().getSlowRequestMillis(),
+                                        CodegenMetrics.CHAT_AND_SAVE, out.id, out.status);
+                                if (props.getTimings().isExpose()) out.timings = millis;
+                                return out;
+                            }))
+                    // provider errors and timeouts still reach the controller; their timings are logged here
+                    .doOnError(e -> StageTimings.logIfSlow(timings.toMillis(), props.getTimings().getSlowRequestMillis(),
+                            CodegenMetrics.CHAT_AND_SAVE, "azure-" + Instant.now().toEpochMilli(),
+                            e instanceof RateLimitedException ? "RATE_LIMITED" : "FAILED"));
+        }).contextWrite(CodegenMetrics.attribution(req.project, null)), out -> out.status);
+    }
+
+    /**
+     * Streaming variant of {@link #process}: relays tokens as they arrive and writes each
+     * fenced block to generatedcode/ as soon as it closes. The conversation is persisted
+     * once the stream completes; the final "done" event carries the ChatAndSaveResponse.
+     */
+    public Flux<StreamEvent> processStream(ChatAndSaveRequest req) {
+        if (req == null || isBlank(req.project) || isBlank(req.systemRole) || isBlank(req.prompt)) {
+            return Flux.just(StreamEvent.done(ChatAndSaveResponse.failed("project, systemRole and prompt are required")));
+        }
+
+        return metrics.requestStream(CodegenMetrics.CHAT_AND_SAVE, PROVIDER, Mono.fromCallable(() -> prepare(req, new StageTimings()))
+                .subscribeOn(ioScheduler)
+                .flatMapMany(turn -> {
+                    FenceScanner fences = new FenceScanner();
+                    StringBuilder text = new StringBuilder();
+                    List<SavedArtifact> artifacts = new ArrayList<>();
+                    String[] modelUsed = { props.getAzure().getDeployment() };
+                    long[] parseNanos = { 0 };
+
+                    return chatStream(turn)
+                            // artifact writes happen below, keep them off the Netty event loop
+                            .publishOn(ioScheduler)
+                            .concatMap(delta -> {
+                                modelUsed[0] = delta.modelUsed();
+                                text.append(delta.content());
+                                List<StreamEvent> events = new ArrayList<>(2);
+                                events.add(StreamEvent.token(delta.content()));
+                                long start = System.nanoTime();
+                                List<FenceScanner.Fence> closed = fences.feed(delta.content());
+                                parseNanos[0] += System.nanoTime() - start;
+                                saveClosed(closed, turn.generatedDir(), artifacts, events);
+                                return Flux.fromIterable(events);
+                            })
+                            .concatWith(Flux.defer(() -> {
+                                List<StreamEvent> events = new ArrayList<>(2);
+                                long start = System.nanoTime();
+                                List<FenceScanner.Fence> closed = fences.finish();
+                                metrics.parse(CodegenMetrics.CHAT_AND_SAVE, parseNanos[0] + System.nanoTime() - start);
+                                saveClosed(closed, turn.generatedDir(), artifacts, events);
+
+                                String assistantText = text.isEmpty() ? "(no content)" : text.toString();
+                                conversationStore.append(turn.conversationDir(), req.prompt, assistantText);
+
+                                ChatAndSaveResponse out = new ChatAndSaveResponse();
+                                out.id = "azure-" + Instant.now().toEpochMilli();
+                                out.status = "OK";
+                                out.modelUsed = modelUsed[0];
+                                out.messageContent = assistantText;
+                                out.savedArtifacts = artifacts;
+                                out.notes = turn.context().notes() + "; streamed";
+                                events.add(StreamEvent.done(out));
+                                return Flux.fromIterable(events);
+                            }));
+                }).onErrorResume(ex -> Flux.just(StreamEvent.done(ex instanceof RateLimitedException rl
+                        ? ChatAndSaveResponse.rateLimited("Error: " + ex.getMessage(), rl.getRetryAfterSeconds())
+                        : ChatAndSaveResponse.failed("Error: " + ex.getMessage())))).contextWrite(CodegenMetrics.attribution(req.project, null)));
+    }
+
+    /**
+     * The context {@link #process} would send for this request, without calling the provider.
+     * Read-only: no project folders are created and images are counted but not decoded.
+     */
+    public Mono<ContextBuilder.Context> previewContext(ChatAndSaveRequest req) {
+        if (req == null || isBlank(req.project) || isBlank(req.systemRole) || isBlank(req.prompt)) {
+            return Mono.error(new CodegenException("project, systemRole and prompt are required"));
+        }
+        return Mono.fromCallable(() -> turn(req, new StageTimings(), false).context()).subscribeOn(ioScheduler);
+    }
+
+    /* ---------------- helpers ---------------- */
+
+    /**
+     * Azure call through the provider rate limiter, reserving the context plus the expected
+     * reply on whichever backend the client picks; 429s are retried here.
+     */
+    private Mono<ProviderResult> chat(Turn turn) {
+        String deployment = props.getAzure().getDeployment() != null ? props.getAzure().getDeployment() : "";
+        return rateLimiter.retrying(PROVIDER, deployment, reservedTokens(turn),
+                () -> azureClient.chat(turn.context().messages()));
+    }
+
+    private Flux<ProviderResult> chatStream(Turn turn) {
+        String deployment = props.getAzure().getDeployment() != null ? props.getAzure().getDeployment() : "";
+        return rateLimiter.retryingStream(PROVIDER, deployment, reservedTokens(turn),
+                () -> azureClient.chatStream(turn.context().messages()));
+    }
+
+    private int reservedTokens(Turn turn) {
+        return turn.context().tokens() + props.getEstimate().getDefaults().getExpectedOutputTokens();
+    }
+
+    /** Resolved project folders and the message list for one chat turn. */
+    private record Turn(Path conversationDir, Path generatedDir, ContextBuilder.Context context) { }
+
+    private Turn prepare(ChatAndSaveRequest req, StageTimings timings) {
+        Path projectRoot = FileUtils.projectRoot(props.getFilesBaseDir(), req.project);
+        FileUtils.ensureDirs(projectRoot.resolve("images"), projectRoot.resolve("inputcode"),
+                projectRoot.resolve("conversation"), projectRoot.resolve("generatedcode"));
+        return turn(req, timings, true);
+    }
+
+    /** Builds the turn from what is on disk; with {@code forSend} false nothing is created, decoded or written. */
+    private Turn turn(ChatAndSaveRequest req, StageTimings timings, boolean forSend) {
         // Resolve project directories
         Path projectRoot = FileUtils.projectRoot(props.getFilesBaseDir(), req.project);
         Path imagesDir = projectRoot.resolve("images");
         Path inputCodeDir = projectRoot.resolve("inputcode");
         Path conversationDir = projectRoot.resolve("conversation");
         Path generatedDir = projectRoot.resolve("generatedcode");
-        FileUtils.ensureDirs(imagesDir, inputCodeDir, conversationDir, generatedDir);
 
         // Load prior conversation
-        List<Map<String, Object>> priorMessages = conversationStore.load(conversationDir);
+        // (opening a conversation creates its folder; a preview of a new one has no history anyway)
+        List<Map<String, Object>> priorMessages = !forSend && !Files.isDirectory(conversationDir)
+                ? List.of()
+                : timings.time("conversation", () -> conversationStore.load(conversationDir));
 
-        // Build combined input code reference text
-        String combinedCode = inputCodeAggregator.combine(inputCodeDir, req.codeFiles);
+        // Referenced input code, one entry per file so the context builder can trim them
+        InputCodeAggregator.Collected references = timings.time("references", () -> inputCodeAggregator.collect(inputCodeDir, req.codeFiles));
 
-        // Build multipart user content (brief + prior + refs + current + images)
         String brief = StringUtils.hasText(props.getSystemPrompt())
                 ? props.getSystemPrompt()
                 : "Context: You will receive (1) prior conversation, (2) referenced input code, and (3) a new prompt. Continue helpfully.";
 
-        List<Object> userParts = new ArrayList<>();
-        userParts.add(partText(brief));
-
-        if (!priorMessages.isEmpty()) {
-            try {
-                String priorJson = om.writerWithDefaultPrettyPrinter().writeValueAsString(priorMessages);
-                userParts.add(partText("Prior conversation (JSON):\n" + priorJson));
-            } catch (Exception ignored) {}
+        // Images -> downscaled and re-encoded; base64 happens while the request body is written
+        String deployment = props.getAzure().getDeployment();
+        List<ImageInput> images = new ArrayList<>();
+        List<String> imageNotes = new ArrayList<>();
+        if (req.images != null && !req.images.isEmpty()) {
+            long imagesStart = System.nanoTime();
+            for (String name : req.images) {
+                Path image = imagesDir.resolve(name);
+                if (!Files.isRegularFile(image)) continue;
+                if (!forSend) {
+                    // the context counts images, not bytes: the file itself is enough
+                    images.add(ImageInput.file(FileUtils.guessImageMime(name), image, null));
+                    imageNotes.add("image " + name);
+                    continue;
+                }
+                try {
+                    ImagePreparer.Prepared prepared = imagePreparer.prepare(image, deployment);
+                    images.add(prepared.toImageInput());
+                    imageNotes.add("image " + prepared.summary(name));
+                } catch (IOException e) {
+                    imageNotes.add("skipped image " + name + " (" + e.getMessage() + ")");
+                }
+            }
+            timings.record("images", imagesStart);
         }
 
-        if (StringUtils.hasText(combinedCode)) {
-            userParts.add(partText("Referenced input code:\n" + combinedCode));
-        }
+        // system + prior (within budget) + current multipart (brief + refs + prompt + images)
+        ContextBuilder.Context context = timings.time("context", () -> contextBuilder.build(
+                deployment,
+                "Act as: " + req.systemRole + ". Be precise, structured, and include code fences for any code.",
+                brief,
+                priorMessages,
+                references,
+                req.prompt,
+                images));
 
-        userParts.add(partText("Current prompt:\n" + req.prompt));
+        for (String note : imageNotes) context = context.withNote(note);
+        return new Turn(conversationDir, generatedDir, context);
+    }
 
-        // Images -> data URLs
-        if (req.images != null) {
-            req.images.forEach(name -> FileUtils.imageDataUrl(imagesDir.resolve(name))
-                    .ifPresent(dataUrl -> userParts.add(partImage(dataUrl))));
+    private void saveClosed(List<FenceScanner.Fence> closed,
+                            Path generatedDir,
+                            List<SavedArtifact> artifacts,
+                            List<StreamEvent> events) {
+        for (FenceScanner.Fence f : closed) {
+            if (!f.terminated()) continue; // cut-off block at the end of the response
+            SavedArtifact saved = artifactSaver.save(f.language(), f.filename(), f.content(), artifacts.size() + 1, generatedDir);
+            if (saved != null) {
+                artifacts.add(saved);
+                events.add(StreamEvent.artifact(saved));
+            }
         }
-
-        // Build final message list (system + prior + current multipart)
-        List<Map<String, Object>> messages = new ArrayList<>();
-        messages.add(Map.of(
-                "role", "system",
-                "content", "Act as: " + req.systemRole + ". Be precise, structured, and include code fences for any code."
-        ));
-        // Add prior (as simple role/content strings)
-        messages.addAll(normalizePrior(priorMessages));
-        // Add current
-        messages.add(Map.of("role", "user", "content", userParts));
-
-        // Call Azure
-        return azureClient.chat(messages)
-                .map(resp -> {
-                    String assistantText = azureClient.extractAssistantText(resp);
-                    if (assistantText == null) assistantText = "(no content)";
-
-                    // Save artifacts
-                    List<SavedArtifact> artifacts = artifactSaver.saveAll(assistantText, generatedDir);
-
-                    // Append to conversation and persist
-                    conversationStore.append(conversationDir, req.prompt, assistantText);
-
-                    ChatAndSaveResponse out = new ChatAndSaveResponse();
-                    out.id = "azure-" + Instant.now().toEpochMilli();
-                    out.status = "OK";
-                    out.modelUsed = String.valueOf(resp.getOrDefault("model", props.getAzure().getDeployment()));
-                    out.messageContent = assistantText;
-                    out.savedArtifacts = artifacts;
-                    out.notes = "choices=" + Objects.toString(resp.get("choices"), null);
-                    return out;
-                });
     }
 
-    /* ---------------- helpers ---------------- */
-
     private static boolean isBlank(String s) { return s == null || s.trim().isEmpty(); }
-
-    private static Map<String, Object> partText(String text) {
-        return Map.of("type", "text", "text", text);
-    }
-    private static Map<String, Object> partImage(String dataUrl) {
-        return Map.of("type", "image_url", "image_url", Map.of("url", dataUrl));
-    }
-
-    private static List<Map<String, Object>> normalizePrior(List<Map<String, Object>> prior) {
-        if (prior == null || prior.isEmpty()) return List.of();
-        List<Map<String, Object>> list = new ArrayList<>();
-        for (Map<String, Object> m : prior) {
-            String role = String.valueOf(m.getOrDefault("role", "user"));
-            Object content = m.get("content");
-            String text = (content instanceof String) ? (String) content : Objects.toString(content, "");
-            list.add(Map.of("role", role, "content", text));
-        }
-        return list;
-    }
-}
\ No newline at end of file
+}
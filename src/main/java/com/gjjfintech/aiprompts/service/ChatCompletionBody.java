@@ -0,0 +1,120 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gjjfintech.aiprompts.util.Base64Reader;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.web.reactive.function.BodyInserter;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+
+/**
+ * Writes a Chat Completions request body with a streaming JSON generator straight into the
+ * connection's DataBuffers, so no serialized copy of the whole body exists on the heap.
+ *
+ * The payload is the usual Map/List tree; wherever it holds an {@link ImageInput}, the image
+ * is written as its URL, or for local content as a data URI base64-encoded block by block
+ * from memory or from a file channel.
+ */
+final class ChatCompletionBody {
+
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    private ChatCompletionBody() { }
+
+    /**
+     * @param executor     runs the (blocking) writer; it waits whenever the connection applies backpressure
+     * @param bytesWritten receives the body size once it has been written
+     */
+    static BodyInserter<Map<String, Object>, ReactiveHttpOutputMessage> of(Map<String, Object> payload,
+                                                                            ObjectMapper mapper,
+                                                                            Executor executor,
+                                                                            LongConsumer bytesWritten) {
+        return (message, context) -> {
+            message.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            return message.writeWith(DataBufferUtils.outputStreamPublisher(out -> {
+                CountingOutputStream counting = new CountingOutputStream(out);
+                write(payload, counting, mapper);
+                bytesWritten.accept(counting.count);
+            }, message.bufferFactory(), executor, CHUNK_SIZE));
+        };
+    }
+
+    static void write(Object payload, OutputStream out, ObjectMapper mapper) {
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writeValue(gen, payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeValue(JsonGenerator gen, Object value) throws IOException {
+        if (value == null) {
+            gen.writeNull();
+        } else if (value instanceof String s) {
+            gen.writeString(s);
+        } else if (value instanceof Map<?, ?> map) {
+            gen.writeStartObject();
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                gen.writeFieldName(String.valueOf(e.getKey()));
+                writeValue(gen, e.getValue());
+            }
+            gen.writeEndObject();
+        } else if (value instanceof Iterable<?> items) {
+            gen.writeStartArray();
+            for (Object item : items) writeValue(gen, item);
+            gen.writeEndArray();
+        } else if (value instanceof ImageInput image) {
+            writeImageUrl(gen, image);
+        } else {
+            gen.writeObject(value); // numbers, booleans
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static void writeImageUrl(JsonGenerator gen, ImageInput image) throws IOException {
+        if (image.isRemote()) {
+            gen.writeString(image.url());
+            return;
+        }
+        String prefix = "data:" + image.mime() + ";base64,";
+        try (InputStream in = image.bytes() != null
+                ? new ByteArrayInputStream(image.bytes())
+                : Channels.newInputStream(FileChannel.open(image.file(), StandardOpenOption.READ))) {
+            gen.writeString(new Base64Reader(prefix, in), -1);
+        }
+    }
+}
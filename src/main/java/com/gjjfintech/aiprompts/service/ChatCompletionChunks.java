@@ -0,0 +1,48 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gjjfintech.aiprompts.exception.ProviderException;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+
+/**
+ * Decodes the Server-Sent Events of a streamed Chat Completions response
+ * (OpenAI and Azure share the format) into content deltas.
+ */
+final class ChatCompletionChunks {
+
+    private static final String DONE = "[DONE]";
+
+    private ChatCompletionChunks() {}
+
+    static Flux<ProviderResult> deltas(Flux<ServerSentEvent<String>> events, String fallbackModel, ObjectMapper mapper) {
+        return events
+                .mapNotNull(ServerSentEvent::data)
+                .takeWhile(data -> !DONE.equals(data.trim()))
+                .handle((data, sink) -> {
+                    try {
+                        ProviderResult delta = parse(mapper.readTree(data), fallbackModel);
+                        if (delta != null) sink.next(delta);
+                    } catch (IOException e) {
+                        sink.error(new ProviderException("Malformed stream chunk from provider", e));
+                    }
+                });
+    }
+
+    private static ProviderResult parse(JsonNode chunk, String fallbackModel) {
+        JsonNode choices = chunk.get("choices");
+        // Azure sends a leading chunk with prompt filter results and no choices
+        if (choices == null || !choices.isArray() || choices.isEmpty()) return null;
+        JsonNode delta = choices.get(0).get("delta");
+        if (delta == null) return null;
+        JsonNode c = delta.get("content");
+        if (c == null || c.isNull() || c.asText().isEmpty()) return null;
+        String model = chunk.hasNonNull("model") && !chunk.get("model").asText().isBlank()
+                ? chunk.get("model").asText()
+                : fallbackModel;
+        return new ProviderResult(model, c.asText());
+    }
+}
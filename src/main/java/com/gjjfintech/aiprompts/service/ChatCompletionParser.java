@@ -0,0 +1,196 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.gjjfintech.aiprompts.exception.ProviderException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.LongConsumer;
+
+/**
+ * Extracts what we use from a (non-streamed) Chat Completions response: model,
+ * choices[0].message.content, choices[0].finish_reason and usage. OpenAI and Azure share the format.
+ *
+ * The body is fed buffer by buffer into Jackson's non-blocking parser as it arrives; every
+ * other field is tokenized and dropped, so no JsonNode tree or joined copy of the body is built.
+ * Bodies larger than {@code maxBytes} fail with a ProviderException.
+ */
+final class ChatCompletionParser {
+
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    private final long maxBytes;
+    private long bytes;
+    private byte[] scratch = new byte[8 * 1024];
+
+    private String model;
+    private String content;
+    private StringBuilder contentParts;
+    private String finishReason;
+    private boolean choices;
+    private int promptTokens = -1, completionTokens = -1, totalTokens = -1;
+
+    ChatCompletionParser(JsonFactory factory, long maxBytes) throws IOException {
+        this.parser = factory.createNonBlockingByteArrayParser();
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Parses the response body as it arrives. Emits nothing when the response has no choices.
+     */
+    static Mono<ProviderResult> parse(Flux<DataBuffer> body, String fallbackModel, JsonFactory factory, long maxBytes) {
+        return parse(body, fallbackModel, factory, maxBytes, bytes -> { });
+    }
+
+    /**
+     * @param bodyBytes receives the body size once it has been read completely
+     */
+    static Mono<ProviderResult> parse(Flux<DataBuffer> body,
+                                      String fallbackModel,
+                                      JsonFactory factory,
+                                      long maxBytes,
+                                      LongConsumer bodyBytes) {
+        return Mono.defer(() -> {
+            ChatCompletionParser p;
+            try {
+                p = new ChatCompletionParser(factory, maxBytes);
+            } catch (IOException e) {
+                return Mono.error(e);
+            }
+            return body
+                    .doOnNext(buffer -> {
+                        try (DataBuffer.ByteBufferIterator it = buffer.readableByteBuffers()) {
+                            while (it.hasNext()) p.feed(it.next());
+                        } catch (IOException e) {
+                            throw new ProviderException("Malformed response from provider", e);
+                        } finally {
+                            DataBufferUtils.release(buffer);
+                        }
+                    })
+                    .then(Mono.fromCallable(() -> {
+                        bodyBytes.accept(p.bytes);
+                        try {
+                            return p.finish(fallbackModel);
+                        } catch (IOException e) {
+                            throw new ProviderException("Malformed response from provider", e);
+                        }
+                    }));
+        });
+    }
+
+    /** Same extraction over a complete body. */
+    static ProviderResult parse(byte[] body, String fallbackModel, JsonFactory factory) throws IOException {
+        ChatCompletionParser p = new ChatCompletionParser(factory, Long.MAX_VALUE);
+        p.feed(ByteBuffer.wrap(body));
+        return p.finish(fallbackModel);
+    }
+
+    void feed(ByteBuffer chunk) throws IOException {
+        bytes += chunk.remaining();
+        if (bytes > maxBytes) {
+            throw new ProviderException("Provider response exceeds " + maxBytes + " bytes");
+        }
+        // The byte[] parser decodes long strings markedly faster than the ByteBuffer one.
+        // Each chunk is fully consumed by drain(), so the scratch array can be reused.
+        if (chunk.hasArray()) {
+            feeder.feedInput(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.arrayOffset() + chunk.limit());
+        } else {
+            int n = chunk.remaining();
+            if (scratch.length < n) scratch = new byte[Math.max(n, scratch.length * 2)];
+            chunk.get(scratch, 0, n);
+            feeder.feedInput(scratch, 0, n);
+        }
+        drain();
+    }
+
+    /** @return null when the response had no choices */
+    ProviderResult finish(String fallbackModel) throws IOException {
+        feeder.endOfInput();
+        drain();
+        parser.close();
+        if (!choices) return null;
+        ProviderResult.Usage usage = totalTokens >= 0 || promptTokens >= 0
+                ? new ProviderResult.Usage(Math.max(0, promptTokens), Math.max(0, completionTokens), Math.max(0, totalTokens))
+                : null;
+        return new ProviderResult(
+                model != null && !model.isBlank() ? model : fallbackModel,
+                content != null ? content : contentParts != null ? contentParts.toString() : null,
+                finishReason,
+                usage);
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (token) {
+                case START_OBJECT -> {
+                    if (at(parser.getParsingContext().getParent(), "choices", 0)) choices = true;
+                }
+                case VALUE_STRING -> onString(parser.getParsingContext());
+                case VALUE_NUMBER_INT -> onInt(parser.getParsingContext());
+                default -> { }
+            }
+        }
+    }
+
+    private void onString(JsonStreamContext ctx) throws IOException {
+        if (!ctx.inObject() || ctx.getCurrentName() == null) return;
+        switch (ctx.getCurrentName()) {
+            case "model" -> {
+                if (at(ctx, "model")) model = parser.getText();
+            }
+            case "content" -> {
+                if (at(ctx, "choices", 0, "message", "content")) content = parser.getText();
+            }
+            case "text" -> {
+                // content sent as parts: [{"type":"text","text":"..."}, ...]
+                if (at(ctx, "choices", 0, "message", "content", -1, "text")) {
+                    if (contentParts == null) contentParts = new StringBuilder();
+                    contentParts.append(parser.getText());
+                }
+            }
+            case "finish_reason" -> {
+                if (at(ctx, "choices", 0, "finish_reason")) finishReason = parser.getText();
+            }
+            default -> { }
+        }
+    }
+
+    private void onInt(JsonStreamContext ctx) throws IOException {
+        if (!ctx.inObject() || ctx.getCurrentName() == null || !at(ctx.getParent(), "usage")) return;
+        switch (ctx.getCurrentName()) {
+            case "prompt_tokens" -> promptTokens = parser.getIntValue();
+            case "completion_tokens" -> completionTokens = parser.getIntValue();
+            case "total_tokens" -> totalTokens = parser.getIntValue();
+            default -> { }
+        }
+    }
+
+    /**
+     * True if the current value sits at {@code path} below the root object: strings are field
+     * names, integers array indexes (-1 matches any index).
+     */
+    private static boolean at(JsonStreamContext ctx, Object... path) {
+        for (int i = path.length - 1; i >= 0; i--) {
+            if (ctx == null || ctx.inRoot()) return false;
+            if (path[i] instanceof Integer index) {
+                if (!ctx.inArray() || (index >= 0 && ctx.getCurrentIndex() != index)) return false;
+            } else if (!ctx.inObject() || !path[i].equals(ctx.getCurrentName())) {
+                return false;
+            }
+            ctx = ctx.getParent();
+        }
+        return ctx != null && ctx.inRoot();
+    }
+}
@@ -0,0 +1,371 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import com.gjjfintech.aiprompts.dto.ChatAndSaveResponse;
+import com.gjjfintech.aiprompts.dto.GenerateCodeResponse;
+import com.gjjfintech.aiprompts.dto.StreamEvent;
+import com.gjjfintech.aiprompts.exception.RateLimitedException;
+import com.gjjfintech.aiprompts.jfr.ProviderCallEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Micrometer instrumentation for the request path, exported at /actuator/prometheus.
+ *
+ * <pre>
+ *   codegen.requests                 timer    endpoint, provider, stream, outcome (ok | failed | no_code_found | error | cancelled)
+ *   codegen.requests.inflight        gauge    endpoint
+ *   codegen.provider.latency         timer    endpoint, provider, model, stream, outcome (success | empty | rate_limited | client_error | server_error | timeout | error | cancelled)
+ *   codegen.provider.first_token     timer    endpoint, provider, model                 (streaming calls)
+ *   codegen.provider.inflight        gauge    provider
+ *   codegen.provider.tokens          counter  provider, model, type (prompt | completion), from the response's usage block
+ *   codegen.provider.request.bytes   summary  provider
+ *   codegen.provider.response.bytes  summary  provider                                  (non-streaming calls)
+ *   codegen.parse                    timer    endpoint                                  (fence scanning)
+ *   codegen.artifact.write           timer    endpoint
+ *   codegen.conversation.load        timer    cache (hit | miss)
+ *   codegen.conversation.append      timer
+ *   codegen.conversation.messages    summary  messages in a conversation when loaded
+ *   codegen.conversation.bytes       summary  estimated in-memory size when loaded
+ *   codegen.conversation.cache.*     gauge    bytes, size (conversations held in memory)
+ *   codegen.http.pool.*              gauge    pool, remote; active, idle, allocated, pending (ProviderHttpClients)
+ *   codegen.backend.events           counter  provider, backend, event (open | throttled | closed | failover)
+ *   codegen.azure.backend.*          gauge    backend; inflight, latency.ewma (ms), open (AzureBackends)
+ * </pre>
+ * Provider calls are also recorded as JFR events (see the jfr package and jfr/codegen.jfc).
+ * Latency timers publish histogram buckets, so percentiles and SLO ratios can be computed
+ * across instances. Provider calls served by the response cache or coalesced by single-flight
+ * are not provider calls and are not counted as such.
+ *
+ * Provider and model tags are limited to the configured ones (see
+ * {@link CodegenProperties#knownModel}); anything a caller made up is reported as "other".
+ */
+@Component
+public class CodegenMetrics {
+
+    public static final String GENERATE_CODE = "generate-code";
+    public static final String CHAT_AND_SAVE = "chat-and-save";
+
+    /** Reactor context keys the services set so provider calls can be attributed to a request. */
+    public static final String PROJECT_KEY = "codegen.project";
+    public static final String REQUEST_ID_KEY = "codegen.requestId";
+
+    private final MeterRegistry registry;
+    private final CodegenProperties props;
+    private final Map<String, AtomicInteger> inFlightGauges = new ConcurrentHashMap<>();
+
+    public CodegenMetrics(MeterRegistry registry, CodegenProperties props) {
+        this.registry = registry;
+        this.props = props;
+    }
+
+    /** Not exported anywhere; for code constructed outside the application context. */
+    public static CodegenMetrics noop() {
+        return new CodegenMetrics(new SimpleMeterRegistry(), new CodegenProperties());
+    }
+
+    public MeterRegistry registry() {
+        return registry;
+    }
+
+    /* ---------------------------- requests ---------------------------- */
+
+    /** Times a request and counts it in flight while subscribed; the outcome is the response status. */
+    public <T> Mono<T> request(String endpoint, String provider, Mono<T> call, Function<T, String> status) {
+        return Mono.defer(() -> {
+            Recorder r = new Recorder("codegen.requests", inFlight("codegen.requests.inflight", "endpoint", endpoint),
+                    Tags.of("endpoint", endpoint, "provider", CodegenProperties.knownProvider(provider), "stream", "false"));
+            return call
+                    .doOnNext(value -> r.outcome = outcome(status.apply(value)))
+                    .doOnError(e -> r.outcome = "error")
+                    .doFinally(r::finish);
+        });
+    }
+
+    /** Streaming variant: the outcome is the status carried by the final "done" event. */
+    public Flux<StreamEvent> requestStream(String endpoint, String provider, Flux<StreamEvent> call) {
+        return Flux.defer(() -> {
+            Recorder r = new Recorder("codegen.requests", inFlight("codegen.requests.inflight", "endpoint", endpoint),
+                    Tags.of("endpoint", endpoint, "provider", CodegenProperties.knownProvider(provider), "stream", "true"));
+            return call
+                    .doOnNext(event -> {
+                        if ("done".equals(event.event())) r.outcome = outcome(statusOf(event.data()));
+                    })
+                    .doOnError(e -> r.outcome = "error")
+                    .doFinally(r::finish);
+        });
+    }
+
+    /* ---------------------------- provider calls ---------------------------- */
+
+    /** Adds the non-null ids to the subscriber context read by {@link #provider} and {@link #providerStream}. */
+    public static Function<Context, Context> attribution(String project, String requestId) {
+        return ctx -> {
+            if (project != null) ctx = ctx.put(PROJECT_KEY, project);
+            if (requestId != null) ctx = ctx.put(REQUEST_ID_KEY, requestId);
+            return ctx;
+        };
+    }
+
+    /**
+     * Times one provider call and records it as a {@link ProviderCallEvent} (JFR). {@code call}
+     * receives a {@link ProviderCall} to report body sizes to; the project or job id is taken
+     * from the subscriber's context ({@link #PROJECT_KEY}, {@link #REQUEST_ID_KEY}).
+     */
+    public Mono<ProviderResult> provider(String endpoint,
+                                         String provider,
+                                         String model,
+                                         Function<ProviderCall, Mono<ProviderResult>> call) {
+        return Mono.deferContextual(ctx -> {
+            ProviderCall pc = new ProviderCall(endpoint, provider, model, false, ctx);
+            String providerTag = CodegenProperties.knownProvider(provider);
+            String modelTag = props.knownModel(provider, model);
+            Recorder r = new Recorder("codegen.provider.latency", inFlight("codegen.provider.inflight", "provider", providerTag),
+                    Tags.of("endpoint", endpoint, "provider", providerTag, "model", modelTag, "stream", "false"));
+            return call.apply(pc)
+                    .doOnNext(result -> {
+                        r.outcome = "success";
+                        tokens(providerTag, modelTag, result.usage());
+                        pc.usage(result.usage());
+                    })
+                    .doOnError(e -> r.outcome = providerOutcome(e))
+                    .doFinally(signal -> pc.commit(r.finish(signal)));
+        });
+    }
+
+    public Flux<ProviderResult> providerStream(String endpoint,
+                                               String provider,
+                                               String model,
+                                               Function<ProviderCall, Flux<ProviderResult>> call) {
+        return Flux.deferContextual(ctx -> {
+            ProviderCall pc = new ProviderCall(endpoint, provider, model, true, ctx);
+            String providerTag = CodegenProperties.knownProvider(provider);
+            String modelTag = props.knownModel(provider, model);
+            Recorder r = new Recorder("codegen.provider.latency", inFlight("codegen.provider.inflight", "provider", providerTag),
+                    Tags.of("endpoint", endpoint, "provider", providerTag, "model", modelTag, "stream", "true"));
+            AtomicBoolean first = new AtomicBoolean();
+            return call.apply(pc)
+                    .doOnNext(delta -> {
+                        if (first.compareAndSet(false, true)) {
+                            latencyTimer("codegen.provider.first_token",
+                                    Tags.of("endpoint", endpoint, "provider", providerTag, "model", modelTag))
+                                    .record(System.nanoTime() - r.start, TimeUnit.NANOSECONDS);
+                        }
+                    })
+                    .doOnComplete(() -> r.outcome = "success")
+                    .doOnError(e -> r.outcome = providerOutcome(e))
+                    .doFinally(signal -> pc.commit(r.finish(signal)));
+        });
+    }
+
+    /** One provider call in progress: receives the body sizes as they become known. */
+    public final class ProviderCall {
+        private final ProviderCallEvent event = new ProviderCallEvent();
+        private final String provider;
+
+        private ProviderCall(String endpoint, String provider, String model, boolean stream, ContextView ctx) {
+            this.provider = CodegenProperties.knownProvider(provider);
+            event.begin();
+            if (event.isEnabled()) {
+                event.endpoint = endpoint;
+                event.provider = provider;
+                event.model = model;
+                event.stream = stream;
+                event.project = ctx.getOrDefault(PROJECT_KEY, null);
+                event.requestId = ctx.getOrDefault(REQUEST_ID_KEY, null);
+            }
+        }
+
+        public void requestBytes(long bytes) {
+            bytesSummary("codegen.provider.request.bytes", provider).record(bytes);
+            event.requestBytes = bytes;
+        }
+
+        public void responseBytes(long bytes) {
+            bytesSummary("codegen.provider.response.bytes", provider).record(bytes);
+            event.responseBytes = bytes;
+        }
+
+        private void usage(ProviderResult.Usage usage) {
+            if (usage == null) return;
+            event.promptTokens = usage.promptTokens();
+            event.completionTokens = usage.completionTokens();
+        }
+
+        private void commit(String outcome) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    /* ---------------------------- parsing, artifacts, conversations ---------------------------- */
+
+    public void parse(String endpoint, long nanos) {
+        latencyTimer("codegen.parse", Tags.of("endpoint", endpoint)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void artifactWrite(String endpoint, long nanos) {
+        latencyTimer("codegen.artifact.write", Tags.of("endpoint", endpoint)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void conversationLoad(boolean cacheHit, long nanos, int messages, long bytes) {
+        latencyTimer("codegen.conversation.load", Tags.of("cache", cacheHit ? "hit" : "miss")).record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("codegen.conversation.messages")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(10_000.0)
+                .register(registry)
+                .record(messages);
+        DistributionSummary.builder("codegen.conversation.bytes")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(bytes);
+    }
+
+    public void conversationAppend(long nanos) {
+        latencyTimer("codegen.conversation.append", Tags.empty()).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Client-side rate limiting: {@code action} is retried (after a 429) or rejected (call failed). */
+    public void rateLimit(String provider, String model, String action) {
+        Counter.builder("codegen.ratelimit.events")
+                .tags("provider", provider, "model", tagValue(model), "action", action)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Hedging and failover ({@link HedgingLLMClient}): {@code event} is hedged, hedge_won,
+     * hedge_lost, skipped (no hedge budget left) or failover.
+     */
+    public void hedge(String primary, String secondary, String event) {
+        Counter.builder("codegen.hedge.events")
+                .tags("primary", primary, "secondary", secondary, "event", event)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Per-backend routing ({@link AzureBackends}): {@code event} is open (ejected after failures),
+     * throttled (ejected after a 429), closed (back in rotation) or failover (call moved on).
+     */
+    public void circuit(String provider, String backend, String event) {
+        Counter.builder("codegen.backend.events")
+                .tags("provider", provider, "backend", backend, "event", event)
+                .register(registry)
+                .increment();
+    }
+
+    /** Registers a gauge that reads {@code value} from {@code state} on every scrape (held strongly). */
+    public <S> void gauge(String name, S state, ToLongFunction<S> value, String... tags) {
+        Gauge.builder(name, state, s -> value.applyAsLong(s))
+                .tags(tags)
+                .strongReference(true)
+                .register(registry);
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    /** Records one timed operation exactly once, whichever way it ends. */
+    private final class Recorder {
+        final String timer;
+        final AtomicInteger inFlight;
+        final Tags tags;
+        final long start = System.nanoTime();
+        volatile String outcome;
+
+        Recorder(String timer, AtomicInteger inFlight, Tags tags) {
+            this.timer = timer;
+            this.inFlight = inFlight;
+            this.tags = tags;
+            inFlight.incrementAndGet();
+        }
+
+        String finish(SignalType signal) {
+            inFlight.decrementAndGet();
+            if (outcome == null) outcome = signal == SignalType.CANCEL ? "cancelled" : signal == SignalType.ON_COMPLETE ? "empty" : "error";
+            latencyTimer(timer, tags.and("outcome", outcome)).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return outcome;
+        }
+    }
+
+    private Timer latencyTimer(String name, Tags tags) {
+        return Timer.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(10))
+                .register(registry);
+    }
+
+    private DistributionSummary bytesSummary(String name, String provider) {
+        return DistributionSummary.builder(name)
+                .baseUnit("bytes")
+                .tags("provider", provider)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private AtomicInteger inFlight(String name, String tag, String value) {
+        return inFlightGauges.computeIfAbsent(name + "|" + value, k -> registry.gauge(name, Tags.of(tag, tagValue(value)), new AtomicInteger()));
+    }
+
+    private void tokens(String provider, String model, ProviderResult.Usage usage) {
+        if (usage == null) return;
+        Counter.builder("codegen.provider.tokens").tags("provider", provider, "model", model, "type", "prompt")
+                .register(registry).increment(usage.promptTokens());
+        Counter.builder("codegen.provider.tokens").tags("provider", provider, "model", model, "type", "completion")
+                .register(registry).increment(usage.completionTokens());
+    }
+
+    private static String statusOf(Object response) {
+        if (response instanceof GenerateCodeResponse r) return r.getStatus();
+        if (response instanceof ChatAndSaveResponse r) return r.status;
+        return null;
+    }
+
+    private static String outcome(String status) {
+        return status != null ? status.toLowerCase(Locale.ROOT) : "unknown";
+    }
+
+    static String providerOutcome(Throwable e) {
+        if (e instanceof RateLimitedException) return "rate_limited";
+        if (e instanceof WebClientResponseException w) {
+            int status = w.getStatusCode().value();
+            if (status == 429) return "rate_limited";
+            return status >= 500 ? "server_error" : "client_error";
+        }
+        if (e instanceof TimeoutException) return "timeout";
+        return "error";
+    }
+
+    private static String tagValue(String value) {
+        return value != null && !value.isBlank() ? value : "none";
+    }
+}
@@ -5,17 +5,32 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.gjjfintech.aiprompts.config.CodegenProperties;
 import com.gjjfintech.aiprompts.dto.GenerateCodeRequest;
 import com.gjjfintech.aiprompts.dto.GenerateCodeResponse;
+import com.gjjfintech.aiprompts.dto.SavedArtifact;
+import com.gjjfintech.aiprompts.dto.StreamEvent;
+import com.gjjfintech.aiprompts.exception.CodegenException;
+import com.gjjfintech.aiprompts.exception.RateLimitedException;
 import com.gjjfintech.aiprompts.util.CodeParser;
 import com.gjjfintech.aiprompts.util.FileUtils;
+import com.gjjfintech.aiprompts.util.FenceScanner;
 import com.gjjfintech.aiprompts.util.LanguageExtensionMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Base64;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 @Service
 public class CodegenService {
@@ -24,120 +39,336 @@ public class CodegenService {
 
     private final ProviderFactory providerFactory;
     private final CodegenProperties props;
+    private final ImagePreparer imagePreparer;
+    private final Scheduler ioScheduler;
+    private final CodegenMetrics metrics;
     private final ObjectMapper mapper = new ObjectMapper();
 
-    public CodegenService(ProviderFactory providerFactory, CodegenProperties props) {
+    public CodegenService(ProviderFactory providerFactory,
+                          CodegenProperties props,
+                          ImagePreparer imagePreparer,
+                          @Qualifier("ioScheduler") Scheduler ioScheduler,
+                          CodegenMetrics metrics) {
         this.providerFactory = providerFactory;
         this.props = props;
+        this.imagePreparer = imagePreparer;
+        this.ioScheduler = ioScheduler;
+        this.metrics = metrics;
     }
 
-    public GenerateCodeResponse process(GenerateCodeRequest request) {
-        try {
+    /**
+     * Runs one generation job without holding a request thread: the image is read on the
+     * I/O scheduler, the provider call is non-blocking, and parsing + saving run on the
+     * I/O scheduler again. Failures are mapped to a FAILED response, never an error signal.
+     * The response carries the time spent in each stage (image, provider, parse, write).
+     */
+    public Mono<GenerateCodeResponse> process(GenerateCodeRequest request) {
+        return metrics.request(CodegenMetrics.GENERATE_CODE, providerName(request), Mono.defer(() -> {
+            StageTimings timings = new StageTimings();
+            return generate(request, timings).map(response -> withTimings(response, timings));
+        }).contextWrite(CodegenMetrics.attribution(null, request != null ? request.getId() : null)), GenerateCodeResponse::getStatus);
+    }
+
+    private Mono<GenerateCodeResponse> generate(GenerateCodeRequest request, StageTimings timings) {
+        return Mono.defer(() -> {
             validate(request);
 
-            String provider = request.getProvider();
-            if (provider == null || provider.isBlank()) {
-                provider = props.getProviderDefault();
-            }
+            String provider = providerName(request);
 
-            LLMClient client = providerFactory.getClient(provider);
+            // overrides.cache=false bypasses the response cache
+            LLMClient client = providerFactory.getClient(provider, getBoolean(request.getOverrides(), "cache", true));
             if (client == null) {
-                return new GenerateCodeResponse(
+                return Mono.just(new GenerateCodeResponse(
                         request.getId(), "FAILED", null, null,
                         "Unknown provider: " + provider, "BAD_REQUEST"
-                );
+                ));
             }
 
             // Build inputs
-            String systemPrompt = coalesce(
-                    (request.getOverrides() != null) ? (String) request.getOverrides().get("systemPrompt") : null,
-                    props.getSystemPrompt(),
-                    "You are a helpful coding assistant."
-            );
-
-            ImageInput imageInput = buildImageInput(request);
+            String systemPrompt = systemPrompt(request);
 
             Double temperature = getDouble(request.getOverrides(), "temperature", 0.2);
             Integer maxOutputTokens = getInt(request.getOverrides(), "maxOutputTokens", 4096);
             String model = getString(request.getOverrides(), "model", null); // for Azure: deployment name
 
-            ProviderResult result = client.generate(
-                    model, systemPrompt, request.getPrompt(), imageInput, temperature, maxOutputTokens
-            );
+            return Mono.fromCallable(() -> {
+                        long start = System.nanoTime();
+                        ImageInput image = buildImageInput(request, provider);
+                        if (image != null) timings.record("image", start);
+                        return Optional.ofNullable(image);
+                    })
+                    .subscribeOn(ioScheduler)
+                    .flatMap(imageInput -> timings.time("provider", client.generate(
+                            model, systemPrompt, request.getPrompt(), imageInput.orElse(null), temperature, maxOutputTokens
+                    )))
+                    .publishOn(ioScheduler)
+                    .map(result -> toResponse(request, result, timings))
+                    .defaultIfEmpty(new GenerateCodeResponse(
+                            request.getId(), "FAILED", null, null,
+                            "Empty response from provider", "PROVIDER_ERROR"
+                    ));
+        }).onErrorResume(e -> {
+            log.error("Failed to process job id={}", request != null ? request.getId() : null, e);
+            return Mono.just(failed(request, e));
+        });
+    }
 
-            if (result == null || result.content() == null) {
-                return new GenerateCodeResponse(
-                        request.getId(), "FAILED", null, null,
-                        "Empty response from provider", "PROVIDER_ERROR"
-                );
-            }
+    /** A FAILED response for {@code e}; rate limiting is reported as RATE_LIMITED with its Retry-After. */
+    private static GenerateCodeResponse failed(GenerateCodeRequest request, Throwable e) {
+        GenerateCodeResponse response = new GenerateCodeResponse(
+                request != null ? request.getId() : null, "FAILED", null, null,
+                e.getMessage(), e.getClass().getSimpleName()
+        );
+        if (e instanceof RateLimitedException rl) {
+            response.setError("RATE_LIMITED");
+            response.setRetryAfterSeconds(rl.getRetryAfterSeconds());
+        }
+        return response;
+    }
 
-            // Decide how to save
-            String mode = (request.getParsing() != null && request.getParsing().getMode() != null)
-                    ? request.getParsing().getMode()
-                    : props.getParsing().getDefaultMode();
+    private GenerateCodeResponse withTimings(GenerateCodeResponse response, StageTimings timings) {
+        Map<String, Double> millis = timings.toMillis();
+        StageTimings.logIfSlow(millis, props.getTimings().getSlowRequestMillis(),
+                CodegenMetrics.GENERATE_CODE, response.getId(), response.getStatus());
+        if (props.getTimings().isExpose()) response.setTimings(millis);
+        return response;
+    }
 
-            boolean fenceRequired = (request.getParsing() != null && request.getParsing().getCodeFenceRequired() != null)
-                    ? request.getParsing().getCodeFenceRequired()
-                    : props.getParsing().isCodeFenceRequired();
+    /**
+     * Parses the provider output and saves it. Blocking (file I/O): call on the I/O scheduler.
+     */
+    private GenerateCodeResponse toResponse(GenerateCodeRequest request, ProviderResult result, StageTimings timings) {
+        if (result == null || result.content() == null) {
+            return new GenerateCodeResponse(
+                    request.getId(), "FAILED", null, null,
+                    "Empty response from provider", "PROVIDER_ERROR"
+            );
+        }
 
-            String responseText = result.content();
+        // Decide how to save
+        String mode = parsingMode(request);
+        boolean fenceRequired = fenceRequired(request);
 
-            String preferredLang = (request.getMetadata() != null) ? request.getMetadata().getLanguage() : null;
+        String responseText = result.content();
+
+        String preferredLang = (request.getMetadata() != null) ? request.getMetadata().getLanguage() : null;
 
-            CodeParser.CodeBlock block = null;
-            if ("text".equalsIgnoreCase(mode)) {
-                // Save full text
+        CodeParser.CodeBlock block = null;
+        if ("text".equalsIgnoreCase(mode)) {
+            // Save full text
+            block = new CodeParser.CodeBlock(preferredLang != null ? preferredLang : "markdown", responseText);
+        } else if ("code".equalsIgnoreCase(mode)) {
+            block = timings.time("parse", () -> firstCodeBlock(responseText, preferredLang));
+            if (block == null && fenceRequired) {
+                return new GenerateCodeResponse(
+                        request.getId(), "NO_CODE_FOUND", result.modelUsed(), null,
+                        "No fenced code block found in response", "PARSE_ERROR"
+                );
+            }
+            if (block == null) {
+                // fallback to full text
                 block = new CodeParser.CodeBlock(preferredLang != null ? preferredLang : "markdown", responseText);
-            } else if ("code".equalsIgnoreCase(mode)) {
-                block = CodeParser.extractFirstCodeBlock(responseText, preferredLang);
-                if (block == null && fenceRequired) {
-                    return new GenerateCodeResponse(
-                            request.getId(), "NO_CODE_FOUND", result.modelUsed(), null,
-                            "No fenced code block found in response", "PARSE_ERROR"
-                    );
-                }
-                if (block == null) {
-                    // fallback to full text
-                    block = new CodeParser.CodeBlock(preferredLang != null ? preferredLang : "markdown", responseText);
-                }
-            } else { // auto
-                block = CodeParser.extractFirstCodeBlock(responseText, preferredLang);
-                if (block == null) {
-                    block = new CodeParser.CodeBlock(preferredLang != null ? preferredLang : "markdown", responseText);
-                }
             }
+        } else { // auto
+            block = timings.time("parse", () -> firstCodeBlock(responseText, preferredLang));
+            if (block == null) {
+                block = new CodeParser.CodeBlock(preferredLang != null ? preferredLang : "markdown", responseText);
+            }
+        }
+
+        // Compute filename and save
+        long start = System.nanoTime();
+        try {
+            Path saved = save(request, block);
+            timings.record("write", start);
+            return saved(request, result.modelUsed(), block, saved);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-            // Compute filename and save
-            String filename = (request.getMetadata() != null) ? request.getMetadata().getFilename() : null;
-            String subdir = (request.getMetadata() != null) ? request.getMetadata().getSubdir() : null;
+    /**
+     * Streaming variant of {@link #process}: relays the provider's tokens as they arrive and
+     * saves the first fenced code block as soon as its closing fence is seen. The last event
+     * is always "done" carrying the same GenerateCodeResponse the blocking endpoint returns.
+     */
+    public Flux<StreamEvent> processStream(GenerateCodeRequest request) {
+        return metrics.requestStream(CodegenMetrics.GENERATE_CODE, providerName(request), Flux.defer(() -> {
+            validate(request);
 
-            if (filename == null || filename.isBlank()) {
-                String ext = LanguageExtensionMapper.extensionFor(block.language());
-                String base = (request.getId() != null && !request.getId().isBlank()) ? request.getId() : "output";
-                filename = base + ext;
+            String provider = providerName(request);
+            // overrides.cache=false bypasses the response cache
+            LLMClient client = providerFactory.getClient(provider, getBoolean(request.getOverrides(), "cache", true));
+            if (client == null) {
+                return Flux.just(StreamEvent.done(new GenerateCodeResponse(
+                        request.getId(), "FAILED", null, null,
+                        "Unknown provider: " + provider, "BAD_REQUEST"
+                )));
             }
 
-            Path saved = FileUtils.saveToOutput(
-                    props.getOutputDir(), subdir, filename, block.content()
-            );
+            String mode = parsingMode(request);
+            boolean fenceRequired = fenceRequired(request);
+            String preferredLang = (request.getMetadata() != null) ? request.getMetadata().getLanguage() : null;
 
+            StreamState state = new StreamState();
+            return Mono.fromCallable(() -> Optional.ofNullable(buildImageInput(request, provider)))
+                    .subscribeOn(ioScheduler)
+                    .flatMapMany(imageInput -> client.stream(
+                            getString(request.getOverrides(), "model", null),
+                            systemPrompt(request),
+                            request.getPrompt(),
+                            imageInput.orElse(null),
+                            getDouble(request.getOverrides(), "temperature", 0.2),
+                            getInt(request.getOverrides(), "maxOutputTokens", 4096)))
+                    // file writes happen below, keep them off the Netty event loop
+                    .publishOn(ioScheduler)
+                    .concatMap(delta -> {
+                        state.modelUsed = delta.modelUsed();
+                        state.text.append(delta.content());
+                        List<StreamEvent> events = new ArrayList<>(2);
+                        events.add(StreamEvent.token(delta.content()));
+                        if (!"text".equalsIgnoreCase(mode) && state.saved == null) {
+                            long start = System.nanoTime();
+                            List<FenceScanner.Fence> closed = state.fences.feed(delta.content());
+                            state.parseNanos += System.nanoTime() - start;
+                            saveFirstFence(request, state, closed, preferredLang, events);
+                        }
+                        return Flux.fromIterable(events);
+                    })
+                    .concatWith(Flux.defer(() -> {
+                        List<StreamEvent> events = new ArrayList<>(2);
+                        if (!"text".equalsIgnoreCase(mode) && state.saved == null) {
+                            long start = System.nanoTime();
+                            List<FenceScanner.Fence> closed = state.fences.finish();
+                            state.parseNanos += System.nanoTime() - start;
+                            saveFirstFence(request, state, closed, preferredLang, events);
+                        }
+                        if (!"text".equalsIgnoreCase(mode)) metrics.parse(CodegenMetrics.GENERATE_CODE, state.parseNanos);
+                        events.add(StreamEvent.done(finishStream(request, state, mode, fenceRequired, preferredLang)));
+                        return Flux.fromIterable(events);
+                    }));
+        }).onErrorResume(e -> {
+            log.error("Failed to stream job id={}", request != null ? request.getId() : null, e);
+            return Flux.just(StreamEvent.done(failed(request, e)));
+        }).contextWrite(CodegenMetrics.attribution(null, request != null ? request.getId() : null)));
+    }
+
+    private void saveFirstFence(GenerateCodeRequest request,
+                                StreamState state,
+                                List<FenceScanner.Fence> closed,
+                                String preferredLang,
+                                List<StreamEvent> events) {
+        if (closed.isEmpty() || !closed.get(0).terminated()) return;
+        FenceScanner.Fence fence = closed.get(0);
+        String lang = fence.language() != null ? fence.language() : preferredLang;
+        state.block = new CodeParser.CodeBlock(lang, fence.content());
+        try {
+            state.saved = save(request, state.block);
+            events.add(StreamEvent.artifact(new SavedArtifact(
+                    state.saved.getFileName().toString(), lang, state.saved.toAbsolutePath().toString())));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private GenerateCodeResponse finishStream(GenerateCodeRequest request,
+                                              StreamState state,
+                                              String mode,
+                                              boolean fenceRequired,
+                                              String preferredLang) {
+        if (state.saved != null) {
+            return saved(request, state.modelUsed, state.block, state.saved);
+        }
+        if ("code".equalsIgnoreCase(mode) && fenceRequired) {
             return new GenerateCodeResponse(
-                    request.getId(), "OK", result.modelUsed(),
-                    saved.toAbsolutePath().toString(),
-                    "Saved " + (block.language() != null ? block.language() : "text") + " to " + saved.getFileName(),
-                    null
+                    request.getId(), "NO_CODE_FOUND", state.modelUsed, null,
+                    "No fenced code block found in response", "PARSE_ERROR"
             );
+        }
+        // text mode, or no fence found: save the full text like the blocking path does
+        CodeParser.CodeBlock block = new CodeParser.CodeBlock(
+                preferredLang != null ? preferredLang : "markdown", state.text.toString());
+        try {
+            return saved(request, state.modelUsed, block, save(request, block));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        } catch (Exception e) {
-            log.error("Failed to process job id={}", request.getId(), e);
-            return new GenerateCodeResponse(
-                    request.getId(), "FAILED", null, null,
-                    e.getMessage(), e.getClass().getSimpleName()
+    /** Per-request accumulator for {@link #processStream}. */
+    private static final class StreamState {
+        final StringBuilder text = new StringBuilder();
+        final FenceScanner fences = new FenceScanner();
+        String modelUsed;
+        CodeParser.CodeBlock block;
+        Path saved;
+        long parseNanos;
+    }
+
+    private CodeParser.CodeBlock firstCodeBlock(String text, String preferredLang) {
+        long start = System.nanoTime();
+        try {
+            return CodeParser.extractFirstCodeBlock(text, preferredLang);
+        } finally {
+            metrics.parse(CodegenMetrics.GENERATE_CODE, System.nanoTime() - start);
+        }
+    }
+
+    private String providerName(GenerateCodeRequest request) {
+        return (request == null || request.getProvider() == null || request.getProvider().isBlank())
+                ? props.getProviderDefault()
+                : request.getProvider();
+    }
+
+    String systemPrompt(GenerateCodeRequest request) {
+        return coalesce(
+                (request.getOverrides() != null) ? (String) request.getOverrides().get("systemPrompt") : null,
+                props.getSystemPrompt(),
+                "You are a helpful coding assistant."
+        );
+    }
+
+    private String parsingMode(GenerateCodeRequest request) {
+        return (request.getParsing() != null && request.getParsing().getMode() != null)
+                ? request.getParsing().getMode()
+                : props.getParsing().getDefaultMode();
+    }
+
+    private boolean fenceRequired(GenerateCodeRequest request) {
+        return (request.getParsing() != null && request.getParsing().getCodeFenceRequired() != null)
+                ? request.getParsing().getCodeFenceRequired()
+                : props.getParsing().isCodeFenceRequired();
+    }
+
+    private Path save(GenerateCodeRequest request, CodeParser.CodeBlock block) throws IOException {
+        String filename = (request.getMetadata() != null) ? request.getMetadata().getFilename() : null;
+        String subdir = (request.getMetadata() != null) ? request.getMetadata().getSubdir() : null;
+
+        if (filename == null || filename.isBlank()) {
+            String ext = LanguageExtensionMapper.extensionFor(block.language());
+            String base = (request.getId() != null && !request.getId().isBlank()) ? request.getId() : "output";
+            filename = base + ext;
+        }
+
+        long start = System.nanoTime();
+        try {
+            return FileUtils.saveToOutput(
+                    props.getOutputDir(), subdir, filename, block.content()
             );
+        } finally {
+            metrics.artifactWrite(CodegenMetrics.GENERATE_CODE, System.nanoTime() - start);
         }
     }
 
+    private static GenerateCodeResponse saved(GenerateCodeRequest request, String modelUsed, CodeParser.CodeBlock block, Path saved) {
+        return new GenerateCodeResponse(
+                request.getId(), "OK", modelUsed,
+                saved.toAbsolutePath().toString(),
+                "Saved " + (block.language() != null ? block.language() : "text") + " to " + saved.getFileName(),
+                null
+        );
+    }
+
     private void validate(GenerateCodeRequest req) {
         if (req == null) throw new IllegalArgumentException("Request cannot be null");
         if (req.getPrompt() == null || req.getPrompt().isBlank()) {
@@ -148,7 +379,7 @@ public class CodegenService {
         }
     }
 
-    private ImageInput buildImageInput(GenerateCodeRequest req) {
+    private ImageInput buildImageInput(GenerateCodeRequest req, String provider) throws IOException {
         if (req.getImage() == null || req.getImage().getPath() == null || req.getImage().getPath().isBlank()) {
             return null;
         }
@@ -156,12 +387,24 @@ public class CodegenService {
         if (path.startsWith("http://") || path.startsWith("https://")) {
             return ImageInput.fromUrl(path);
         }
-        // local file → data URI
-        byte[] bytes = FileUtils.readBytes(path);
-        String mime = FileUtils.guessImageMimeType(path);
-        String base64 = Base64.getEncoder().encodeToString(bytes);
-        String dataUri = "data:" + mime + ";base64," + base64;
-        return ImageInput.fromUrl(dataUri);
+        // local file → downscaled, re-encoded data URI
+        Path file = Paths.get(path);
+        if (!Files.isRegularFile(file)) throw new IllegalArgumentException("Cannot read file: " + path);
+        ImagePreparer.Prepared prepared = imagePreparer.prepare(file, modelFor(provider, req.getOverrides()));
+        return prepared.toImageInput();
+    }
+
+    /**
+     * The model (OpenAI) or deployment (Azure) a request will run on.
+     */
+    String modelFor(String provider, Map<String, Object> overrides) {
+        String model = getString(overrides, "model", null);
+        if (model != null) return model;
+        return switch (provider.toLowerCase()) {
+            case "openai" -> props.getOpenai().getModel();
+            case "azure" -> props.getAzure().getDeployment();
+            default -> throw new CodegenException("Unknown provider: " + provider);
+        };
     }
 
     private static String coalesce(String... values) {
@@ -169,7 +412,7 @@ public class CodegenService {
         return null;
     }
 
-    private static String getString(Map<String, Object> map, String key, String defVal) {
+    static String getString(Map<String, Object> map, String key, String defVal) {
         if (map == null) return defVal;
         Object v = map.get(key);
         return (v instanceof String s && !s.isBlank()) ? s : defVal;
@@ -183,11 +426,19 @@ public class CodegenService {
         return defVal;
     }
 
-    private static Integer getInt(Map<String, Object> map, String key, Integer defVal) {
+    static Integer getInt(Map<String, Object> map, String key, Integer defVal) {
         if (map == null) return defVal;
         Object v = map.get(key);
         if (v instanceof Number n) return n.intValue();
         if (v instanceof String s) try { return Integer.parseInt(s); } catch (Exception ignored) {}
         return defVal;
     }
-}
\ No newline at end of file
+
+    private static boolean getBoolean(Map<String, Object> map, String key, boolean defVal) {
+        if (map == null) return defVal;
+        Object v = map.get(key);
+        if (v instanceof Boolean b) return b;
+        if (v instanceof String s && !s.isBlank()) return Boolean.parseBoolean(s);
+        return defVal;
+    }
+}
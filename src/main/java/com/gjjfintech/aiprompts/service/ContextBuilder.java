@@ -0,0 +1,179 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Assembles the chat-and-save message list within a per-model token budget
+ * (codegen.context). Prior turns are sent once, as role/content messages. The system
+ * message, the brief, the current prompt, images and the most recent turns are always kept;
+ * when the rest does not fit, older turns and reference files are trimmed in the order
+ * given by codegen.context.trimOrder, and what was trimmed is reported in {@link Context#notes}.
+ */
+@Component
+public class ContextBuilder {
+
+    /**
+     * @param parts input tokens actually sent, by part: system, history, references, prompt, images
+     */
+    public record Context(List<Map<String, Object>> messages,
+                          int tokens,
+                          int budget,
+                          Map<String, Integer> parts,
+                          String notes) {
+
+        public Context withNote(String note) {
+            return new Context(messages, tokens, budget, parts, notes + "; " + note);
+        }
+    }
+
+    private final CodegenProperties props;
+    private final TokenCounter tokens;
+
+    public ContextBuilder(CodegenProperties props, TokenCounter tokens) {
+        this.props = props;
+        this.tokens = tokens;
+    }
+
+    public Context build(String model,
+                         String systemText,
+                         String brief,
+                         List<Map<String, Object>> prior,
+                         InputCodeAggregator.Collected referenced,
+                         String prompt,
+                         List<ImageInput> images) {
+        CodegenProperties.Context cfg = props.getContext();
+        int budget = cfg.getModelBudgets().getOrDefault(model, cfg.getDefaultBudgetTokens()) - cfg.getReserveOutputTokens();
+
+        // Always sent
+        String currentPrompt = "Current prompt:\n" + prompt;
+        int systemTokens = tokens.countMessage(model, systemText) + tokens.countMessage(model, brief);
+        int promptTokens = tokens.count(model, currentPrompt);
+        int imageTokens = images.size() * cfg.getImageTokens();
+        int fixed = systemTokens + promptTokens + imageTokens;
+
+        List<Map<String, Object>> history = normalizePrior(prior);
+        int[] historyTokens = history.stream().mapToInt(m -> tokens.countMessage(model, (String) m.get("content"))).toArray();
+        int recentFrom = Math.max(0, history.size() - 2 * Math.max(0, cfg.getKeepRecentTurns()));
+
+        List<InputCodeAggregator.ReferenceFile> references = referenced.files();
+        List<String> refTexts = new ArrayList<>();
+        List<Integer> refTokens = new ArrayList<>();
+        for (int i = 0; i < references.size(); i++) {
+            String text = references.get(i).header(i + 1) + references.get(i).content() + "\n";
+            refTexts.add(text);
+            refTokens.add(tokens.count(model, text));
+        }
+
+        int total = fixed + sum(historyTokens) + refTokens.stream().mapToInt(Integer::intValue).sum();
+        List<String> trimmed = new ArrayList<>();
+        referenced.skipped().forEach(s -> trimmed.add("skipped reference " + s));
+
+        // Trim by priority until the request fits
+        int firstKept = 0; // index of the oldest history message still sent
+        for (String category : cfg.getTrimOrder()) {
+            if (total <= budget) break;
+            if ("history".equalsIgnoreCase(category)) {
+                int dropped = 0;
+                while (total > budget && firstKept < recentFrom) {
+                    total -= historyTokens[firstKept++];
+                    dropped++;
+                }
+                if (dropped > 0) trimmed.add("dropped " + dropped + " older messages");
+            } else if ("references".equalsIgnoreCase(category)) {
+                for (int i = refTexts.size() - 1; i >= 0 && total > budget; i--) {
+                    int over = total - budget;
+                    String name = references.get(i).path().getFileName().toString();
+                    if (refTokens.get(i) <= over) {
+                        total -= refTokens.get(i);
+                        refTexts.set(i, null);
+                        refTokens.set(i, 0);
+                        trimmed.add("dropped reference " + name);
+                    } else {
+                        String cut = truncate(model, refTexts.get(i), refTokens.get(i) - over);
+                        int cutTokens = tokens.count(model, cut);
+                        total -= refTokens.get(i) - cutTokens;
+                        trimmed.add("truncated reference " + name + " (-" + (refTokens.get(i) - cutTokens) + " tokens)");
+                        refTexts.set(i, cut);
+                        refTokens.set(i, cutTokens);
+                    }
+                }
+            }
+        }
+
+        // Build final message list (system + kept prior + current multipart)
+        List<Map<String, Object>> messages = new ArrayList<>();
+        messages.add(Map.of("role", "system", "content", systemText));
+        messages.addAll(history.subList(firstKept, history.size()));
+
+        List<Object> userParts = new ArrayList<>();
+        userParts.add(partText(brief));
+        String combinedCode = String.join("", refTexts.stream().filter(Objects::nonNull).toList());
+        if (!combinedCode.isEmpty()) {
+            userParts.add(partText("Referenced input code:\n" + combinedCode));
+        }
+        userParts.add(partText(currentPrompt));
+        images.forEach(image -> userParts.add(partImage(image)));
+        messages.add(Map.of("role", "user", "content", userParts));
+
+        StringBuilder notes = new StringBuilder("context ").append(total).append('/').append(budget).append(" tokens");
+        trimmed.forEach(t -> notes.append("; ").append(t));
+        if (total > budget) notes.append("; still over budget after trimming");
+        Map<String, Integer> parts = new LinkedHashMap<>();
+        parts.put("system", systemTokens);
+        parts.put("history", sum(Arrays.copyOfRange(historyTokens, firstKept, historyTokens.length)));
+        parts.put("references", refTokens.stream().mapToInt(Integer::intValue).sum());
+        parts.put("prompt", promptTokens);
+        parts.put("images", imageTokens);
+        return new Context(messages, total, budget, parts, notes.toString());
+    }
+
+    /* ---------------- helpers ---------------- */
+
+    /** Keeps roughly the first {@code keepTokens} tokens of {@code text}. */
+    private String truncate(String model, String text, int keepTokens) {
+        String marker = "\n// ... truncated to fit the context budget\n";
+        int available = keepTokens - tokens.count(model, marker);
+        if (available <= 0) return "";
+        int chars = (int) ((long) text.length() * available / Math.max(1, tokens.count(model, text)));
+        String cut = text.substring(0, Math.min(text.length(), chars));
+        while (!cut.isEmpty() && tokens.count(model, cut) > available) {
+            cut = cut.substring(0, cut.length() * 9 / 10);
+        }
+        return cut + marker;
+    }
+
+    private static int sum(int[] values) {
+        int s = 0;
+        for (int v : values) s += v;
+        return s;
+    }
+
+    private static Map<String, Object> partText(String text) {
+        return Map.of("type", "text", "text", text);
+    }
+
+    /** The image is encoded into the request body only when it is written (see ChatCompletionBody). */
+    private static Map<String, Object> partImage(ImageInput image) {
+        return Map.of("type", "image_url", "image_url", Map.of("url", image));
+    }
+
+    private static List<Map<String, Object>> normalizePrior(List<Map<String, Object>> prior) {
+        if (prior == null || prior.isEmpty()) return List.of();
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Map<String, Object> m : prior) {
+            String role = String.valueOf(m.getOrDefault("role", "user"));
+            Object content = m.get("content");
+            String text = (content instanceof String) ? (String) content : Objects.toString(content, "");
+            list.add(Map.of("role", role, "content", text));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,226 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk format of one conversation: messages.jsonl holds one message per line and is only
+ * ever appended to; messages.idx holds the byte offset of every line as a big-endian long,
+ * so the last N messages can be read without parsing the ones before them.
+ *
+ * The log is written before the index. {@link #open} repairs what a crash can leave behind:
+ * a torn last line is truncated and index entries missing for complete lines are rebuilt.
+ * It also migrates a legacy messages.json (pretty-printed array) once.
+ *
+ * Not thread-safe: callers serialize access per conversation directory.
+ */
+final class ConversationLog {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationLog.class);
+
+    static final String LOG_FILE = "messages.jsonl";
+    static final String INDEX_FILE = "messages.idx";
+    static final String LEGACY_FILE = "messages.json";
+
+    private static final TypeReference<Map<String, Object>> MESSAGE = new TypeReference<>() {};
+    private static final int SCAN_CHUNK = 64 * 1024;
+
+    private final Path dir;
+    private final Path logFile;
+    private final Path indexFile;
+    private final ObjectMapper om;
+
+    ConversationLog(Path dir, ObjectMapper om) {
+        this.dir = dir;
+        this.logFile = dir.resolve(LOG_FILE);
+        this.indexFile = dir.resolve(INDEX_FILE);
+        this.om = om;
+    }
+
+    /**
+     * Migrates and repairs the files. Call once per directory before any other method.
+     */
+    void open() throws IOException {
+        Files.createDirectories(dir);
+        Path legacy = dir.resolve(LEGACY_FILE);
+        if (!Files.exists(logFile) && Files.exists(legacy)) {
+            migrate(legacy);
+        }
+        if (!Files.exists(logFile)) return;
+
+        try (FileChannel ch = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size();
+            long end = lastNewlineBefore(ch, size) + 1;
+            if (end < size) {
+                log.warn("Truncating torn last line of {} ({} bytes)", logFile, size - end);
+                ch.truncate(end);
+            }
+        }
+        repairIndex();
+    }
+
+    /** Number of messages in the log. */
+    int size() throws IOException {
+        return Files.exists(indexFile) ? (int) (Files.size(indexFile) / Long.BYTES) : 0;
+    }
+
+    List<Map<String, Object>> readAll() throws IOException {
+        return readFrom(0L);
+    }
+
+    /**
+     * The last {@code n} messages, oldest first. Only those lines are read and parsed.
+     */
+    List<Map<String, Object>> tail(int n) throws IOException {
+        int count = size();
+        if (n <= 0 || count == 0) return new ArrayList<>();
+        int from = Math.max(0, count - n);
+        return readFrom(offsetAt(from));
+    }
+
+    /**
+     * Appends messages in one write. Cost is independent of the conversation length.
+     */
+    void append(List<Map<String, Object>> messages) throws IOException {
+        if (messages.isEmpty()) return;
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        ByteBuffer offsets = ByteBuffer.allocate(messages.size() * Long.BYTES);
+
+        try (FileChannel ch = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long base = ch.size();
+            for (Map<String, Object> m : messages) {
+                offsets.putLong(base + lines.size());
+                lines.write(om.writeValueAsBytes(m));
+                lines.write('\n');
+            }
+            writeFully(ch, ByteBuffer.wrap(lines.toByteArray()));
+        }
+        offsets.flip();
+        try (FileChannel idx = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            writeFully(idx, offsets);
+        }
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    private List<Map<String, Object>> readFrom(long offset) throws IOException {
+        List<Map<String, Object>> out = new ArrayList<>();
+        if (!Files.exists(logFile)) return out;
+        byte[] bytes;
+        try (FileChannel ch = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            long len = ch.size() - offset;
+            if (len <= 0) return out;
+            ByteBuffer buf = ByteBuffer.allocate(Math.toIntExact(len));
+            while (buf.hasRemaining() && ch.read(buf, offset + buf.position()) > 0) { }
+            bytes = buf.array();
+        }
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') continue;
+            if (i > start) out.add(om.readValue(bytes, start, i - start, MESSAGE));
+            start = i + 1;
+        }
+        return out;
+    }
+
+    private long offsetAt(int message) throws IOException {
+        try (FileChannel idx = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+            idx.read(buf, (long) message * Long.BYTES);
+            return buf.flip().getLong();
+        }
+    }
+
+    /**
+     * Brings the index in line with the (already repaired) log: drops a partial trailing
+     * entry, and indexes any complete lines written after the last indexed one.
+     */
+    private void repairIndex() throws IOException {
+        long logSize = Files.size(logFile);
+        try (FileChannel idx = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long whole = idx.size() / Long.BYTES * Long.BYTES;
+            if (whole < idx.size()) idx.truncate(whole);
+
+            long scanFrom = 0L;
+            if (whole > 0) {
+                ByteBuffer last = ByteBuffer.allocate(Long.BYTES);
+                idx.read(last, whole - Long.BYTES);
+                long lastOffset = last.flip().getLong();
+                if (lastOffset >= logSize) {
+                    log.warn("Index {} points past the end of {}, rebuilding", indexFile, logFile);
+                    idx.truncate(0);
+                    whole = 0;
+                } else {
+                    scanFrom = lastOffset;
+                }
+            }
+
+            List<Long> missing = new ArrayList<>();
+            try (FileChannel ch = FileChannel.open(logFile, StandardOpenOption.READ)) {
+                // when resuming after the last indexed line, its own offset is already indexed
+                boolean skipFirst = whole > 0;
+                long lineStart = scanFrom;
+                ByteBuffer buf = ByteBuffer.allocate(SCAN_CHUNK);
+                long pos = scanFrom;
+                while (pos < logSize) {
+                    buf.clear();
+                    int n = ch.read(buf, pos);
+                    if (n <= 0) break;
+                    for (int i = 0; i < n; i++) {
+                        if (buf.get(i) != '\n') continue;
+                        if (!skipFirst) missing.add(lineStart);
+                        skipFirst = false;
+                        lineStart = pos + i + 1;
+                    }
+                    pos += n;
+                }
+            }
+            if (!missing.isEmpty()) {
+                if (whole > 0) log.warn("Indexing {} unindexed lines of {}", missing.size(), logFile);
+                ByteBuffer out = ByteBuffer.allocate(missing.size() * Long.BYTES);
+                missing.forEach(out::putLong);
+                out.flip();
+                idx.position(whole);
+                writeFully(idx, out);
+            }
+        }
+    }
+
+    private void migrate(Path legacy) throws IOException {
+        List<Map<String, Object>> messages = om.readValue(legacy.toFile(), new TypeReference<>() {});
+        append(messages);
+        Files.move(legacy, legacy.resolveSibling(LEGACY_FILE + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+        log.info("Migrated {} messages from {} to {}", messages.size(), legacy, logFile);
+    }
+
+    /** Position of the last '\n' strictly before {@code end}, or -1. */
+    private static long lastNewlineBefore(FileChannel ch, long end) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_CHUNK);
+        long pos = end;
+        while (pos > 0) {
+            int len = (int) Math.min(SCAN_CHUNK, pos);
+            pos -= len;
+            buf.clear().limit(len);
+            ch.read(buf, pos);
+            for (int i = len - 1; i >= 0; i--) {
+                if (buf.get(i) == '\n') return pos + i;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+}
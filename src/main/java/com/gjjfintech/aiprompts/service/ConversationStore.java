@@ -1,50 +1,251 @@
 package com.gjjfintech.aiprompts.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import com.gjjfintech.aiprompts.jfr.ConversationAppendEvent;
+import com.gjjfintech.aiprompts.jfr.ConversationLoadEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.file.*;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Per-project conversation history, stored as an append-only {@link ConversationLog}
+ * (conversation/messages.jsonl + messages.idx).
+ *
+ * Recently used conversations are kept in memory (bounded by codegen.conversations.cacheMaxMb)
+ * and written through on append. Reads and writes of one conversation are serialized by a
+ * lock stripe chosen from its directory, so turns are never lost to concurrent appends while
+ * different projects proceed in parallel.
+ */
 @Service
 public class ConversationStore {
 
+    private static final Logger log = LoggerFactory.getLogger(ConversationStore.class);
+
+    private static final long MESSAGE_OVERHEAD_BYTES = 96;
+
+    private final CodegenProperties props;
+    private final CodegenMetrics metrics;
     private final ObjectMapper om = new ObjectMapper();
+    private final ReentrantLock[] stripes;
+    private final Set<Path> opened = ConcurrentHashMap.newKeySet();
+
+    private final Map<Path, Cached> cache = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /** A cached conversation. Only touched while holding the conversation's stripe. */
+    private static final class Cached {
+        final List<Map<String, Object>> messages;
+        long bytes;
+        volatile long lastAccess;
+
+        Cached(List<Map<String, Object>> messages, long bytes) {
+            this.messages = messages;
+            this.bytes = bytes;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+
+    private record LastAccess(Path key, long nanos) { }
+
+    public ConversationStore(CodegenProperties props, CodegenMetrics metrics) {
+        this.props = props;
+        this.metrics = metrics;
+        metrics.gauge("codegen.conversation.cache.bytes", cachedBytes, AtomicLong::get);
+        metrics.gauge("codegen.conversation.cache.size", cache, Map::size);
+        int n = Integer.highestOneBit(Math.max(1, props.getConversations().getLockStripes() - 1)) << 1;
+        this.stripes = new ReentrantLock[n];
+        for (int i = 0; i < n; i++) stripes[i] = new ReentrantLock();
+    }
 
     public List<Map<String, Object>> load(Path conversationDir) {
+        ConversationLoadEvent event = new ConversationLoadEvent();
+        long start = System.nanoTime();
+        event.begin();
+        Path key = key(conversationDir);
+        List<Map<String, Object>> messages;
+        ReentrantLock lock = stripe(key);
+        lock.lock();
         try {
-            Files.createDirectories(conversationDir);
-            Path file = conversationDir.resolve("messages.json");
-            if (!Files.exists(file)) return new ArrayList<>();
-            byte[] json = Files.readAllBytes(file);
-            return om.readValue(json, new TypeReference<List<Map<String, Object>>>(){});
+            boolean hit = cache.containsKey(key);
+            Cached c = cached(key);
+            messages = new ArrayList<>(c.messages);
+            metrics.conversationLoad(hit, System.nanoTime() - start, messages.size(), c.bytes);
+            event.end();
+            if (event.shouldCommit()) {
+                event.project = project(key);
+                event.messages = messages.size();
+                event.bytes = c.bytes;
+                event.cacheHit = hit;
+                event.commit();
+            }
         } catch (IOException e) {
+            log.warn("Cannot read conversation {}: {}", conversationDir, e.getMessage());
             return new ArrayList<>();
+        } finally {
+            lock.unlock();
         }
+        // outside the stripe, so eviction never waits while holding another conversation's lock
+        evictIfNeeded();
+        return messages;
     }
 
-    public void append(Path conversationDir, String userPrompt, String assistantText) {
-        List<Map<String, Object>> convo = load(conversationDir);
+    /**
+     * The last {@code n} messages, oldest first. Served from memory when the conversation is
+     * cached, otherwise read from the end of the log without loading the rest.
+     */
+    public List<Map<String, Object>> tail(Path conversationDir, int n) {
+        Path key = key(conversationDir);
+        ReentrantLock lock = stripe(key);
+        lock.lock();
+        try {
+            Cached c = cache.get(key);
+            if (c != null) {
+                c.lastAccess = System.nanoTime();
+                List<Map<String, Object>> all = c.messages;
+                return new ArrayList<>(all.subList(Math.max(0, all.size() - Math.max(0, n)), all.size()));
+            }
+            return open(key).tail(n);
+        } catch (IOException e) {
+            log.warn("Cannot read conversation {}: {}", conversationDir, e.getMessage());
+            return new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    public void append(Path conversationDir, String userPrompt, String assistantText) {
         Map<String, Object> userMsg = new LinkedHashMap<>();
         userMsg.put("role", "user");
         userMsg.put("content", userPrompt);
         userMsg.put("timestamp", Instant.now().toString());
-        convo.add(userMsg);
 
         Map<String, Object> asstMsg = new LinkedHashMap<>();
         asstMsg.put("role", "assistant");
         asstMsg.put("content", assistantText);
         asstMsg.put("timestamp", Instant.now().toString());
-        convo.add(asstMsg);
 
+        List<Map<String, Object>> turn = List.of(userMsg, asstMsg);
+        ConversationAppendEvent event = new ConversationAppendEvent();
+        long start = System.nanoTime();
+        event.begin();
+        Path key = key(conversationDir);
+        ReentrantLock lock = stripe(key);
+        lock.lock();
         try {
-            Path file = conversationDir.resolve("messages.json");
-            byte[] out = om.writerWithDefaultPrettyPrinter().writeValueAsBytes(convo);
-            Files.write(file, out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException ignored) {}
+            open(key).append(turn);
+            Cached c = cache.get(key);
+            if (c != null) {
+                long added = estimateBytes(turn);
+                c.messages.addAll(turn);
+                c.bytes += added;
+                c.lastAccess = System.nanoTime();
+                cachedBytes.addAndGet(added);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.project = project(key);
+                event.bytes = estimateBytes(turn);
+                event.messages = c != null ? c.messages.size() : -1;
+                event.commit();
+            }
+        } catch (IOException e) {
+            log.warn("Cannot append to conversation {}: {}", conversationDir, e.getMessage());
+        } finally {
+            lock.unlock();
+            metrics.conversationAppend(System.nanoTime() - start);
+        }
+        evictIfNeeded();
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    /** Caller holds the stripe of {@code key}. */
+    private Cached cached(Path key) throws IOException {
+        Cached c = cache.get(key);
+        if (c == null) {
+            List<Map<String, Object>> messages = open(key).readAll();
+            c = new Cached(messages, estimateBytes(messages));
+            cache.put(key, c);
+            cachedBytes.addAndGet(c.bytes);
+        }
+        c.lastAccess = System.nanoTime();
+        return c;
+    }
+
+    /** Migration/repair runs the first time a directory is touched by this process. */
+    private ConversationLog open(Path key) throws IOException {
+        ConversationLog conversation = new ConversationLog(key, om);
+        if (!opened.contains(key)) {
+            conversation.open();
+            opened.add(key);
+        }
+        return conversation;
+    }
+
+    /**
+     * Drops least recently used conversations until the cache is back under 90% of its
+     * budget. Only one thread evicts at a time; others skip rather than wait.
+     */
+    private void evictIfNeeded() {
+        long max = props.getConversations().getCacheMaxMb() * 1024L * 1024L;
+        if (cachedBytes.get() <= max || !evicting.compareAndSet(false, true)) return;
+        try {
+            long target = max * 9 / 10;
+            // lastAccess keeps changing under other threads: sort a snapshot, not the live values
+            List<LastAccess> byAge = new ArrayList<>(cache.size());
+            cache.forEach((key, c) -> byAge.add(new LastAccess(key, c.lastAccess)));
+            byAge.sort(Comparator.comparingLong(LastAccess::nanos));
+            for (LastAccess e : byAge) {
+                if (cachedBytes.get() <= target) break;
+                ReentrantLock lock = stripe(e.key());
+                if (!lock.tryLock()) continue;
+                try {
+                    Cached removed = cache.remove(e.key());
+                    if (removed != null) cachedBytes.addAndGet(-removed.bytes);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private ReentrantLock stripe(Path key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    /** conversationDir is {@code <filesBaseDir>/<project>/conversation}. */
+    private static String project(Path key) {
+        Path parent = key.getParent();
+        return parent != null && parent.getFileName() != null ? parent.getFileName().toString() : null;
+    }
+
+    private static Path key(Path conversationDir) {
+        return conversationDir.toAbsolutePath().normalize();
+    }
+
+    private static long estimateBytes(List<Map<String, Object>> messages) {
+        long bytes = 0;
+        for (Map<String, Object> m : messages) {
+            bytes += MESSAGE_OVERHEAD_BYTES;
+            for (Object v : m.values()) {
+                if (v instanceof String s) bytes += 2L * s.length();
+            }
+        }
+        return bytes;
     }
-}
\ No newline at end of file
+}
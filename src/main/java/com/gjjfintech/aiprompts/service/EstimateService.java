@@ -0,0 +1,75 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import com.gjjfintech.aiprompts.dto.ChatAndSaveRequest;
+import com.gjjfintech.aiprompts.dto.EstimateResponse;
+import com.gjjfintech.aiprompts.dto.GenerateCodeRequest;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Dry-run estimates of input tokens, cost and latency. Token counts come from the local
+ * tokenizer; prices and speeds from codegen.estimate (per model, falling back to defaults).
+ */
+@Service
+public class EstimateService {
+
+    private final CodegenProperties props;
+    private final TokenCounter tokens;
+    private final CodegenService codegenService;
+    private final ChatAndSaveService chatAndSaveService;
+
+    public EstimateService(CodegenProperties props,
+                           TokenCounter tokens,
+                           CodegenService codegenService,
+                           ChatAndSaveService chatAndSaveService) {
+        this.props = props;
+        this.tokens = tokens;
+        this.codegenService = codegenService;
+        this.chatAndSaveService = chatAndSaveService;
+    }
+
+    public EstimateResponse estimate(GenerateCodeRequest request) {
+        String provider = (request.getProvider() == null || request.getProvider().isBlank())
+                ? props.getProviderDefault()
+                : request.getProvider().toLowerCase();
+        String model = codegenService.modelFor(provider, request.getOverrides());
+
+        Map<String, Integer> parts = new LinkedHashMap<>();
+        parts.put("system", tokens.countMessage(model, codegenService.systemPrompt(request)));
+        parts.put("prompt", tokens.countMessage(model, request.getPrompt()));
+        parts.put("images", request.getImage() != null ? props.getContext().getImageTokens() : 0);
+
+        int maxOutputTokens = CodegenService.getInt(request.getOverrides(), "maxOutputTokens", 4096);
+        return build(provider, model, parts, null, maxOutputTokens, null);
+    }
+
+    public Mono<EstimateResponse> estimate(ChatAndSaveRequest request) {
+        String deployment = props.getAzure().getDeployment();
+        return chatAndSaveService.previewContext(request)
+                .map(context -> build("azure", deployment, context.parts(), context.budget(),
+                        Integer.MAX_VALUE, context.notes()));
+    }
+
+    private EstimateResponse build(String provider,
+                                   String model,
+                                   Map<String, Integer> parts,
+                                   Integer budget,
+                                   int maxOutputTokens,
+                                   String notes) {
+        CodegenProperties.Estimate.Pricing pricing = props.getEstimate().getModels()
+                .getOrDefault(model, props.getEstimate().getDefaults());
+
+        int input = parts.values().stream().mapToInt(Integer::intValue).sum();
+        int output = Math.min(pricing.getExpectedOutputTokens(), maxOutputTokens);
+        double cost = (input * pricing.getInputUsdPerMillion() + output * pricing.getOutputUsdPerMillion()) / 1_000_000d;
+        long latency = pricing.getFirstTokenMillis()
+                + Math.round(output * 1000d / Math.max(1d, pricing.getOutputTokensPerSecond()));
+
+        return new EstimateResponse(provider, model, tokens.encodingFor(model).getName(), parts, input, budget,
+                output, cost, latency, notes);
+    }
+}
@@ -0,0 +1,214 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * {@link LLMClient} decorator that hedges slow calls on a secondary provider (or another
+ * deployment of the same one), following codegen.hedging.policies.&lt;primary&gt;:
+ * <ul>
+ *   <li>if the primary has not answered after the policy's percentile of its recent
+ *       latencies, the same request also goes to the secondary; the first result wins and the
+ *       other call is cancelled (a primary cancelled this way counts with the time it had
+ *       taken, as a lower bound);</li>
+ *   <li>hedges draw from a budget refilled by maxHedgeRate per primary call, so at most that
+ *       share of calls is duplicated; when it is empty the call just keeps waiting;</li>
+ *   <li>with failover, a primary failure other than a client error (429, 5xx, timeout,
+ *       connection) sends the call to the secondary, without using the budget.</li>
+ * </ul>
+ * Streams are not hedged, since both sides would stream tokens to the caller; they fail over
+ * when the primary fails before its first delta.
+ */
+final class HedgingLLMClient implements LLMClient {
+
+    private static final Logger log = LoggerFactory.getLogger(HedgingLLMClient.class);
+
+    private final String primaryName;
+    private final LLMClient primary;
+    private final String secondaryName;
+    private final LLMClient secondary;
+    private final CodegenProperties.Hedging.Policy policy;
+    private final CodegenMetrics metrics;
+    private final LatencyWindow latencies;
+
+    private double hedgeCredits; // guarded by this
+
+    HedgingLLMClient(String primaryName,
+                     LLMClient primary,
+                     String secondaryName,
+                     LLMClient secondary,
+                     CodegenProperties.Hedging.Policy policy,
+                     CodegenMetrics metrics) {
+        this.primaryName = primaryName;
+        this.primary = primary;
+        this.secondaryName = secondaryName;
+        this.secondary = secondary;
+        this.policy = policy;
+        this.metrics = metrics;
+        this.latencies = new LatencyWindow(Math.max(10, policy.getWindow()));
+        this.hedgeCredits = policy.getMaxHedgeRate() > 0 ? 1 : 0;
+        metrics.gauge("codegen.hedge.delay", this, c -> c.delay().toMillis(), "primary", primaryName, "secondary", secondaryName);
+    }
+
+    @Override
+    public Mono<ProviderResult> generate(String modelOverride,
+                                         String systemPrompt,
+                                         String userPrompt,
+                                         ImageInput image,
+                                         Double temperature,
+                                         Integer maxOutputTokens) {
+        return Mono.defer(() -> {
+            earnCredit();
+            Duration delay = delay();
+            long start = System.nanoTime();
+            AtomicBoolean hedged = new AtomicBoolean();
+            // the primary's outcome for the secondary branch: its error, or empty once it finished without one
+            Sinks.One<Throwable> primaryFailed = Sinks.one();
+
+            Mono<Attempt> first = primary
+                    .generate(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens)
+                    .doOnNext(result -> latencies.record(System.nanoTime() - start))
+                    // a primary beaten by its hedge took at least this long; leaving it out would bias the delay low
+                    .doOnCancel(() -> {
+                        if (hedged.get()) latencies.record(Math.max(System.nanoTime() - start, delay.toNanos()));
+                    })
+                    .doOnSuccess(result -> primaryFailed.tryEmitEmpty())
+                    .map(result -> new Attempt(result, false))
+                    .onErrorResume(e -> {
+                        primaryFailed.tryEmitValue(e);
+                        return Mono.empty();
+                    });
+
+            Supplier<Mono<Attempt>> secondaryCall = () -> secondary
+                    .generate(secondaryModel(), systemPrompt, userPrompt, image, temperature, maxOutputTokens)
+                    .map(result -> new Attempt(result, true));
+
+            Mono<Attempt> second = Mono.firstWithSignal(
+                            Mono.delay(delay).thenReturn(Optional.<Throwable>empty()),
+                            primaryFailed.asMono().map(Optional::of))
+                    .flatMap(trigger -> {
+                        if (trigger.isPresent()) return failover(trigger.get(), secondaryCall);
+                        if (!spendCredit()) {
+                            metrics.hedge(primaryName, secondaryName, "skipped");
+                            return primaryFailed.asMono().flatMap(e -> failover(e, secondaryCall));
+                        }
+                        hedged.set(true);
+                        metrics.hedge(primaryName, secondaryName, "hedged");
+                        log.debug("Hedging {} call on {} after {} ms", primaryName, secondaryName, delay.toMillis());
+                        // a failed hedge leaves the outcome to the primary
+                        return secondaryCall.get()
+                                .onErrorResume(e -> primaryFailed.asMono().flatMap(Mono::error));
+                    });
+
+            return Flux.merge(first, second)
+                    .next()
+                    .doOnNext(winner -> {
+                        if (hedged.get()) metrics.hedge(primaryName, secondaryName, winner.secondary() ? "hedge_won" : "hedge_lost");
+                    })
+                    .map(Attempt::result);
+        });
+    }
+
+    @Override
+    public Flux<ProviderResult> stream(String modelOverride,
+                                       String systemPrompt,
+                                       String userPrompt,
+                                       ImageInput image,
+                                       Double temperature,
+                                       Integer maxOutputTokens) {
+        if (!policy.isFailover()) {
+            return primary.stream(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens);
+        }
+        return Flux.defer(() -> {
+            AtomicBoolean started = new AtomicBoolean();
+            return primary.stream(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens)
+                    .doOnNext(delta -> started.set(true))
+                    .onErrorResume(e -> !started.get() && failoverFor(e), e -> {
+                        metrics.hedge(primaryName, secondaryName, "failover");
+                        log.warn("{} stream failed before its first token ({}), failing over to {}", primaryName, e.toString(), secondaryName);
+                        return secondary.stream(secondaryModel(), systemPrompt, userPrompt, image, temperature, maxOutputTokens);
+                    });
+        });
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    /** A result and whether the secondary produced it. */
+    private record Attempt(ProviderResult result, boolean secondary) { }
+
+    private Mono<Attempt> failover(Throwable primaryError, Supplier<Mono<Attempt>> secondaryCall) {
+        if (!policy.isFailover() || !failoverFor(primaryError)) return Mono.error(primaryError);
+        metrics.hedge(primaryName, secondaryName, "failover");
+        log.warn("{} call failed ({}), failing over to {}", primaryName, primaryError.toString(), secondaryName);
+        return secondaryCall.get();
+    }
+
+    /** Client errors (bad request, auth, content filter) would most likely fail on the secondary too. */
+    private static boolean failoverFor(Throwable e) {
+        return !"client_error".equals(CodegenMetrics.providerOutcome(e));
+    }
+
+    private String secondaryModel() {
+        String m = policy.getSecondaryModel();
+        return (m != null && !m.isBlank()) ? m : null;
+    }
+
+    /** The hedge delay: the policy's percentile of recent primary latencies, or the initial delay until enough are known. */
+    Duration delay() {
+        long p = latencies.percentile(policy.getPercentile());
+        long millis = p < 0 ? policy.getInitialDelayMillis() : p / 1_000_000;
+        return Duration.ofMillis(Math.max(policy.getMinDelayMillis(), millis));
+    }
+
+    private synchronized void earnCredit() {
+        // up to ten hedges can be saved up, so a short burst of stalls can still be hedged
+        hedgeCredits = Math.min(10, hedgeCredits + policy.getMaxHedgeRate());
+    }
+
+    private synchronized boolean spendCredit() {
+        if (hedgeCredits < 1) return false;
+        hedgeCredits -= 1;
+        return true;
+    }
+
+    /** The last {@code size} primary latencies; the percentile is recomputed every size/10 samples. */
+    static final class LatencyWindow {
+        private final long[] samples;
+        private int next;
+        private int count;
+        private int sinceSort;
+        private long[] sorted = new long[0];
+
+        LatencyWindow(int size) {
+            this.samples = new long[size];
+        }
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) count++;
+            if (++sinceSort >= Math.max(1, samples.length / 10)) {
+                sinceSort = 0;
+                sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+            }
+        }
+
+        /** Nanoseconds, or -1 before the first recomputation. */
+        synchronized long percentile(double p) {
+            if (sorted.length == 0) return -1;
+            int i = (int) Math.ceil(Math.min(1, Math.max(0, p)) * sorted.length) - 1;
+            return sorted[Math.max(0, i)];
+        }
+    }
+}
@@ -1,5 +1,24 @@
 package com.gjjfintech.aiprompts.service;
 
-public record ImageInput(String url) {
-    public static ImageInput fromUrl(String url) { return new ImageInput(url); }
-}
\ No newline at end of file
+import java.nio.file.Path;
+
+/**
+ * An image for a vision request: a remote URL, or local content (in memory or in a file)
+ * that is base64-encoded into a data URI while the request body is written.
+ *
+ * @param digest SHA-256 of the local content (null for remote URLs)
+ */
+public record ImageInput(String url, String digest, String mime, byte[] bytes, Path file) {
+
+    public static ImageInput fromUrl(String url) { return new ImageInput(url, null, null, null, null); }
+
+    public static ImageInput inline(String mime, byte[] bytes, String digest) {
+        return new ImageInput(null, digest, mime, bytes, null);
+    }
+
+    public static ImageInput file(String mime, Path file, String digest) {
+        return new ImageInput(null, digest, mime, null, file);
+    }
+
+    public boolean isRemote() { return url != null; }
+}
@@ -0,0 +1,245 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import com.gjjfintech.aiprompts.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Prepares local images for vision requests: scales them down to what the model will
+ * actually look at (codegen.images.maxDimension / modelMaxDimension, then maxShortSide),
+ * re-encodes as PNG or JPEG, whichever is smaller, and thereby drops all metadata
+ * (EXIF, text chunks, color profiles). The JDK has no WebP encoder, so WebP is not a candidate.
+ *
+ * Results are cached in memory by the digest of the original bytes plus the settings used.
+ * Formats ImageIO cannot decode (e.g. WebP, animated GIF) are sent unchanged, straight from the file.
+ */
+@Component
+public class ImagePreparer {
+
+    private static final Logger log = LoggerFactory.getLogger(ImagePreparer.class);
+
+    /**
+     * A re-encoded image held in memory, or (when passed through unchanged) just the source
+     * file, which is then streamed from disk into the request body.
+     */
+    public record Prepared(String mime,
+                           byte[] bytes,         // null when passed through
+                           Path source,          // set when passed through
+                           String digest,        // SHA-256 of what is sent
+                           long originalBytes,
+                           int originalWidth,
+                           int originalHeight,
+                           int width,
+                           int height) {
+
+        public long size() {
+            return bytes != null ? bytes.length : originalBytes;
+        }
+
+        public ImageInput toImageInput() {
+            return bytes != null ? ImageInput.inline(mime, bytes, digest) : ImageInput.file(mime, source, digest);
+        }
+
+        /** e.g. "shot.png 8421337 -> 301554 bytes (3024x1964 -> 1182x768 image/jpeg)" */
+        public String summary(String name) {
+            return name + " " + originalBytes + " -> " + size() + " bytes ("
+                    + originalWidth + "x" + originalHeight + " -> " + width + "x" + height + " " + mime + ")";
+        }
+    }
+
+    private final CodegenProperties props;
+    private final ReentrantLock cacheLock = new ReentrantLock();
+    private final LinkedHashMap<String, Prepared> cache = new LinkedHashMap<>(32, 0.75f, true);
+    private long cachedBytes;
+
+    public ImagePreparer(CodegenProperties props) {
+        this.props = props;
+    }
+
+    /**
+     * Blocking (file I/O + image processing): call on the I/O scheduler.
+     */
+    public Prepared prepare(Path file, String model) throws IOException {
+        long size = Files.size(file);
+        String digest = sha256(file);
+        String mime = FileUtils.guessImageMime(file.getFileName().toString());
+        CodegenProperties.Images cfg = props.getImages();
+        if (!cfg.isEnabled()) return passThrough(file, mime, digest, size);
+
+        int maxDimension = cfg.getModelMaxDimension().getOrDefault(model, cfg.getMaxDimension());
+        String key = digest + "|" + maxDimension + "|" + cfg.getMaxShortSide() + "|" + cfg.getJpegQuality();
+        Prepared hit = cached(key);
+        if (hit != null) return hit;
+
+        BufferedImage image;
+        try {
+            image = ImageIO.read(file.toFile());
+        } catch (IIOException | RuntimeException e) {
+            // e.g. CMYK or otherwise unsupported JPEGs: the provider may still accept the original
+            log.debug("Cannot decode image {}, sending it as is: {}", file.getFileName(), e.toString());
+            image = null;
+        }
+        if (image == null) return passThrough(file, mime, digest, size);
+        Prepared prepared = transform(image, size, maxDimension, cfg);
+        store(key, prepared);
+        log.info("Prepared image {}", prepared.summary(file.getFileName().toString()));
+        return prepared;
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    private Prepared transform(BufferedImage image, long originalBytes, int maxDimension, CodegenProperties.Images cfg)
+            throws IOException {
+        int w = image.getWidth(), h = image.getHeight();
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(w, h));
+        scale = Math.min(scale, (double) cfg.getMaxShortSide() / Math.max(1, Math.min(w, h)));
+        scale = Math.min(1.0, scale);
+        int tw = Math.max(1, (int) Math.round(w * scale));
+        int th = Math.max(1, (int) Math.round(h * scale));
+
+        BufferedImage scaled = (tw == w && th == h) ? image : downscale(image, tw, th);
+
+        byte[] png = encodePng(scaled);
+        byte[] jpeg = encodeJpeg(scaled, cfg.getJpegQuality());
+        boolean useJpeg = jpeg != null && jpeg.length < png.length;
+        byte[] bytes = useJpeg ? jpeg : png;
+        return new Prepared(useJpeg ? "image/jpeg" : "image/png", bytes, null, sha256(bytes),
+                originalBytes, w, h, tw, th);
+    }
+
+    /** Halves repeatedly, then a final bilinear step: much sharper than one big bilinear jump. */
+    private static BufferedImage downscale(BufferedImage src, int tw, int th) {
+        BufferedImage current = src;
+        int w = src.getWidth(), h = src.getHeight();
+        do {
+            w = Math.max(tw, w / 2);
+            h = Math.max(th, h / 2);
+            BufferedImage next = new BufferedImage(w, h,
+                    current.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(current, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (w != tw || h != th);
+        return current;
+    }
+
+    private static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    /** JPEG has no alpha: transparent areas are flattened onto white. */
+    private static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        BufferedImage rgb = image;
+        if (image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = rgb.createGraphics();
+            try {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, image.getWidth(), image.getHeight());
+                g.drawImage(image, 0, 0, null);
+            } finally {
+                g.dispose();
+            }
+        }
+        var writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) return null;
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(rgb, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static Prepared passThrough(Path file, String mime, String digest, long size) {
+        return new Prepared(mime, null, file, digest, size, 0, 0, 0, 0);
+    }
+
+    private Prepared cached(String key) {
+        cacheLock.lock();
+        try {
+            return cache.get(key);
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    private void store(String key, Prepared prepared) {
+        long max = props.getImages().getCacheMaxMb() * 1024L * 1024L;
+        if (prepared.bytes().length > max) return;
+        cacheLock.lock();
+        try {
+            Prepared previous = cache.put(key, prepared);
+            cachedBytes += prepared.bytes().length - (previous != null ? previous.bytes().length : 0);
+            var it = cache.entrySet().iterator();
+            while (cachedBytes > max && it.hasNext()) {
+                Map.Entry<String, Prepared> eldest = it.next();
+                if (eldest.getKey().equals(key)) continue;
+                cachedBytes -= eldest.getValue().bytes().length;
+                it.remove();
+            }
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        return HexFormat.of().formatHex(sha256().digest(bytes));
+    }
+
+    /** Digest of a file without holding it in memory. */
+    private static String sha256(Path file) throws IOException {
+        MessageDigest md = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int n; (n = in.read(buffer)) > 0; ) md.update(buffer, 0, n);
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -1,28 +1,187 @@
 package com.gjjfintech.aiprompts.service;
 
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Loads the reference code files of a chat-and-save request.
+ *
+ * File contents are cached by path and revalidated against size + mtime, so re-sending the
+ * same files costs one stat per file. The cache is LRU within codegen.references.cacheMaxMb.
+ * Misses are read in parallel (one virtual thread each).
+ * Per-request limits on file count and total bytes skip the excess and say so.
+ */
 @Service
 public class InputCodeAggregator {
 
+    private static final Logger log = LoggerFactory.getLogger(InputCodeAggregator.class);
+
+    /** One referenced input file, in request order. */
+    public record ReferenceFile(Path path, String content) {
+        public String header(int index) {
+            return "//Reference Code File " + index + " - \"" + path.toAbsolutePath() + "\"\n";
+        }
+    }
+
+    /** Files that were loaded, plus one "name (reason)" line per file that was not. */
+    public record Collected(List<ReferenceFile> files, List<String> skipped) { }
+
+    private record Cached(long size, long mtime, String content) { }
+
+    private final CodegenProperties props;
+    private final ReentrantLock cacheLock = new ReentrantLock();
+    private final LinkedHashMap<Path, Cached> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes;
+
+    public InputCodeAggregator(CodegenProperties props) {
+        this.props = props;
+    }
+
     public String combine(Path inputCodeDir, List<String> relPaths) {
-        if (relPaths == null || relPaths.isEmpty()) return "";
         StringBuilder sb = new StringBuilder();
         int i = 1;
+        for (ReferenceFile f : collect(inputCodeDir, relPaths).files()) {
+            sb.append(f.header(i++)).append(f.content()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads the referenced files individually so callers can budget them one by one.
+     * Blocking; call on the I/O scheduler.
+     */
+    public Collected collect(Path inputCodeDir, List<String> relPaths) {
+        List<String> skipped = new ArrayList<>();
+        if (relPaths == null || relPaths.isEmpty()) return new Collected(List.of(), skipped);
+        CodegenProperties.References cfg = props.getReferences();
+
+        // Resolve and check limits on metadata alone; nothing is read yet
+        List<Path> paths = new ArrayList<>();
+        List<BasicFileAttributes> attrs = new ArrayList<>();
+        long totalBytes = 0;
         for (String rel : relPaths) {
-            Path p = inputCodeDir.resolve(rel.replace("/", java.io.File.separator));
-            if (!Files.isRegularFile(p)) continue;
-            sb.append("//Reference Code File ").append(i).append(" - \"")
-                    .append(p.toAbsolutePath()).append("\"\n");
+            Path p = inputCodeDir.resolve(rel.replace("/", java.io.File.separator)).toAbsolutePath().normalize();
+            BasicFileAttributes a;
             try {
-                sb.append(Files.readString(p)).append("\n");
-            } catch (IOException ignored) {}
-            i++;
+                a = Files.readAttributes(p, BasicFileAttributes.class);
+            } catch (IOException e) {
+                skipped.add(rel + " (not found)");
+                continue;
+            }
+            if (!a.isRegularFile()) {
+                skipped.add(rel + " (not a file)");
+            } else if (paths.size() >= cfg.getMaxFiles()) {
+                skipped.add(rel + " (over the " + cfg.getMaxFiles() + " file limit)");
+            } else if (totalBytes + a.size() > cfg.getMaxTotalBytes()) {
+                skipped.add(rel + " (" + a.size() + " bytes, over the " + cfg.getMaxTotalBytes() + " byte limit)");
+            } else {
+                paths.add(p);
+                attrs.add(a);
+                totalBytes += a.size();
+            }
+        }
+
+        // Cache hits first, then read the misses in parallel
+        String[] contents = new String[paths.size()];
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            contents[i] = cached(paths.get(i), attrs.get(i));
+            if (contents[i] == null) misses.add(i);
+        }
+        if (misses.size() == 1) {
+            int i = misses.get(0);
+            contents[i] = readOrNull(paths.get(i), attrs.get(i));
+        } else if (!misses.isEmpty()) {
+            try (ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<String>> reads = new ArrayList<>();
+                for (int i : misses) {
+                    Path p = paths.get(i);
+                    BasicFileAttributes a = attrs.get(i);
+                    reads.add(readers.submit(() -> readOrNull(p, a)));
+                }
+                for (int k = 0; k < misses.size(); k++) {
+                    contents[misses.get(k)] = reads.get(k).get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading reference files", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to read reference files", e.getCause());
+            }
+        }
+
+        List<ReferenceFile> files = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            if (contents[i] != null) {
+                files.add(new ReferenceFile(paths.get(i), contents[i]));
+            } else {
+                skipped.add(inputCodeDir.relativize(paths.get(i)) + " (unreadable)");
+            }
+        }
+        log.debug("Reference files: {} loaded ({} read from disk), {} skipped", files.size(), misses.size(), skipped.size());
+        return new Collected(files, skipped);
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    private String cached(Path p, BasicFileAttributes a) {
+        cacheLock.lock();
+        try {
+            Cached c = cache.get(p);
+            if (c == null) return null;
+            if (c.size() == a.size() && c.mtime() == a.lastModifiedTime().toMillis()) return c.content();
+            cache.remove(p);
+            cachedBytes -= c.size();
+            return null;
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    private String readOrNull(Path p, BasicFileAttributes a) {
+        try {
+            // strict UTF-8: a file that is not valid text is skipped as unreadable, whatever its size
+            String content = Files.readString(p);
+            store(p, new Cached(a.size(), a.lastModifiedTime().toMillis(), content));
+            return content;
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Cannot read reference file {}: {}", p, e.getMessage());
+            return null;
+        }
+    }
+
+    private void store(Path p, Cached c) {
+        long max = props.getReferences().getCacheMaxMb() * 1024L * 1024L;
+        if (c.size() > max) return;
+        cacheLock.lock();
+        try {
+            Cached previous = cache.put(p, c);
+            cachedBytes += c.size() - (previous != null ? previous.size() : 0);
+            var it = cache.entrySet().iterator();
+            while (cachedBytes > max && it.hasNext()) {
+                Map.Entry<Path, Cached> eldest = it.next();
+                if (eldest.getKey().equals(p)) continue;
+                cachedBytes -= eldest.getValue().size();
+                it.remove();
+            }
+        } finally {
+            cacheLock.unlock();
         }
-        return sb.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,165 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import com.gjjfintech.aiprompts.dto.GenerateCodeRequest;
+import com.gjjfintech.aiprompts.dto.GenerateCodeResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Append-only journal of job state changes, one JSON object per line, stored in
+ * outputDir/.jobs/journal.jsonl. Replayed at startup so queued and running jobs survive
+ * a restart; compacted then and periodically so it only holds jobs still within retention.
+ */
+@Component
+public class JobJournal implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(JobJournal.class);
+
+    public record Entry(String type,                    // SUBMITTED | RUNNING | COMPLETED | CANCELLED
+                        String id,
+                        long ts,                        // epoch millis
+                        GenerateCodeRequest request,    // SUBMITTED only
+                        GenerateCodeResponse response)  // COMPLETED only
+    { }
+
+    private final CodegenProperties props;
+    private final ObjectMapper om = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+
+    public JobJournal(CodegenProperties props) {
+        this.props = props;
+    }
+
+    /**
+     * Reads every intact entry of the journal. A torn last line (crash mid-write) is skipped.
+     */
+    public List<Entry> replay() {
+        Path file = file();
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(file)) return entries;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = r.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank()) continue;
+                try {
+                    entries.add(om.readValue(line, Entry.class));
+                } catch (IOException e) {
+                    log.warn("Skipping unreadable job journal line {} in {}", lineNo, file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read job journal " + file, e);
+        }
+        return entries;
+    }
+
+    /**
+     * Atomically replaces the journal with the given entries and reopens it for appending.
+     */
+    public void rewrite(List<Entry> entries) {
+        rewrite(() -> entries);
+    }
+
+    /**
+     * Same, with the entries built while appends are held off, so a state change is either
+     * in the snapshot or appended to the new file, never lost in between.
+     */
+    public void rewrite(Supplier<List<Entry>> entries) {
+        lock.lock();
+        try {
+            List<Entry> snapshot = entries.get();
+            closeChannel();
+            Path file = file();
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Entry e : snapshot) writeFully(out, encode(e));
+                out.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot rewrite job journal", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void append(Entry entry) {
+        ByteBuffer line = encode(entry);
+        lock.lock();
+        try {
+            if (channel == null) {
+                Path file = file();
+                Files.createDirectories(file.getParent());
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            writeFully(channel, line);
+            if (props.getJobs().isFsync()) channel.force(false);
+        } catch (IOException e) {
+            // the job still runs; it just would not be resumed after a crash
+            log.error("Failed to journal {} for job {}", entry.type(), entry.id(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        lock.lock();
+        try {
+            closeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Path file() {
+        return Paths.get(props.getOutputDir()).resolve(".jobs").resolve("journal.jsonl");
+    }
+
+    private ByteBuffer encode(Entry entry) {
+        try {
+            byte[] json = om.writeValueAsBytes(entry);
+            ByteBuffer buf = ByteBuffer.allocate(json.length + 1);
+            buf.put(json).put((byte) '\n').flip();
+            return buf;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+        channel = null;
+    }
+}
@@ -0,0 +1,296 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import com.gjjfintech.aiprompts.dto.GenerateCodeRequest;
+import com.gjjfintech.aiprompts.dto.GenerateCodeResponse;
+import com.gjjfintech.aiprompts.dto.JobStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Fire-and-forget execution of generation jobs. Jobs are keyed by GenerateCodeRequest.id,
+ * queued in memory, executed by a bounded set of workers (codegen.jobs.workers), and every
+ * state change is written to the {@link JobJournal} so queued and running jobs are resumed
+ * after a restart. Finished jobs past codegen.jobs.retentionHours are dropped every
+ * purgeIntervalMinutes, and the journal is compacted to match.
+ */
+@Service
+public class JobService implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(JobService.class);
+
+    private static final String SUBMITTED = "SUBMITTED"; // journal-only
+
+    public static final String QUEUED = "QUEUED";
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String CANCELLED = "CANCELLED";
+
+    private final CodegenService codegenService;
+    private final JobJournal journal;
+    private final CodegenProperties props;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Sinks.Many<Job> queue = Sinks.many().unicast().onBackpressureBuffer();
+    private final Scheduler ioScheduler;
+    private Disposable workers;
+    private Disposable purger;
+
+    public JobService(CodegenService codegenService,
+                      JobJournal journal,
+                      CodegenProperties props,
+                      @Qualifier("ioScheduler") Scheduler ioScheduler) {
+        this.codegenService = codegenService;
+        this.journal = journal;
+        this.props = props;
+        this.ioScheduler = ioScheduler;
+    }
+
+    /**
+     * Replays the journal, compacts it, starts the workers and re-queues unfinished jobs.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        List<Job> unfinished = recover();
+        workers = queue.asFlux()
+                .flatMap(this::run, Math.max(1, props.getJobs().getWorkers()))
+                .subscribe();
+        unfinished.forEach(this::enqueue);
+        if (!unfinished.isEmpty()) log.info("Resumed {} unfinished jobs from journal", unfinished.size());
+
+        Duration every = Duration.ofMinutes(Math.max(1, props.getJobs().getPurgeIntervalMinutes()));
+        purger = Flux.interval(every, every, ioScheduler)
+                .onBackpressureDrop()
+                .concatMap(tick -> Mono.fromRunnable(this::purge)
+                        .onErrorResume(e -> {
+                            log.warn("Job purge failed: {}", e.toString());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @Override
+    public void destroy() {
+        if (purger != null) purger.dispose();
+        if (workers != null) workers.dispose();
+    }
+
+    /**
+     * Queues a job. Re-submitting the id of a job that is still queued or running returns
+     * that job unchanged; a finished job with the same id is replaced.
+     * Returns empty when the queue is full.
+     */
+    public Optional<JobStatus> submit(GenerateCodeRequest request) {
+        if (!reserveSlot()) return Optional.empty();
+
+        Job job = new Job(request, System.currentTimeMillis());
+        Job current = jobs.compute(request.getId(), (id, prev) -> (prev != null && !prev.isFinished()) ? prev : job);
+        if (current != job) {
+            queued.decrementAndGet(); // not queued after all
+            return Optional.of(current.status());
+        }
+
+        journal.append(new JobJournal.Entry(SUBMITTED, job.id(), job.submittedAt, request, null));
+        publish(job);
+        return Optional.of(job.status());
+    }
+
+    public Optional<JobStatus> get(String id) {
+        return Optional.ofNullable(jobs.get(id)).map(Job::status);
+    }
+
+    /**
+     * Cancels a queued or running job. A running provider call is unsubscribed (and thereby
+     * aborted); a finished job is returned unchanged.
+     */
+    public Optional<JobStatus> cancel(String id) {
+        Job job = jobs.get(id);
+        if (job == null) return Optional.empty();
+        boolean wasQueued = job.state.compareAndSet(QUEUED, CANCELLED);
+        if (wasQueued || job.state.compareAndSet(RUNNING, CANCELLED)) {
+            if (wasQueued) queued.decrementAndGet();
+            job.finishedAt = System.currentTimeMillis();
+            job.cancelled.tryEmitEmpty();
+            journal.append(new JobJournal.Entry(CANCELLED, id, job.finishedAt, null, null));
+        }
+        return Optional.of(job.status());
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    /** Takes one of the maxQueued slots, or returns false when they are all taken. */
+    private boolean reserveSlot() {
+        int max = props.getJobs().getMaxQueued();
+        while (true) {
+            int n = queued.get();
+            if (n >= max) return false;
+            if (queued.compareAndSet(n, n + 1)) return true;
+        }
+    }
+
+    /** Re-queues a recovered job; these are not held to maxQueued. */
+    private void enqueue(Job job) {
+        queued.incrementAndGet();
+        publish(job);
+    }
+
+    private void publish(Job job) {
+        queue.emitNext(job, Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+    }
+
+    private Mono<Void> run(Job job) {
+        if (!job.state.compareAndSet(QUEUED, RUNNING)) return Mono.empty(); // cancelled while queued
+        queued.decrementAndGet();
+        job.startedAt = System.currentTimeMillis();
+        journal.append(new JobJournal.Entry(RUNNING, job.id(), job.startedAt, null, null));
+
+        return codegenService.process(job.request)
+                .takeUntilOther(job.cancelled.asMono())
+                .onErrorResume(e -> Mono.just(new GenerateCodeResponse(
+                        job.id(), "FAILED", null, null, e.getMessage(), e.getClass().getSimpleName())))
+                .doOnNext(response -> complete(job, response))
+                .then();
+    }
+
+    private void complete(Job job, GenerateCodeResponse response) {
+        if (!job.state.compareAndSet(RUNNING, COMPLETED)) return;
+        job.result = response;
+        job.finishedAt = System.currentTimeMillis();
+        journal.append(new JobJournal.Entry(COMPLETED, job.id(), job.finishedAt, null, response));
+    }
+
+    /**
+     * Rebuilds job state from the journal, drops finished jobs past retention, rewrites the
+     * journal with what is left, and returns the jobs that still need to run.
+     */
+    private List<Job> recover() {
+        Map<String, Job> replayed = new LinkedHashMap<>();
+        for (JobJournal.Entry e : journal.replay()) {
+            switch (e.type()) {
+                case SUBMITTED -> {
+                    if (e.request() != null) replayed.put(e.id(), new Job(e.request(), e.ts()));
+                }
+                case RUNNING -> apply(replayed.get(e.id()), job -> job.startedAt = e.ts());
+                case COMPLETED -> apply(replayed.get(e.id()), job -> {
+                    job.state.set(COMPLETED);
+                    job.result = e.response();
+                    job.finishedAt = e.ts();
+                });
+                case CANCELLED -> apply(replayed.get(e.id()), job -> {
+                    job.state.set(CANCELLED);
+                    job.finishedAt = e.ts();
+                });
+                default -> log.warn("Unknown job journal entry type {}", e.type());
+            }
+        }
+
+        long cutoff = retentionCutoff();
+        List<Job> unfinished = new ArrayList<>();
+        List<JobJournal.Entry> compacted = new ArrayList<>();
+        replayed.values().stream()
+                .filter(job -> !job.isFinished() || job.finishedAt >= cutoff)
+                .sorted(Comparator.comparingLong(job -> job.submittedAt))
+                .forEach(job -> {
+                    jobs.put(job.id(), job);
+                    if (!job.isFinished()) {
+                        job.startedAt = null; // interrupted runs start over
+                        unfinished.add(job);
+                    }
+                    journal(job, compacted, false);
+                });
+        journal.rewrite(compacted);
+        return unfinished;
+    }
+
+    /**
+     * Drops finished jobs past retention and, if any were dropped, compacts the journal to the
+     * jobs still held.
+     */
+    private void purge() {
+        long cutoff = retentionCutoff();
+        int purged = 0;
+        for (Job job : jobs.values()) {
+            if (job.isFinished() && job.finishedAt != null && job.finishedAt < cutoff && jobs.remove(job.id(), job)) {
+                purged++;
+            }
+        }
+        if (purged == 0) return;
+        journal.rewrite(() -> {
+            List<JobJournal.Entry> compacted = new ArrayList<>();
+            jobs.values().stream()
+                    .sorted(Comparator.comparingLong(job -> job.submittedAt))
+                    .forEach(job -> journal(job, compacted, true));
+            return compacted;
+        });
+        log.info("Purged {} finished jobs past retention; {} left", purged, jobs.size());
+    }
+
+    /** The SUBMITTED entry of {@code job}, then its terminal entry (or RUNNING, if asked and started). */
+    private static void journal(Job job, List<JobJournal.Entry> out, boolean keepRunning) {
+        out.add(new JobJournal.Entry(SUBMITTED, job.id(), job.submittedAt, job.request, null));
+        String state = job.state.get();
+        if (COMPLETED.equals(state) || CANCELLED.equals(state)) {
+            out.add(new JobJournal.Entry(state, job.id(), job.finishedAt != null ? job.finishedAt : job.submittedAt, null, job.result));
+        } else if (keepRunning && job.startedAt != null) {
+            out.add(new JobJournal.Entry(RUNNING, job.id(), job.startedAt, null, null));
+        }
+    }
+
+    private long retentionCutoff() {
+        return System.currentTimeMillis() - Duration.ofHours(props.getJobs().getRetentionHours()).toMillis();
+    }
+
+    private static void apply(Job job, Consumer<Job> change) {
+        if (job != null) change.accept(job);
+    }
+
+    private static final class Job {
+        final GenerateCodeRequest request;
+        final long submittedAt;
+        final AtomicReference<String> state = new AtomicReference<>(QUEUED);
+        final Sinks.Empty<Void> cancelled = Sinks.empty();
+        volatile Long startedAt;
+        volatile Long finishedAt;
+        volatile GenerateCodeResponse result;
+
+        Job(GenerateCodeRequest request, long submittedAt) {
+            this.request = request;
+            this.submittedAt = submittedAt;
+        }
+
+        String id() {
+            return request.getId();
+        }
+
+        boolean isFinished() {
+            String s = state.get();
+            return COMPLETED.equals(s) || CANCELLED.equals(s);
+        }
+
+        JobStatus status() {
+            return new JobStatus(id(), state.get(), submittedAt, startedAt, finishedAt, result);
+        }
+    }
+}
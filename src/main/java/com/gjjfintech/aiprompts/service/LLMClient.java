@@ -1,10 +1,29 @@
 package com.gjjfintech.aiprompts.service;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
 public interface LLMClient {
-    ProviderResult generate(String modelOverride,
-                            String systemPrompt,
-                            String userPrompt,
-                            ImageInput image,
-                            Double temperature,
-                            Integer maxOutputTokens);
-}
\ No newline at end of file
+
+    /**
+     * Sends one Chat Completions request. Non-blocking: the returned Mono completes on the
+     * HTTP client's event loop, so no caller thread is held for the model latency.
+     */
+    Mono<ProviderResult> generate(String modelOverride,
+                                  String systemPrompt,
+                                  String userPrompt,
+                                  ImageInput image,
+                                  Double temperature,
+                                  Integer maxOutputTokens);
+
+    /**
+     * Same request as {@link #generate} but with {@code stream: true}; emits one
+     * ProviderResult per content delta as the provider produces it.
+     */
+    Flux<ProviderResult> stream(String modelOverride,
+                                String systemPrompt,
+                                String userPrompt,
+                                ImageInput image,
+                                Double temperature,
+                                Integer maxOutputTokens);
+}
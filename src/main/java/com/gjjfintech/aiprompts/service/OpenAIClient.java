@@ -1,19 +1,27 @@
 package com.gjjfintech.aiprompts.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.gjjfintech.aiprompts.config.CodegenProperties;
+import com.gjjfintech.aiprompts.config.ProviderHttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * Minimal OpenAI client using Chat Completions.
@@ -23,36 +31,106 @@ import java.util.Map;
 public class OpenAIClient implements LLMClient {
 
     private static final Logger log = LoggerFactory.getLogger(OpenAIClient.class);
+    private static final String PROVIDER = "openai";
 
-    private final WebClient.Builder webClientBuilder;
+    private final ProviderHttpClients httpClients;
     private final CodegenProperties props;
     private final ObjectMapper mapper = new ObjectMapper();
-
-    public OpenAIClient(WebClient.Builder webClientBuilder, CodegenProperties props) {
-        this.webClientBuilder = webClientBuilder;
+    private final Executor bodyWriter;
+    private final CodegenMetrics metrics;
+
+    public OpenAIClient(ProviderHttpClients httpClients,
+                           CodegenProperties props,
+                           @Qualifier("ioScheduler") Scheduler ioScheduler,
+                           CodegenMetrics metrics) {
+        this.httpClients = httpClients;
         this.props = props;
+        this.metrics = metrics;
+        // request bodies are serialized on the I/O scheduler, straight into the connection's buffers
+        this.bodyWriter = ioScheduler::schedule;
+    }
+
+    @Override
+    public Mono<ProviderResult> generate(String modelOverride,
+                                         String systemPrompt,
+                                         String userPrompt,
+                                         ImageInput image,
+                                         Double temperature,
+                                         Integer maxOutputTokens) {
+        return Mono.defer(() -> {
+            String model = resolveModel(modelOverride);
+            String apiKey = apiKey();
+
+            WebClient client = httpClients.openAi();
+            Map<String, Object> payload = buildPayload(model, systemPrompt, userPrompt, image, temperature, maxOutputTokens, false);
+
+            return metrics.provider(CodegenMetrics.GENERATE_CODE, PROVIDER, model, call -> client.post()
+                    .uri("/chat/completions")
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(ChatCompletionBody.of(payload, mapper, bodyWriter, call::requestBytes))
+                    .retrieve()
+                    .bodyToFlux(DataBuffer.class)
+                    .as(body -> ChatCompletionParser.parse(body, model, mapper.getFactory(),
+                            props.getHttp().getMaxResponseBytes(), call::responseBytes))
+                    .timeout(Duration.ofSeconds(props.getOpenai().getTimeoutSeconds()))
+                    .switchIfEmpty(Mono.error(() -> new IllegalStateException("OpenAI returned no choices")))
+                    .map(OpenAIClient::toResult));
+        });
+    }
+
+    private static ProviderResult toResult(ProviderResult response) {
+        if (response.content() != null) return response;
+        return new ProviderResult(response.modelUsed(), "", response.finishReason(), response.usage());
     }
 
     @Override
-    public ProviderResult generate(String modelOverride,
-                                   String systemPrompt,
-                                   String userPrompt,
-                                   ImageInput image,
-                                   Double temperature,
-                                   Integer maxOutputTokens) {
-
-        String apiBase = props.getOpenai().getApiBaseUrl();
-        String model = (modelOverride != null && !modelOverride.isBlank()) ? modelOverride : props.getOpenai().getModel();
+    public Flux<ProviderResult> stream(String modelOverride,
+                                       String systemPrompt,
+                                       String userPrompt,
+                                       ImageInput image,
+                                       Double temperature,
+                                       Integer maxOutputTokens) {
+        return Flux.defer(() -> {
+            String model = resolveModel(modelOverride);
+            String apiKey = apiKey();
+            Map<String, Object> payload = buildPayload(model, systemPrompt, userPrompt, image, temperature, maxOutputTokens, true);
+
+            // timeoutSeconds now bounds the gap between chunks, not the whole generation
+            return metrics.providerStream(CodegenMetrics.GENERATE_CODE, PROVIDER, model, call -> {
+                Flux<ServerSentEvent<String>> events = httpClients.openAi().post()
+                        .uri("/chat/completions")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .body(ChatCompletionBody.of(payload, mapper, bodyWriter, call::requestBytes))
+                        .retrieve()
+                        .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<String>>() {});
+                return ChatCompletionChunks.deltas(events, model, mapper)
+                        .timeout(Duration.ofSeconds(props.getOpenai().getTimeoutSeconds()));
+            });
+        });
+    }
+
+    private String resolveModel(String modelOverride) {
+        return (modelOverride != null && !modelOverride.isBlank()) ? modelOverride : props.getOpenai().getModel();
+    }
+
+    private String apiKey() {
         String apiKey = System.getenv(props.getOpenai().getApiKeyEnv());
         if (apiKey == null || apiKey.isBlank()) {
             throw new IllegalStateException("OPENAI API key env var (" + props.getOpenai().getApiKeyEnv() + ") is not set");
         }
+        return apiKey;
+    }
 
-        WebClient client = webClientBuilder
-                .baseUrl(apiBase)
-                .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
-                .build();
-
+    private static Map<String, Object> buildPayload(String model,
+                                                    String systemPrompt,
+                                                    String userPrompt,
+                                                    ImageInput image,
+                                                    Double temperature,
+                                                    Integer maxOutputTokens,
+                                                    boolean stream) {
         // Build messages
         Object system = Map.of(
                 "role", "system",
@@ -65,7 +143,7 @@ public class OpenAIClient implements LLMClient {
                     "role", "user",
                     "content", List.of(
                             Map.of("type", "text", "text", userPrompt),
-                            Map.of("type", "image_url", "image_url", Map.of("url", image.url()))
+                            Map.of("type", "image_url", "image_url", Map.of("url", image))
                     )
             );
         } else {
@@ -75,40 +153,12 @@ public class OpenAIClient implements LLMClient {
             );
         }
 
-        Map<String, Object> payload = Map.of(
-                "model", model,
-                "messages", List.of(system, userContent),
-                "temperature", temperature != null ? temperature : 0.2,
-                "max_tokens", maxOutputTokens != null ? maxOutputTokens : 4096
-        );
-
-        JsonNode response = client.post()
-                .uri("/chat/completions")
-                .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(payload)
-                .retrieve()
-                .bodyToMono(JsonNode.class)
-                .timeout(Duration.ofSeconds(props.getOpenai().getTimeoutSeconds()))
-                .block();
-
-        if (response == null) throw new IllegalStateException("OpenAI returned null response");
-
-        JsonNode choices = response.get("choices");
-        if (choices == null || !choices.isArray() || choices.isEmpty()) {
-            throw new IllegalStateException("OpenAI returned no choices");
-        }
-
-        JsonNode first = choices.get(0);
-        String content = null;
-        JsonNode msg = first.get("message");
-        if (msg != null) {
-            JsonNode c = msg.get("content");
-            if (c != null && !c.isNull()) content = c.asText();
-        }
-        String modelUsed = response.hasNonNull("model") ? response.get("model").asText() : model;
-
-        if (content == null) content = "";
-
-        return new ProviderResult(modelUsed, content);
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("model", model);
+        payload.put("messages", List.of(system, userContent));
+        payload.put("temperature", temperature != null ? temperature : 0.2);
+        payload.put("max_tokens", maxOutputTokens != null ? maxOutputTokens : 4096);
+        if (stream) payload.put("stream", true);
+        return payload;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package com.gjjfintech.aiprompts.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Content address of one provider call: SHA-256 over everything that determines the
+ * provider's answer. Each field is length-prefixed so ("ab","c") and ("a","bc") differ.
+ */
+public final class ProviderCallKey {
+
+    private ProviderCallKey() { }
+
+    public static String of(String provider,
+                            String model,
+                            String systemPrompt,
+                            String userPrompt,
+                            ImageInput image,
+                            Double temperature,
+                            Integer maxOutputTokens) {
+        MessageDigest md = sha256();
+        update(md, provider);
+        update(md, model);
+        update(md, systemPrompt);
+        update(md, userPrompt);
+        update(md, image == null ? null : image.digest() != null ? image.digest() : sha256Hex(image.url()));
+        update(md, temperature != null ? temperature.toString() : null);
+        update(md, maxOutputTokens != null ? maxOutputTokens.toString() : null);
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    public static String sha256Hex(String value) {
+        return HexFormat.of().formatHex(sha256().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void update(MessageDigest md, String value) {
+        if (value == null) {
+            md.update((byte) 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        md.update((byte) 1);
+        md.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+        md.update((byte) ':');
+        md.update(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
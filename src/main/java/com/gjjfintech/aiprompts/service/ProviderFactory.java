@@ -1,29 +1,82 @@
 package com.gjjfintech.aiprompts.service;
 
 import com.gjjfintech.aiprompts.config.CodegenProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
 @Component
 public class ProviderFactory {
 
-    private final OpenAIClient openAIClient;
-    private final AzureOpenAIClient azureOpenAIClient;
+    private static final Logger log = LoggerFactory.getLogger(ProviderFactory.class);
+
+    private final LLMClient openAIClient;
+    private final LLMClient azureOpenAIClient;
+    private final LLMClient cachedOpenAI;
+    private final LLMClient cachedAzure;
     private final CodegenProperties props;
 
     public ProviderFactory(OpenAIClient openAIClient,
                            AzureOpenAIClient azureOpenAIClient,
+                           ResponseCache responseCache,
+                           ProviderRateLimiter rateLimiter,
+                           TokenCounter tokenCounter,
+                           CodegenMetrics metrics,
                            CodegenProperties props) {
-        this.openAIClient = openAIClient;
-        this.azureOpenAIClient = azureOpenAIClient;
+        Supplier<String> openAIModel = () -> props.getOpenai().getModel();
+        Supplier<String> azureDeployment = () -> props.getAzure().getDeployment();
+
+        IntSupplier imageTokens = () -> props.getContext().getImageTokens();
+
+        // provider -> rate limiter -> single-flight (coalesces identical in-flight calls) -> hedging -> response cache
+        Map<String, LLMClient> singleFlight = Map.of(
+                "openai", new SingleFlightLLMClient("openai",
+                        new RateLimitedLLMClient("openai", openAIClient, openAIModel, rateLimiter, tokenCounter, imageTokens, false), openAIModel),
+                // Azure takes its slots per backend once it has picked one (AzureBackends)
+                "azure", new SingleFlightLLMClient("azure",
+                        new RateLimitedLLMClient("azure", azureOpenAIClient, azureDeployment, rateLimiter, tokenCounter, imageTokens, true), azureDeployment));
+        this.openAIClient = hedged("openai", singleFlight, props, metrics);
+        this.azureOpenAIClient = hedged("azure", singleFlight, props, metrics);
+        this.cachedOpenAI = new CachingLLMClient("openai", this.openAIClient, openAIModel, responseCache);
+        this.cachedAzure = new CachingLLMClient("azure", this.azureOpenAIClient, azureDeployment, responseCache);
         this.props = props;
     }
 
+    /** {@code provider}'s client, hedged on its secondary when codegen.hedging has a policy for it. */
+    private static LLMClient hedged(String provider, Map<String, LLMClient> clients, CodegenProperties props, CodegenMetrics metrics) {
+        LLMClient client = clients.get(provider);
+        CodegenProperties.Hedging.Policy policy = props.getHedging().getPolicies().get(provider);
+        if (!props.getHedging().isEnabled() || policy == null) return client;
+
+        LLMClient secondary = policy.getSecondary() != null ? clients.get(policy.getSecondary().toLowerCase()) : null;
+        if (secondary == null) {
+            log.warn("Hedging policy for {} names unknown secondary '{}', not hedging", provider, policy.getSecondary());
+            return client;
+        }
+        if (secondary == client && (policy.getSecondaryModel() == null || policy.getSecondaryModel().isBlank())) {
+            log.warn("Hedging policy for {} needs a secondaryModel to hedge on the same provider, not hedging", provider);
+            return client;
+        }
+        return new HedgingLLMClient(provider, client, policy.getSecondary().toLowerCase(), secondary, policy, metrics);
+    }
+
     public LLMClient getClient(String provider) {
+        return getClient(provider, true);
+    }
+
+    /**
+     * @param useCache false bypasses the response cache (no lookup, no store)
+     */
+    public LLMClient getClient(String provider, boolean useCache) {
         String p = (provider != null) ? provider.toLowerCase() : props.getProviderDefault();
         return switch (p) {
-            case "openai" -> openAIClient;
-            case "azure" -> azureOpenAIClient;
+            case "openai" -> useCache ? cachedOpenAI : openAIClient;
+            case "azure" -> useCache ? cachedAzure : azureOpenAIClient;
             default -> null;
         };
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,482 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import com.gjjfintech.aiprompts.exception.RateLimitedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Client-side limits in front of the providers, one {@link Limiter} per provider and
+ * model/deployment, and per backend for providers that spread calls over several
+ * (codegen.rateLimits):
+ * <ul>
+ *   <li>request and token buckets refilled at the configured RPM/TPM; a call reserves its
+ *       local token estimate and is settled against the reported usage when it completes;</li>
+ *   <li>an adaptive concurrency limit (AIMD): +1 per success while at least half the limit is
+ *       in use, x0.75 on 429, x0.9 on timeouts or calls slower than latencyTolerance x the
+ *       usual latency;</li>
+ *   <li>a FIFO queue, so callers wait up to queueTimeoutMillis for a slot instead of failing;</li>
+ *   <li>429 retries after Retry-After (or exponential backoff) plus jitter. A 429 also pauses
+ *       the whole limiter for that long, so queued calls do not run into the same wall.</li>
+ * </ul>
+ * Waiting is non-blocking: queued calls are resumed from whichever thread frees a slot, or
+ * from a timer when only the buckets are short.
+ *
+ * A provider with backends (Azure) only knows where a call goes once it has picked one, so its
+ * callers use {@link #retrying} around the whole call and the backend picker takes the slot
+ * with {@link #onBackend}: each backend then has its own buckets and limit, and a 429 on one
+ * pauses and shrinks only that one.
+ */
+@Component
+public class ProviderRateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(ProviderRateLimiter.class);
+    private static final String ESTIMATE_KEY = ProviderRateLimiter.class.getName() + ".estimate";
+    private static final String NO_BACKEND = "default";
+
+    private final CodegenProperties props;
+    private final CodegenMetrics metrics;
+    private final Map<String, Limiter> limiters = new ConcurrentHashMap<>();
+
+    public ProviderRateLimiter(CodegenProperties props, CodegenMetrics metrics) {
+        this.props = props;
+        this.metrics = metrics;
+    }
+
+    public boolean isEnabled() {
+        return props.getRateLimits().isEnabled();
+    }
+
+    /** True when {@code provider}/{@code model} has a token budget, i.e. estimates are worth computing. */
+    public boolean countsTokens(String provider, String model) {
+        return isEnabled() && budget(provider, model).getTokensPerMinute() > 0;
+    }
+
+    /**
+     * Runs {@code call} once a slot is free, retrying on 429.
+     *
+     * @param estimatedTokens prompt estimate plus expected output, reserved from the token bucket
+     * @param usedTokens      tokens the provider reports for a result, or -1 if unknown
+     */
+    public <T> Mono<T> call(String provider,
+                            String model,
+                            int estimatedTokens,
+                            Supplier<Mono<T>> call,
+                            ToIntFunction<T> usedTokens) {
+        if (!isEnabled()) return Mono.defer(call);
+        return limited(limiter(provider, model, NO_BACKEND), estimatedTokens, call, usedTokens)
+                .retryWhen(retry(provider, model));
+    }
+
+    /** Streaming variant of {@link #call}: the slot is held until the stream ends. */
+    public <T> Flux<T> stream(String provider, String model, int estimatedTokens, Supplier<Flux<T>> call) {
+        if (!isEnabled()) return Flux.defer(call);
+        // a 429 arrives before the first delta, so retrying never replays content
+        return limitedStream(limiter(provider, model, NO_BACKEND), estimatedTokens, call)
+                .retryWhen(retry(provider, model));
+    }
+
+    /**
+     * Retries {@code call} on 429 without taking a slot: the call takes one per backend with
+     * {@link #onBackend}, which finds {@code estimatedTokens} in the subscriber context.
+     */
+    public <T> Mono<T> retrying(String provider, String model, int estimatedTokens, Supplier<Mono<T>> call) {
+        if (!isEnabled()) return Mono.defer(call);
+        return Mono.defer(call)
+                .retryWhen(retry(provider, model))
+                .contextWrite(ctx -> ctx.put(ESTIMATE_KEY, estimatedTokens));
+    }
+
+    /** Streaming variant of {@link #retrying}. */
+    public <T> Flux<T> retryingStream(String provider, String model, int estimatedTokens, Supplier<Flux<T>> call) {
+        if (!isEnabled()) return Flux.defer(call);
+        return Flux.defer(call)
+                .retryWhen(retry(provider, model))
+                .contextWrite(ctx -> ctx.put(ESTIMATE_KEY, estimatedTokens));
+    }
+
+    /** Runs one attempt of {@code call} on {@code backend} once that backend has a slot; does not retry. */
+    <T> Mono<T> onBackend(String provider, String backend, String model, Supplier<Mono<T>> call, ToIntFunction<T> usedTokens) {
+        if (!isEnabled()) return Mono.defer(call);
+        return Mono.deferContextual(ctx ->
+                limited(limiter(provider, model, backend), ctx.getOrDefault(ESTIMATE_KEY, 0), call, usedTokens));
+    }
+
+    /** Streaming variant of {@link #onBackend}. */
+    <T> Flux<T> streamOnBackend(String provider, String backend, String model, Supplier<Flux<T>> call) {
+        if (!isEnabled()) return Flux.defer(call);
+        return Flux.deferContextual(ctx ->
+                limitedStream(limiter(provider, model, backend), ctx.getOrDefault(ESTIMATE_KEY, 0), call));
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    private <T> Mono<T> limited(Limiter limiter, int estimatedTokens, Supplier<Mono<T>> call, ToIntFunction<T> usedTokens) {
+        return limiter.acquire(estimatedTokens)
+                .flatMap(permit -> Mono.defer(call)
+                        .doOnSuccess(result -> permit.success(result != null ? usedTokens.applyAsInt(result) : -1))
+                        .doOnError(permit::failure)
+                        .doFinally(signal -> permit.release()));
+    }
+
+    private <T> Flux<T> limitedStream(Limiter limiter, int estimatedTokens, Supplier<Flux<T>> call) {
+        return limiter.acquire(estimatedTokens)
+                .flatMapMany(permit -> Flux.defer(call)
+                        .doOnComplete(() -> permit.success(-1))
+                        .doOnError(permit::failure)
+                        .doFinally(signal -> permit.release()));
+    }
+
+    /**
+     * One limiter per configured provider:model and backend; models nobody configured share the
+     * provider's "other" limiter. Every backend of a deployment gets the deployment's budget.
+     */
+    private Limiter limiter(String provider, String requestedModel, String backend) {
+        String model = props.knownModel(provider, requestedModel);
+        return limiters.computeIfAbsent(provider + ":" + model + "@" + backend, k -> {
+            Limiter l = new Limiter(provider, model, budget(provider, model));
+            metrics.gauge("codegen.ratelimit.concurrency", l, Limiter::concurrencyLimit, "provider", provider, "model", model, "backend", backend);
+            metrics.gauge("codegen.ratelimit.inflight", l, Limiter::inFlight, "provider", provider, "model", model, "backend", backend);
+            metrics.gauge("codegen.ratelimit.queued", l, Limiter::queued, "provider", provider, "model", model, "backend", backend);
+            return l;
+        });
+    }
+
+    private CodegenProperties.RateLimits.Budget budget(String provider, String model) {
+        Map<String, CodegenProperties.RateLimits.Budget> budgets = props.getRateLimits().getBudgets();
+        CodegenProperties.RateLimits.Budget b = budgets.get(provider + ":" + model);
+        if (b == null) b = budgets.get(provider);
+        return b != null ? b : props.getRateLimits().getDefaults();
+    }
+
+    private Retry retry(String provider, String requestedModel) {
+        String model = props.knownModel(provider, requestedModel);
+        CodegenProperties.RateLimits cfg = props.getRateLimits();
+        return Retry.from(signals -> signals.concatMap(signal -> {
+            Throwable e = signal.failure();
+            if (!isRateLimit(e)) return Mono.error(e);
+            Duration retryAfter = retryAfter((WebClientResponseException) e);
+            long attempt = signal.totalRetries();
+            if (attempt >= cfg.getMaxRetries()
+                    || (retryAfter != null && retryAfter.toMillis() > cfg.getMaxBackoffMillis())) {
+                metrics.rateLimit(provider, model, "rejected");
+                return Mono.error(new RateLimitedException(provider + " rate limit exceeded for " + model
+                        + " after " + attempt + " retries", retryAfter, e));
+            }
+            Duration delay = backoff(retryAfter, attempt, cfg);
+            metrics.rateLimit(provider, model, "retried");
+            log.debug("{} {} returned 429, retry {} in {} ms", provider, model, attempt + 1, delay.toMillis());
+            return Mono.delay(delay);
+        }));
+    }
+
+    /**
+     * Retry-After (or the provider's retry-after-ms) plus up to one base backoff of jitter;
+     * without a hint, "equal jitter" exponential backoff: half of min(max, base x 2^attempt)
+     * plus a random share of the other half.
+     */
+    static Duration backoff(Duration retryAfter, long attempt, CodegenProperties.RateLimits cfg) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (retryAfter != null) {
+            return retryAfter.plusMillis(random.nextLong(cfg.getBackoffMillis() + 1));
+        }
+        long ceiling = Math.min(cfg.getMaxBackoffMillis(), cfg.getBackoffMillis() << Math.min(attempt, 20));
+        return Duration.ofMillis(ceiling / 2 + random.nextLong(ceiling / 2 + 1));
+    }
+
+    static boolean isRateLimit(Throwable e) {
+        return e instanceof WebClientResponseException w && w.getStatusCode().value() == 429;
+    }
+
+    /** retry-after-ms (OpenAI/Azure), then Retry-After in seconds or as an HTTP date; null if absent. */
+    static Duration retryAfter(WebClientResponseException e) {
+        if (e.getHeaders() == null) return null;
+        String ms = e.getHeaders().getFirst("retry-after-ms");
+        String value = e.getHeaders().getFirst("Retry-After");
+        try {
+            if (ms != null) return Duration.ofMillis((long) Double.parseDouble(ms.trim()));
+            if (value == null) return null;
+            value = value.trim();
+            if (value.chars().allMatch(Character::isDigit)) return Duration.ofSeconds(Long.parseLong(value));
+            Duration until = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME));
+            return until.isNegative() ? Duration.ZERO : until;
+        } catch (RuntimeException ignored) {
+            return null;
+        }
+    }
+
+    /** State for one provider + model. All fields are guarded by {@code this}. */
+    private final class Limiter {
+        final String provider;
+        final String model;
+        final CodegenProperties.RateLimits.Budget budget;
+
+        final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+        double limit;
+        int inFlight;
+        double requests;        // request bucket level
+        double tokens;          // token bucket level; negative while paying off an underestimate
+        long refilledAt = System.nanoTime();
+        long pausedUntil;
+        double usualLatencyNanos;
+        boolean wakeScheduled;
+
+        Limiter(String provider, String model, CodegenProperties.RateLimits.Budget budget) {
+            this.provider = provider;
+            this.model = model;
+            this.budget = budget;
+            this.limit = clamp(budget.getInitialConcurrency());
+            this.requests = requestCapacity();
+            this.tokens = tokenCapacity();
+        }
+
+        synchronized long concurrencyLimit() {
+            return (long) limit;
+        }
+
+        synchronized long inFlight() {
+            return inFlight;
+        }
+
+        synchronized long queued() {
+            return queue.size();
+        }
+
+        Mono<Permit> acquire(int estimatedTokens) {
+            CodegenProperties.RateLimits cfg = props.getRateLimits();
+            Mono<Permit> wait = Mono.defer(() -> {
+                Waiter w = new Waiter(Math.max(0, estimatedTokens));
+                // not sink.onCancel: that only runs when the cancel beats the grant, and a permit
+                // granted to a subscriber that is already cancelling would be dropped downstream
+                return Mono.<Permit>create(sink -> enqueue(w, sink)).doOnCancel(() -> cancel(w));
+            });
+            return wait
+                    .timeout(Duration.ofMillis(cfg.getQueueTimeoutMillis()))
+                    .onErrorMap(TimeoutException.class, e -> {
+                        metrics.rateLimit(provider, model, "rejected");
+                        return new RateLimitedException("No " + provider + " capacity for " + model + " within "
+                                + cfg.getQueueTimeoutMillis() + " ms", retryHint());
+                    });
+        }
+
+        private void enqueue(Waiter w, MonoSink<Permit> sink) {
+            CodegenProperties.RateLimits cfg = props.getRateLimits();
+            w.sink = sink;
+            boolean full;
+            synchronized (this) {
+                full = queue.size() >= cfg.getMaxQueued();
+                if (!full) queue.add(w);
+            }
+            if (full) {
+                metrics.rateLimit(provider, model, "rejected");
+                sink.error(new RateLimitedException(provider + " queue for " + model + " is full ("
+                        + cfg.getMaxQueued() + " waiting)", retryHint()));
+                return;
+            }
+            drain();
+        }
+
+        /** Grants slots to waiters at the head of the queue while the limit and both buckets allow it. */
+        void drain() {
+            List<Waiter> granted = new ArrayList<>();
+            long wakeIn = 0;
+            synchronized (this) {
+                long now = System.nanoTime();
+                refill(now);
+                while (!queue.isEmpty()) {
+                    if (now < pausedUntil) {
+                        wakeIn = pausedUntil - now;
+                        break;
+                    }
+                    if (inFlight >= (int) limit) break; // a release drains again
+                    Waiter w = queue.peek();
+                    if (budget.getRequestsPerMinute() > 0 && requests < 1) {
+                        wakeIn = nanosUntil(1 - requests, budget.getRequestsPerMinute());
+                        break;
+                    }
+                    // a call larger than the whole bucket waits for a full bucket, then goes into debt
+                    double need = Math.min(w.tokens, tokenCapacity());
+                    if (budget.getTokensPerMinute() > 0 && tokens < need) {
+                        wakeIn = nanosUntil(need - tokens, budget.getTokensPerMinute());
+                        break;
+                    }
+                    queue.poll();
+                    // the permit is published before GRANTED, so a concurrent cancel that sees GRANTED can release it
+                    w.permit = new Permit(this, w.tokens);
+                    if (!w.state.compareAndSet(Waiter.WAITING, Waiter.GRANTED)) continue;
+                    requests -= 1;
+                    tokens -= w.tokens;
+                    inFlight++;
+                    granted.add(w);
+                }
+                if (wakeIn > 0 && !wakeScheduled) {
+                    wakeScheduled = true;
+                } else {
+                    wakeIn = 0;
+                }
+            }
+            if (wakeIn > 0) {
+                Schedulers.parallel().schedule(() -> {
+                    synchronized (this) {
+                        wakeScheduled = false;
+                    }
+                    drain();
+                }, wakeIn, TimeUnit.NANOSECONDS);
+            }
+            for (Waiter w : granted) w.sink.success(w.permit);
+        }
+
+        /**
+         * Runs on every cancel of an acquire, before or after the grant: a waiter still queued
+         * leaves the queue, a granted permit is given back (a no-op if its call already released it).
+         */
+        void cancel(Waiter w) {
+            if (w.state.compareAndSet(Waiter.WAITING, Waiter.CANCELLED)) {
+                synchronized (this) {
+                    queue.remove(w);
+                }
+            } else {
+                w.permit.release();
+            }
+        }
+
+        /** Called once per granted permit. {@code outcome} is null for success and for cancellation. */
+        void finish(int reserved, int used, String outcome, long latencyNanos) {
+            synchronized (this) {
+                inFlight--;
+                if (used >= 0 && budget.getTokensPerMinute() > 0) {
+                    tokens = Math.min(tokenCapacity(), tokens + reserved - used);
+                }
+                if ("success".equals(outcome)) {
+                    if (usualLatencyNanos > 0 && latencyNanos > budget.getLatencyTolerance() * usualLatencyNanos) {
+                        limit = clamp(limit * 0.9);
+                    } else if (inFlight + 1 >= limit / 2) {
+                        // only grow a limit that is actually being used
+                        limit = clamp(limit + 1);
+                    }
+                    usualLatencyNanos = usualLatencyNanos == 0 ? latencyNanos : usualLatencyNanos * 0.95 + latencyNanos * 0.05;
+                } else if ("rate_limited".equals(outcome)) {
+                    limit = clamp(limit * 0.75);
+                } else if ("timeout".equals(outcome)) {
+                    limit = clamp(limit * 0.9);
+                }
+            }
+            drain();
+        }
+
+        synchronized void pause(Duration d) {
+            pausedUntil = Math.max(pausedUntil, System.nanoTime() + d.toNanos());
+        }
+
+        /** When a new call could start: after a 429 pause or once the buckets refill; 1 s when only concurrency is short. */
+        synchronized Duration retryHint() {
+            long now = System.nanoTime();
+            refill(now);
+            long wait = Math.max(0, pausedUntil - now);
+            if (budget.getRequestsPerMinute() > 0 && requests < 1) {
+                wait = Math.max(wait, nanosUntil(1 - requests, budget.getRequestsPerMinute()));
+            }
+            if (budget.getTokensPerMinute() > 0 && tokens < 0) {
+                wait = Math.max(wait, nanosUntil(-tokens, budget.getTokensPerMinute()));
+            }
+            return wait > 0 ? Duration.ofNanos(wait) : Duration.ofSeconds(1);
+        }
+
+        private void refill(long now) {
+            double minutes = (now - refilledAt) / 60e9;
+            refilledAt = now;
+            if (budget.getRequestsPerMinute() > 0) {
+                requests = Math.min(requestCapacity(), requests + minutes * budget.getRequestsPerMinute());
+            }
+            if (budget.getTokensPerMinute() > 0) {
+                tokens = Math.min(tokenCapacity(), tokens + minutes * budget.getTokensPerMinute());
+            }
+        }
+
+        private double requestCapacity() {
+            return Math.max(1, budget.getRequestsPerMinute() * budget.getBurstSeconds() / 60.0);
+        }
+
+        private double tokenCapacity() {
+            return Math.max(1, budget.getTokensPerMinute() * budget.getBurstSeconds() / 60.0);
+        }
+
+        private double clamp(double value) {
+            return Math.max(budget.getMinConcurrency(), Math.min(budget.getMaxConcurrency(), value));
+        }
+
+        private static long nanosUntil(double missing, int perMinute) {
+            return Math.max(1_000_000L, (long) Math.ceil(missing / perMinute * 60e9));
+        }
+    }
+
+    private static final class Waiter {
+        static final int WAITING = 0, GRANTED = 1, CANCELLED = 2;
+
+        final int tokens;
+        MonoSink<Permit> sink;  // set before the waiter is queued
+        final AtomicInteger state = new AtomicInteger(WAITING);
+        volatile Permit permit; // set before the state becomes GRANTED
+
+        Waiter(int tokens) {
+            this.tokens = tokens;
+        }
+    }
+
+    /** One granted slot; released exactly once. */
+    private static final class Permit {
+        final Limiter limiter;
+        final int reserved;
+        final long start = System.nanoTime();
+        final AtomicBoolean released = new AtomicBoolean();
+        volatile int used = -1;
+        volatile String outcome;
+
+        Permit(Limiter limiter, int reserved) {
+            this.limiter = limiter;
+            this.reserved = reserved;
+        }
+
+        void success(int usedTokens) {
+            used = usedTokens;
+            outcome = "success";
+        }
+
+        void failure(Throwable e) {
+            outcome = CodegenMetrics.providerOutcome(e);
+            if (isRateLimit(e)) {
+                Duration retryAfter = retryAfter((WebClientResponseException) e);
+                limiter.pause(retryAfter != null ? retryAfter : Duration.ofMillis(500));
+            }
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                limiter.finish(reserved, used, outcome, System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -1,3 +1,14 @@
 package com.gjjfintech.aiprompts.service;
 
-public record ProviderResult(String modelUsed, String content) { }
+/**
+ * @param finishReason e.g. "stop" or "length"; null for stream deltas and cached results
+ * @param usage        token counts reported by the provider, if any
+ */
+public record ProviderResult(String modelUsed, String content, String finishReason, Usage usage) {
+
+    public ProviderResult(String modelUsed, String content) {
+        this(modelUsed, content, null, null);
+    }
+
+    public record Usage(int promptTokens, int completionTokens, int totalTokens) { }
+}
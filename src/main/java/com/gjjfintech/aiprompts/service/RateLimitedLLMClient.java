@@ -0,0 +1,94 @@
+package com.gjjfintech.aiprompts.service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * {@link LLMClient} decorator that sends every call through the {@link ProviderRateLimiter}.
+ * The token estimate is the prompt as counted locally plus maxOutputTokens, which is also what
+ * the providers charge against the TPM limit up front; it is only computed when the model has
+ * a token budget. With {@code perBackend} the delegate takes its slots per backend itself and
+ * this only retries 429s ({@link ProviderRateLimiter#retrying}).
+ */
+final class RateLimitedLLMClient implements LLMClient {
+
+    private final String provider;
+    private final LLMClient delegate;
+    private final Supplier<String> defaultModel;
+    private final ProviderRateLimiter limiter;
+    private final TokenCounter tokens;
+    private final IntSupplier imageTokens;
+    private final boolean perBackend;
+
+    RateLimitedLLMClient(String provider,
+                         LLMClient delegate,
+                         Supplier<String> defaultModel,
+                         ProviderRateLimiter limiter,
+                         TokenCounter tokens,
+                         IntSupplier imageTokens,
+                         boolean perBackend) {
+        this.provider = provider;
+        this.delegate = delegate;
+        this.defaultModel = defaultModel;
+        this.limiter = limiter;
+        this.tokens = tokens;
+        this.imageTokens = imageTokens;
+        this.perBackend = perBackend;
+    }
+
+    @Override
+    public Mono<ProviderResult> generate(String modelOverride,
+                                         String systemPrompt,
+                                         String userPrompt,
+                                         ImageInput image,
+                                         Double temperature,
+                                         Integer maxOutputTokens) {
+        return Mono.defer(() -> {
+            String model = model(modelOverride);
+            int estimate = estimate(model, systemPrompt, userPrompt, image, maxOutputTokens);
+            Supplier<Mono<ProviderResult>> call =
+                    () -> delegate.generate(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens);
+            return perBackend
+                    ? limiter.retrying(provider, model, estimate, call)
+                    : limiter.call(provider, model, estimate, call, RateLimitedLLMClient::usedTokens);
+        });
+    }
+
+    @Override
+    public Flux<ProviderResult> stream(String modelOverride,
+                                       String systemPrompt,
+                                       String userPrompt,
+                                       ImageInput image,
+                                       Double temperature,
+                                       Integer maxOutputTokens) {
+        return Flux.defer(() -> {
+            String model = model(modelOverride);
+            int estimate = estimate(model, systemPrompt, userPrompt, image, maxOutputTokens);
+            Supplier<Flux<ProviderResult>> call =
+                    () -> delegate.stream(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens);
+            return perBackend
+                    ? limiter.retryingStream(provider, model, estimate, call)
+                    : limiter.stream(provider, model, estimate, call);
+        });
+    }
+
+    static int usedTokens(ProviderResult result) {
+        ProviderResult.Usage usage = result.usage();
+        return usage != null ? usage.promptTokens() + usage.completionTokens() : -1;
+    }
+
+    private String model(String modelOverride) {
+        return (modelOverride != null && !modelOverride.isBlank()) ? modelOverride : defaultModel.get();
+    }
+
+    private int estimate(String model, String systemPrompt, String userPrompt, ImageInput image, Integer maxOutputTokens) {
+        if (!limiter.countsTokens(provider, model)) return 0;
+        return tokens.countMessage(model, systemPrompt)
+                + tokens.countMessage(model, userPrompt)
+                + (image != null ? imageTokens.getAsInt() : 0)
+                + (maxOutputTokens != null ? maxOutputTokens : 4096);
+    }
+}
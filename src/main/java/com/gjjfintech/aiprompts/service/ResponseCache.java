@@ -0,0 +1,272 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Two-tier cache of provider responses keyed by {@link ProviderCallKey}: an in-memory LRU
+ * in front of one JSON file per entry under outputDir/.cache/, which survives restarts.
+ * Entries expire after codegen.cache.ttlHours; the disk tier is trimmed least recently
+ * used first once it exceeds codegen.cache.diskMaxMb.
+ */
+@Component
+public class ResponseCache implements InitializingBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+
+    record Entry(String modelUsed, String content, long createdAt) { }
+
+    public record Stats(long memoryHits,
+                        long diskHits,
+                        long misses,
+                        double hitRatio,
+                        int memoryEntries,
+                        int diskEntries,
+                        long diskBytes) { }
+
+    private final CodegenProperties props;
+    private final Scheduler ioScheduler;
+    private final ObjectMapper om = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final ReentrantLock memoryLock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> memory;
+
+    private final Map<String, Long> diskSizes = new ConcurrentHashMap<>();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ResponseCache(CodegenProperties props, @Qualifier("ioScheduler") Scheduler ioScheduler) {
+        this.props = props;
+        this.ioScheduler = ioScheduler;
+        int maxEntries = Math.max(0, props.getCache().getMemoryMaxEntries());
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Indexes the disk tier left by a previous run.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (!props.getCache().isEnabled()) return;
+        Path root = root();
+        if (!Files.isDirectory(root)) return;
+        try (Stream<Path> files = Files.walk(root, 2)) {
+            files.filter(f -> f.getFileName().toString().endsWith(".json")).forEach(f -> {
+                try {
+                    long size = Files.size(f);
+                    diskSizes.put(keyOf(f), size);
+                    diskBytes.addAndGet(size);
+                } catch (IOException ignored) {}
+            });
+        } catch (IOException e) {
+            log.warn("Cannot index response cache {}: {}", root, e.getMessage());
+        }
+        log.info("Response cache: {} entries ({} bytes) on disk", diskSizes.size(), diskBytes.get());
+    }
+
+    /**
+     * Whether a call with this temperature may be served from / stored in the cache.
+     */
+    public boolean cacheable(Double temperature) {
+        if (!props.getCache().isEnabled()) return false;
+        return !props.getCache().isDeterministicOnly() || (temperature != null && temperature == 0.0);
+    }
+
+    /**
+     * Memory tier first (no thread hop), then the disk tier on the I/O scheduler.
+     * Completes empty on a miss.
+     */
+    public Mono<ProviderResult> lookup(String key) {
+        Entry hit = fromMemory(key);
+        if (hit != null) {
+            memoryHits.incrementAndGet();
+            return Mono.just(new ProviderResult(hit.modelUsed(), hit.content()));
+        }
+        return Mono.fromCallable(() -> fromDisk(key))
+                .subscribeOn(ioScheduler)
+                .map(e -> {
+                    diskHits.incrementAndGet();
+                    return new ProviderResult(e.modelUsed(), e.content());
+                })
+                .switchIfEmpty(Mono.fromRunnable(misses::incrementAndGet));
+    }
+
+    /**
+     * Stores a fresh response in memory and writes it to disk in the background.
+     */
+    public void put(String key, ProviderResult result) {
+        if (result == null || result.content() == null || result.content().isBlank()) return;
+        Entry entry = new Entry(result.modelUsed(), result.content(), System.currentTimeMillis());
+        toMemory(key, entry);
+        ioScheduler.schedule(() -> toDisk(key, entry));
+    }
+
+    public Stats stats() {
+        long mh = memoryHits.get(), dh = diskHits.get(), m = misses.get();
+        long total = mh + dh + m;
+        int memoryEntries;
+        memoryLock.lock();
+        try {
+            memoryEntries = memory.size();
+        } finally {
+            memoryLock.unlock();
+        }
+        return new Stats(mh, dh, m, total == 0 ? 0.0 : (double) (mh + dh) / total,
+                memoryEntries, diskSizes.size(), diskBytes.get());
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    private Entry fromMemory(String key) {
+        memoryLock.lock();
+        try {
+            Entry e = memory.get(key);
+            if (e != null && expired(e)) {
+                memory.remove(key);
+                return null;
+            }
+            return e;
+        } finally {
+            memoryLock.unlock();
+        }
+    }
+
+    private void toMemory(String key, Entry entry) {
+        memoryLock.lock();
+        try {
+            memory.put(key, entry);
+        } finally {
+            memoryLock.unlock();
+        }
+    }
+
+    /** Blocking. Returns null on a miss; a hit is promoted to the memory tier. */
+    private Entry fromDisk(String key) {
+        if (!diskSizes.containsKey(key)) return null;
+        Path file = file(key);
+        try {
+            Entry e = om.readValue(file.toFile(), Entry.class);
+            if (expired(e)) {
+                deleteFromDisk(key);
+                return null;
+            }
+            // mtime doubles as last-access time for LRU eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            toMemory(key, e);
+            return e;
+        } catch (IOException ex) {
+            log.warn("Dropping unreadable response cache entry {}: {}", file, ex.getMessage());
+            deleteFromDisk(key);
+            return null;
+        }
+    }
+
+    private void toDisk(String key, Entry entry) {
+        Path file = file(key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            byte[] bytes = om.writeValueAsBytes(entry);
+            Files.write(tmp, bytes);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Long previous = diskSizes.put(key, (long) bytes.length);
+            diskBytes.addAndGet(bytes.length - (previous != null ? previous : 0L));
+        } catch (IOException e) {
+            log.warn("Cannot write response cache entry {}: {}", file, e.getMessage());
+            return;
+        }
+        if (diskBytes.get() > maxDiskBytes()) evictDisk();
+    }
+
+    /**
+     * Deletes least recently used files until the disk tier is back under 90% of its budget.
+     */
+    private void evictDisk() {
+        if (!evicting.compareAndSet(false, true)) return;
+        try {
+            long target = maxDiskBytes() * 9 / 10;
+            // one stat per file, taken up front: hits keep touching mtimes while we sort
+            List<LastAccess> byAge = new ArrayList<>(diskSizes.size());
+            for (String key : diskSizes.keySet()) byAge.add(new LastAccess(key, lastAccess(key)));
+            byAge.sort(Comparator.comparingLong(LastAccess::millis));
+            for (LastAccess e : byAge) {
+                if (diskBytes.get() <= target) break;
+                deleteFromDisk(e.key());
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private record LastAccess(String key, long millis) { }
+
+    private void deleteFromDisk(String key) {
+        Long size = diskSizes.remove(key);
+        if (size != null) diskBytes.addAndGet(-size);
+        try {
+            Files.deleteIfExists(file(key));
+        } catch (IOException ignored) {}
+    }
+
+    private long lastAccess(String key) {
+        try {
+            return Files.getLastModifiedTime(file(key)).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private boolean expired(Entry e) {
+        return System.currentTimeMillis() - e.createdAt() > Duration.ofHours(props.getCache().getTtlHours()).toMillis();
+    }
+
+    private long maxDiskBytes() {
+        return props.getCache().getDiskMaxMb() * 1024L * 1024L;
+    }
+
+    private Path root() {
+        return Paths.get(props.getOutputDir()).resolve(".cache");
+    }
+
+    private Path file(String key) {
+        return root().resolve(key.substring(0, 2)).resolve(key + ".json");
+    }
+
+    private static String keyOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - ".json".length());
+    }
+}
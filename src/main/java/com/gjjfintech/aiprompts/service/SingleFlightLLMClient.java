@@ -0,0 +1,98 @@
+package com.gjjfintech.aiprompts.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * {@link LLMClient} decorator that coalesces identical in-flight calls: while a call with a
+ * given {@link ProviderCallKey} is running, further callers join it instead of hitting the
+ * provider again. The upstream call is reference counted, so it is only cancelled once every
+ * caller has cancelled. Results and streams are shared with replay, so a late joiner still
+ * receives what was emitted before it arrived.
+ */
+final class SingleFlightLLMClient implements LLMClient {
+
+    private static final Logger log = LoggerFactory.getLogger(SingleFlightLLMClient.class);
+
+    private final String provider;
+    private final LLMClient delegate;
+    private final Supplier<String> defaultModel;
+
+    private final Map<String, Mono<ProviderResult>> calls = new ConcurrentHashMap<>();
+    private final Map<String, Flux<ProviderResult>> streams = new ConcurrentHashMap<>();
+
+    SingleFlightLLMClient(String provider, LLMClient delegate, Supplier<String> defaultModel) {
+        this.provider = provider;
+        this.delegate = delegate;
+        this.defaultModel = defaultModel;
+    }
+
+    @Override
+    public Mono<ProviderResult> generate(String modelOverride,
+                                         String systemPrompt,
+                                         String userPrompt,
+                                         ImageInput image,
+                                         Double temperature,
+                                         Integer maxOutputTokens) {
+        return Mono.defer(() -> {
+            String key = key(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens);
+            Mono<ProviderResult> existing = calls.get(key);
+            if (existing != null) {
+                log.debug("Joining in-flight {} call {}", provider, key);
+                return existing;
+            }
+            return calls.computeIfAbsent(key, k -> {
+                AtomicReference<Mono<ProviderResult>> self = new AtomicReference<>();
+                Mono<ProviderResult> shared = delegate
+                        .generate(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens)
+                        .flux()
+                        .doFinally(signal -> calls.remove(k, self.get()))
+                        // replay: a caller that joins just after the result arrived still gets it
+                        .replay(1)
+                        .refCount(1)
+                        .singleOrEmpty();
+                self.set(shared);
+                return shared;
+            });
+        });
+    }
+
+    @Override
+    public Flux<ProviderResult> stream(String modelOverride,
+                                       String systemPrompt,
+                                       String userPrompt,
+                                       ImageInput image,
+                                       Double temperature,
+                                       Integer maxOutputTokens) {
+        return Flux.defer(() -> {
+            String key = key(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens);
+            return streams.computeIfAbsent(key, k -> {
+                AtomicReference<Flux<ProviderResult>> self = new AtomicReference<>();
+                Flux<ProviderResult> shared = delegate
+                        .stream(modelOverride, systemPrompt, userPrompt, image, temperature, maxOutputTokens)
+                        .doFinally(signal -> streams.remove(k, self.get()))
+                        .replay()
+                        .refCount(1);
+                self.set(shared);
+                return shared;
+            });
+        });
+    }
+
+    private String key(String modelOverride,
+                       String systemPrompt,
+                       String userPrompt,
+                       ImageInput image,
+                       Double temperature,
+                       Integer maxOutputTokens) {
+        String model = (modelOverride != null && !modelOverride.isBlank()) ? modelOverride : defaultModel.get();
+        return ProviderCallKey.of(provider, model, systemPrompt, userPrompt, image, temperature, maxOutputTokens);
+    }
+}
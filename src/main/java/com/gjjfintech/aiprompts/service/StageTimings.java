@@ -0,0 +1,86 @@
+package com.gjjfintech.aiprompts.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Wall-clock time spent in each stage of one request, measured with {@link System#nanoTime()}.
+ * A stage timed more than once accumulates. {@code total} runs from construction to
+ * {@link #toMillis()}, so it also covers time spent queued between stages.
+ *
+ * Stages of one request run one after another (possibly on different threads); access is
+ * synchronized anyway so a late signal can never corrupt the map.
+ */
+public final class StageTimings {
+
+    /** Slow-request entries go to their own logger so they can be routed or filtered. */
+    private static final Logger slowLog = LoggerFactory.getLogger("com.gjjfintech.aiprompts.slow-requests");
+
+    private final long start = System.nanoTime();
+    private final Map<String, Long> nanos = new LinkedHashMap<>();
+
+    public synchronized void record(String stage, long startNanos) {
+        nanos.merge(stage, System.nanoTime() - startNanos, Long::sum);
+    }
+
+    public <T> T time(String stage, Supplier<T> work) {
+        long t0 = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            record(stage, t0);
+        }
+    }
+
+    /** Times {@code call} from subscription until it emits, completes empty or fails. */
+    public <T> Mono<T> time(String stage, Mono<T> call) {
+        return Mono.defer(() -> {
+            long t0 = System.nanoTime();
+            // doOnSuccess runs before the value is handed downstream, so later stages see the entry
+            return call.doOnSuccess(v -> record(stage, t0)).doOnError(e -> record(stage, t0));
+        });
+    }
+
+    /** Stage durations in milliseconds (0.1 ms resolution), in the order first recorded, then "total". */
+    public synchronized Map<String, Double> toMillis() {
+        Map<String, Double> out = new LinkedHashMap<>();
+        nanos.forEach((stage, n) -> out.put(stage, millis(n)));
+        out.put("total", millis(System.nanoTime() - start));
+        return out;
+    }
+
+    /**
+     * Writes one key=value line to the slow-request log when {@code timings.total} is at
+     * least {@code thresholdMillis} (0 or less disables it).
+     */
+    public static void logIfSlow(Map<String, Double> timings, long thresholdMillis, String endpoint, String id, String status) {
+        if (timings == null || thresholdMillis <= 0) return;
+        Double total = timings.get("total");
+        if (total == null || total < thresholdMillis) return;
+        StringBuilder line = new StringBuilder("slow_request endpoint=").append(endpoint)
+                .append(" id=").append(id)
+                .append(" status=").append(status);
+        timings.forEach((stage, ms) -> line.append(' ').append(stage).append("_ms=").append(ms));
+        slowLog.warn(line.toString());
+    }
+
+    /** The {@code Server-Timing} header value, e.g. {@code provider;dur=812.4, parse;dur=0.3, total;dur=815.0}. */
+    public static String serverTiming(Map<String, Double> timings) {
+        if (timings == null || timings.isEmpty()) return null;
+        StringBuilder header = new StringBuilder();
+        timings.forEach((stage, ms) -> {
+            if (!header.isEmpty()) header.append(", ");
+            header.append(stage).append(";dur=").append(ms);
+        });
+        return header.toString();
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 100_000.0) / 10.0;
+    }
+}
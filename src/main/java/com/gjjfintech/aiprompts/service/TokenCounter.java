@@ -0,0 +1,74 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts prompt tokens offline with the provider's BPE encoding (cl100k_base / o200k_base).
+ * The encoding is resolved once per model: codegen.tokens.encodings first (Azure deployment
+ * names), then known o200k model families, then jtokkit's model table, then
+ * codegen.tokens.defaultEncoding. Only configured models are cached (see
+ * {@link CodegenProperties#knownModel}); any other name a request sends is resolved each time.
+ *
+ * Counting goes through {@link Encoding#countTokensOrdinary}, which does not materialize the
+ * token list, and treats special-token text such as "<|endoftext|>" as ordinary input.
+ */
+@Component
+public class TokenCounter {
+
+    /** Framing tokens Chat Completions adds around every message. */
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    /** Model families on o200k_base that jtokkit's model table predates (it maps "gpt-4.1" to gpt-4). */
+    private static final List<String> O200K_PREFIXES = List.of("gpt-4o", "gpt-4.1", "gpt-4.5", "gpt-5", "o1", "o3", "o4");
+
+    private final CodegenProperties props;
+    private final EncodingRegistry registry = Encodings.newLazyEncodingRegistry();
+    private final Map<String, Encoding> byModel = new ConcurrentHashMap<>();
+
+    public TokenCounter(CodegenProperties props) {
+        this.props = props;
+    }
+
+    public Encoding encodingFor(String model) {
+        String name = model != null ? model : "";
+        Encoding cached = byModel.get(name);
+        if (cached != null) return cached;
+        return isKnown(name) ? byModel.computeIfAbsent(name, this::resolve) : resolve(name);
+    }
+
+    public int count(String model, String text) {
+        if (text == null || text.isEmpty()) return 0;
+        return encodingFor(model).countTokensOrdinary(text);
+    }
+
+    public int countMessage(String model, String content) {
+        return MESSAGE_OVERHEAD + count(model, content);
+    }
+
+    private boolean isKnown(String model) {
+        return model.equals(props.knownModel("openai", model)) || model.equals(props.knownModel("azure", model));
+    }
+
+    private Encoding resolve(String model) {
+        String configured = props.getTokens().getEncodings().get(model);
+        if (configured != null) {
+            return registry.getEncoding(configured)
+                    .orElseThrow(() -> new IllegalStateException("Unknown encoding " + configured + " for " + model));
+        }
+        if (O200K_PREFIXES.stream().anyMatch(model::startsWith)) {
+            return registry.getEncoding(EncodingType.O200K_BASE);
+        }
+        return registry.getEncodingForModel(model)
+                .or(() -> registry.getEncoding(props.getTokens().getDefaultEncoding()))
+                .orElseThrow(() -> new IllegalStateException("Unknown encoding " + props.getTokens().getDefaultEncoding()));
+    }
+}
@@ -0,0 +1,67 @@
+package com.gjjfintech.aiprompts.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Reads an InputStream as Base64 text, a block at a time, optionally after a fixed prefix
+ * (e.g. "data:image/png;base64,"). Memory use is one block, whatever the stream size.
+ */
+public final class Base64Reader extends Reader {
+
+    private static final int BLOCK_BYTES = 48 * 1024; // multiple of 3: no padding until the end
+
+    private final InputStream in;
+    private final byte[] raw = new byte[BLOCK_BYTES];
+    private final byte[] encoded = new byte[BLOCK_BYTES / 3 * 4];
+    private String prefix;
+    private int prefixPos;
+    private int encodedLen;
+    private int encodedPos;
+    private boolean eof;
+
+    public Base64Reader(String prefix, InputStream in) {
+        this.prefix = prefix != null ? prefix : "";
+        this.in = in;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        int n = 0;
+        while (n < len) {
+            if (prefix != null) {
+                int take = Math.min(len - n, prefix.length() - prefixPos);
+                prefix.getChars(prefixPos, prefixPos + take, cbuf, off + n);
+                prefixPos += take;
+                n += take;
+                if (prefixPos == prefix.length()) prefix = null;
+                continue;
+            }
+            if (encodedPos == encodedLen && !fill()) break;
+            int take = Math.min(len - n, encodedLen - encodedPos);
+            for (int i = 0; i < take; i++) cbuf[off + n + i] = (char) encoded[encodedPos + i];
+            encodedPos += take;
+            n += take;
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) return false;
+        int read = in.readNBytes(raw, 0, raw.length);
+        if (read < raw.length) eof = true;
+        if (read == 0) return false;
+        encodedLen = Base64.getEncoder().encode(read == raw.length ? raw : Arrays.copyOf(raw, read), encoded);
+        encodedPos = 0;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
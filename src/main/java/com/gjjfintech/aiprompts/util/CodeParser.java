@@ -1,16 +1,12 @@
 package com.gjjfintech.aiprompts.util;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import com.gjjfintech.aiprompts.jfr.FenceScanEvent;
 
 /**
- * Utility to extract fenced code blocks from text responses.
+ * Utility to extract fenced code blocks from text responses (see {@link FenceScanner}).
  */
 public class CodeParser {
 
-    private static final Pattern FENCED_BLOCK =
-            Pattern.compile("(?s)```([a-zA-Z0-9+#._-]*)\\s*(.*?)```");
-
     public record CodeBlock(String language, String content) {}
 
     /**
@@ -18,15 +14,19 @@ public class CodeParser {
      * If no block found, returns null.
      */
     public static CodeBlock extractFirstCodeBlock(String text, String preferredLanguage) {
-        if (text == null) return null;
-        Matcher m = FENCED_BLOCK.matcher(text);
-        if (m.find()) {
-            String lang = m.group(1) != null && !m.group(1).isBlank()
-                    ? m.group(1).trim()
-                    : preferredLanguage;
-            String content = m.group(2);
-            return new CodeBlock(lang, content);
+        FenceScanEvent event = new FenceScanEvent();
+        event.begin();
+        FenceScanner.Fence fence = FenceScanner.first(text);
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = "CodeParser";
+            event.textLength = text != null ? text.length() : 0;
+            event.fences = fence != null ? 1 : 0;
+            event.language = fence != null ? fence.language() : null;
+            event.commit();
         }
-        return null;
+        if (fence == null) return null;
+        String lang = fence.language() != null ? fence.language() : preferredLanguage;
+        return new CodeBlock(lang, fence.content());
     }
 }
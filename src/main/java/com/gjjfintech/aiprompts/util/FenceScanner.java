@@ -0,0 +1,252 @@
+package com.gjjfintech.aiprompts.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds fenced code blocks in Markdown text in one linear pass, either over a whole text
+ * ({@link #scan}) or over text that arrives in arbitrary chunks ({@link #feed} / {@link #finish}).
+ *
+ * A fence opens with a line of three or more backticks or tildes (leading whitespace allowed),
+ * followed by an optional info string: the language, then optionally {@code filename=Name.ext}
+ * (quotes allowed). It closes with a line holding only the same character, at least as many
+ * times, or with such a run at the end of a content line ({@code "}```"}), which models often
+ * write; the content then ends before the run. Backtick info strings may not contain backticks, so inline {@code ```code```} is not a
+ * fence. A block still open at the end of the text is reported with {@code terminated=false}.
+ *
+ * Not thread-safe: one instance per response.
+ */
+public final class FenceScanner {
+
+    /**
+     * Offsets are char positions in the whole text: {@code start}/{@code end} span the fence
+     * lines, {@code contentStart}/{@code contentEnd} the content (without its last line break).
+     */
+    public record Fence(int index,
+                        String language,
+                        String filename,
+                        String content,
+                        int start,
+                        int contentStart,
+                        int contentEnd,
+                        int end,
+                        boolean terminated) { }
+
+    private static final String FILENAME_ATTR = "filename=";
+
+    private final CharSequence source;                     // whole text (scan); null when fed in chunks
+    private final StringBuilder line = new StringBuilder(); // chunked: the current partial line
+    private final StringBuilder body = new StringBuilder(); // chunked: content of the open fence
+
+    private int offset;      // absolute offset of the current line
+    private int count;
+
+    // the open fence; marker == 0 while outside one
+    private char marker;
+    private int run;
+    private String language;
+    private String filename;
+    private int start;
+    private int contentStart;
+    private int contentEnd;
+    private int bodyEnd;
+
+    public FenceScanner() {
+        this(null);
+    }
+
+    private FenceScanner(CharSequence source) {
+        this.source = source;
+    }
+
+    /** Every fence in {@code text}, in order; the last one may be unterminated. */
+    public static List<Fence> scan(CharSequence text) {
+        return scan(text, Integer.MAX_VALUE);
+    }
+
+    /** The first terminated fence in {@code text}, or null. Stops scanning as soon as it closes. */
+    public static Fence first(CharSequence text) {
+        List<Fence> fences = scan(text, 1);
+        return fences.isEmpty() || !fences.get(0).terminated() ? null : fences.get(0);
+    }
+
+    private static List<Fence> scan(CharSequence text, int limit) {
+        List<Fence> fences = new ArrayList<>();
+        if (text == null) return fences;
+        FenceScanner scanner = new FenceScanner(text);
+        int n = text.length();
+        int from = 0;
+        while (from < n && fences.size() < limit) {
+            int nl = indexOfNewline(text, from);
+            int to = nl < 0 ? n : nl;
+            scanner.onLine(text, from, to, nl < 0 ? n : nl + 1, fences);
+            from = to + 1;
+        }
+        if (fences.size() < limit) scanner.flushOpen(n, fences);
+        return fences;
+    }
+
+    /**
+     * Feeds the next chunk and returns the fences closed by it (usually none).
+     */
+    public List<Fence> feed(CharSequence chunk) {
+        List<Fence> closed = new ArrayList<>(0);
+        if (chunk == null) return closed;
+        int n = chunk.length();
+        int from = 0;
+        while (from < n) {
+            int nl = indexOfNewline(chunk, from);
+            if (nl < 0) {
+                line.append(chunk, from, n);
+                break;
+            }
+            line.append(chunk, from, nl);
+            onLine(line, 0, line.length(), offset + line.length() + 1, closed);
+            line.setLength(0);
+            from = nl + 1;
+        }
+        return closed;
+    }
+
+    /**
+     * Processes a pending last line (e.g. a closing fence without trailing newline) and returns
+     * the fences it closed, followed by the still open block, if any, with {@code terminated=false}.
+     */
+    public List<Fence> finish() {
+        List<Fence> closed = new ArrayList<>(0);
+        int end = offset + line.length();
+        if (!line.isEmpty()) {
+            onLine(line, 0, line.length(), end, closed);
+            line.setLength(0);
+        }
+        flushOpen(end, closed);
+        return closed;
+    }
+
+    /* ---------------------------- internals ---------------------------- */
+
+    /** Line {@code [from, to)} of {@code buf}, without its '\n'; the next line starts at {@code next}. */
+    private void onLine(CharSequence buf, int from, int to, int next, List<Fence> out) {
+        int lineStart = offset;
+        offset = next;
+        int end = to;
+        while (end > from && isBlank(buf.charAt(end - 1))) end--;   // also drops '\r'
+        int i = from;
+        while (i < end && isBlank(buf.charAt(i))) i++;
+
+        if (marker == 0) {
+            int r = runLength(buf, i, end);
+            if (r >= 3) open(buf, i, r, end, lineStart, next);
+            return;
+        }
+        if (i < end && buf.charAt(i) == marker) {
+            int r = runLength(buf, i, end);
+            if (r >= run && i + r == end) {
+                out.add(fence(lineStart, next, true));
+                marker = 0;
+                return;
+            }
+        }
+        int tail = end;
+        while (tail > i && buf.charAt(tail - 1) == marker) tail--;
+        if (tail > i && end - tail >= run) {
+            // closing run after content on the same line: the content is the line up to the run
+            contentEnd = lineStart + (tail - from);
+            if (source == null) {
+                body.append(buf, from, tail);
+                bodyEnd = body.length();
+            }
+            out.add(fence(lineStart, next, true));
+            marker = 0;
+            return;
+        }
+        // content line, kept verbatim apart from a trailing '\r'
+        int contentTo = (to > from && buf.charAt(to - 1) == '\r') ? to - 1 : to;
+        contentEnd = lineStart + (contentTo - from);
+        if (source == null) {
+            body.append(buf, from, to).append('\n');
+            bodyEnd = body.length() - 1 - (to - contentTo);
+        }
+    }
+
+    private void open(CharSequence buf, int i, int r, int end, int lineStart, int next) {
+        char c = buf.charAt(i);
+        int infoFrom = i + r;
+        while (infoFrom < end && isBlank(buf.charAt(infoFrom))) infoFrom++;
+        if (c == '`') {
+            for (int k = infoFrom; k < end; k++) {
+                if (buf.charAt(k) == '`') return;
+            }
+        }
+        int langEnd = infoFrom;
+        while (langEnd < end && !isBlank(buf.charAt(langEnd))) langEnd++;
+
+        marker = c;
+        run = r;
+        language = langEnd > infoFrom ? buf.subSequence(infoFrom, langEnd).toString() : null;
+        filename = langEnd < end ? filenameAttr(buf.subSequence(langEnd, end).toString()) : null;
+        if (language != null && language.startsWith(FILENAME_ATTR)) {
+            // "```filename=Foo.java" without a language
+            filename = filenameAttr(language);
+            language = null;
+        }
+        start = lineStart;
+        contentStart = next;
+        contentEnd = next;
+        body.setLength(0);
+        bodyEnd = 0;
+    }
+
+    private void flushOpen(int end, List<Fence> out) {
+        if (marker == 0) return;
+        out.add(fence(end, end, false));
+        marker = 0;
+    }
+
+    private Fence fence(int closeStart, int end, boolean terminated) {
+        String content;
+        if (source != null) {
+            content = contentEnd > contentStart ? source.subSequence(contentStart, contentEnd).toString() : "";
+        } else {
+            content = body.substring(0, Math.max(0, bodyEnd));
+        }
+        return new Fence(++count, language, filename, content, start, contentStart,
+                Math.max(contentStart, contentEnd), terminated ? end : closeStart, terminated);
+    }
+
+    private static String filenameAttr(String info) {
+        int at = info.indexOf(FILENAME_ATTR);
+        if (at < 0 || (at > 0 && !isBlank(info.charAt(at - 1)))) return null;
+        String value = info.substring(at + FILENAME_ATTR.length()).trim();
+        if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'')) {
+            int close = value.indexOf(value.charAt(0), 1);
+            value = close > 0 ? value.substring(1, close) : value.substring(1);
+        } else {
+            int ws = 0;
+            while (ws < value.length() && !isBlank(value.charAt(ws))) ws++;
+            value = value.substring(0, ws);
+        }
+        return value.isBlank() ? null : value;
+    }
+
+    private static int runLength(CharSequence buf, int i, int end) {
+        if (i >= end) return 0;
+        char c = buf.charAt(i);
+        if (c != '`' && c != '~') return 0;
+        int k = i;
+        while (k < end && buf.charAt(k) == c) k++;
+        return k - i;
+    }
+
+    private static int indexOfNewline(CharSequence s, int from) {
+        if (s instanceof String str) return str.indexOf('\n', from);
+        for (int i = from; i < s.length(); i++) {
+            if (s.charAt(i) == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\f';
+    }
+}
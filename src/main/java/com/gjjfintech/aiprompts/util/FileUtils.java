@@ -1,9 +1,13 @@
 package com.gjjfintech.aiprompts.util;
 
+import com.gjjfintech.aiprompts.jfr.FileWriteEvent;
+
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.util.UUID;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Optional;
 
 /**
  * Utility for safe file operations, Windows-friendly.
@@ -12,7 +16,7 @@ public class FileUtils {
 
     /**
      * Saves content under outputDir[/subdir]/filename.
-     * If filename already exists, appends a counter.
+     * If filename already exists, appends a counter. Recorded as a {@link FileWriteEvent}.
      */
     public static Path saveToOutput(String outputDir, String subdir, String filename, String content) throws IOException {
         Path base = Paths.get(outputDir);
@@ -24,7 +28,16 @@ public class FileUtils {
         Path file = base.resolve(filename);
         file = resolveConflict(file);
 
+        FileWriteEvent event = new FileWriteEvent();
+        event.begin();
         Files.writeString(file, content, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = "output";
+            event.path = file.toString();
+            event.bytes = content.getBytes(StandardCharsets.UTF_8).length; // no I/O after the write succeeded
+            event.commit();
+        }
         return file;
     }
 
@@ -50,49 +63,9 @@ public class FileUtils {
         return "application/octet-stream";
     }
 
-    private static Path resolveConflict(Path file) {
-        if (!Files.exists(file)) {
-            return file;
-        }
-
-        String filename = file.getFileName().toString();
-        String baseName;
-        String ext;
-
-        int dot = filename.lastIndexOf('.');
-        if (dot > 0) {
-            baseName = filename.substring(0, dot);
-            ext = filename.substring(dot); // includes the dot
-        } else {
-            baseName = filename;
-            ext = "";
-        }
-
-        int counter = 1;
-        Path candidate;
-        do {
-            String newName = baseName + " (" + counter + ")" + ext;
-            candidate = file.getParent().resolve(newName);
-            counter++;
-        } while (Files.exists(candidate));
-
-        return candidate;
-    }
-}
-
-/*
-package com.gjjfintech.aiprompts.util;
-
-import org.springframework.util.Base64Utils;
-
-import java.io.IOException;
-import java.nio.file.*;
-import java.util.Locale;
-import java.util.Optional;
-
-public final class FileUtils {
-    private FileUtils() {}
-
+    /**
+     * Root folder of a chat project: baseDir/project.
+     */
     public static Path projectRoot(String baseDir, String project) {
         String base = (baseDir != null && !baseDir.isBlank()) ? baseDir : "C:\\\\MyConfiguredLocation";
         return Paths.get(base).resolve(project);
@@ -104,11 +77,14 @@ public final class FileUtils {
         }
     }
 
+    /**
+     * Reads an image and returns it as a data URL, or empty if it is not a readable file.
+     */
     public static Optional<String> imageDataUrl(Path imagePath) {
         try {
             if (!Files.isRegularFile(imagePath)) return Optional.empty();
             byte[] bytes = Files.readAllBytes(imagePath);
-            String b64 = Base64Utils.encodeToString(bytes);
+            String b64 = Base64.getEncoder().encodeToString(bytes);
             String mime = guessImageMime(imagePath.getFileName().toString());
             return Optional.of("data:" + mime + ";base64," + b64);
         } catch (IOException e) {
@@ -125,6 +101,33 @@ public final class FileUtils {
         if (f.endsWith(".bmp")) return "image/bmp";
         return "application/octet-stream";
     }
-}
 
- */
\ No newline at end of file
+    private static Path resolveConflict(Path file) {
+        if (!Files.exists(file)) {
+            return file;
+        }
+
+        String filename = file.getFileName().toString();
+        String baseName;
+        String ext;
+
+        int dot = filename.lastIndexOf('.');
+        if (dot > 0) {
+            baseName = filename.substring(0, dot);
+            ext = filename.substring(dot); // includes the dot
+        } else {
+            baseName = filename;
+            ext = "";
+        }
+
+        int counter = 1;
+        Path candidate;
+        do {
+            String newName = baseName + " (" + counter + ")" + ext;
+            candidate = file.getParent().resolve(newName);
+            counter++;
+        } while (Files.exists(candidate));
+
+        return candidate;
+    }
+}
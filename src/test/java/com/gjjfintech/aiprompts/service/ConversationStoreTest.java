@@ -0,0 +1,106 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Concurrent appends and loads on a few shared conversations: every turn must end up in its
+ * conversation exactly once, with its user and assistant messages adjacent and each writer's
+ * turns in the order it appended them.
+ */
+class ConversationStoreTest {
+
+    private static final int THREADS = 16;
+    private static final int TURNS_PER_THREAD = 50;
+    private static final int CONVERSATIONS = 4;
+
+    @TempDir
+    Path base;
+
+    /** cacheMaxMb 0 evicts on every call (the LRU sort runs while other threads touch entries). */
+    @ParameterizedTest
+    @ValueSource(longs = {0, 64})
+    void concurrentAppendsLoseAndInterleaveNothing(long cacheMaxMb) throws Exception {
+        CodegenProperties props = new CodegenProperties();
+        props.getConversations().setCacheMaxMb(cacheMaxMb);
+        ConversationStore store = new ConversationStore(props, CodegenMetrics.noop());
+
+        List<Path> dirs = new ArrayList<>();
+        for (int c = 0; c < CONVERSATIONS; c++) dirs.add(base.resolve("project-" + c).resolve("conversation"));
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                Path dir = dirs.get(thread % CONVERSATIONS);
+                for (int i = 0; i < TURNS_PER_THREAD; i++) {
+                    store.append(dir, prompt(thread, i), "reply to " + prompt(thread, i));
+                    // readers on other conversations keep their lastAccess moving during eviction
+                    store.load(dirs.get(ThreadLocalRandom.current().nextInt(CONVERSATIONS)));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) f.get(60, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        // the same store (possibly cached) and a fresh one (from disk) must agree
+        ConversationStore fresh = new ConversationStore(props, CodegenMetrics.noop());
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            List<Map<String, Object>> cached = store.load(dirs.get(c));
+            List<Map<String, Object>> onDisk = fresh.load(dirs.get(c));
+            assertThat(cached).isEqualTo(onDisk);
+            assertTurns(onDisk, c);
+        }
+    }
+
+    private static void assertTurns(List<Map<String, Object>> messages, int conversation) {
+        int writers = (int) java.util.stream.IntStream.range(0, THREADS).filter(t -> t % CONVERSATIONS == conversation).count();
+        assertThat(messages).hasSize(2 * writers * TURNS_PER_THREAD);
+
+        Set<String> seen = new HashSet<>();
+        Map<Integer, Integer> nextTurn = new HashMap<>();
+        for (int m = 0; m < messages.size(); m += 2) {
+            Map<String, Object> user = messages.get(m);
+            Map<String, Object> assistant = messages.get(m + 1);
+            assertThat(user.get("role")).isEqualTo("user");
+            assertThat(assistant.get("role")).isEqualTo("assistant");
+            String prompt = (String) user.get("content");
+            assertThat(assistant.get("content")).isEqualTo("reply to " + prompt);
+            assertThat(seen.add(prompt)).as("duplicate turn %s", prompt).isTrue();
+
+            String[] parts = prompt.split("-");
+            int thread = Integer.parseInt(parts[1]);
+            int turn = Integer.parseInt(parts[2]);
+            assertThat(thread % CONVERSATIONS).isEqualTo(conversation);
+            assertThat(turn).as("turn order of thread %d", thread).isEqualTo(nextTurn.getOrDefault(thread, 0));
+            nextTurn.put(thread, turn + 1);
+        }
+    }
+
+    private static String prompt(int thread, int turn) {
+        return "prompt-" + thread + "-" + turn;
+    }
+}
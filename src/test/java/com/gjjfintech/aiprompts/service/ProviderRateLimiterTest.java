@@ -0,0 +1,138 @@
+package com.gjjfintech.aiprompts.service;
+
+import com.gjjfintech.aiprompts.config.CodegenProperties;
+import com.gjjfintech.aiprompts.exception.RateLimitedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Slot accounting with a single slot: a running call or stream holds it, a queued call that
+ * times out leaves the queue, and a queued call cancelled at the moment the slot is granted to
+ * it gives the slot back whichever side wins. Backends of one deployment are limited apart.
+ */
+class ProviderRateLimiterTest {
+
+    private static final int ROUNDS = 5_000;
+
+    private final CodegenProperties props = singleSlot();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ProviderRateLimiter limiter = new ProviderRateLimiter(props, new CodegenMetrics(registry, props));
+
+    @Test
+    void grantedCallHoldsItsSlotUntilItEnds() {
+        Sinks.One<String> result = Sinks.one();
+        List<String> seen = new CopyOnWriteArrayList<>();
+        limiter.call("openai", "m", 0, result::asMono, r -> 0).subscribe(seen::add);
+        assertThat(inFlight()).isEqualTo(1);
+
+        result.tryEmitValue("done");
+        assertThat(seen).containsExactly("done");
+        assertThat(inFlight()).isZero();
+    }
+
+    @Test
+    void grantedStreamHoldsItsSlotUntilItEnds() {
+        Sinks.Many<String> deltas = Sinks.many().unicast().onBackpressureBuffer();
+        List<String> seen = new CopyOnWriteArrayList<>();
+        limiter.stream("openai", "m", 0, deltas::asFlux).subscribe(seen::add);
+        deltas.tryEmitNext("a");
+        assertThat(inFlight()).isEqualTo(1);
+
+        deltas.tryEmitNext("b");
+        deltas.tryEmitComplete();
+        assertThat(seen).containsExactly("a", "b");
+        assertThat(inFlight()).isZero();
+    }
+
+    @Test
+    void queuedCallTimesOutAndLeavesTheQueue() {
+        limiter.call("openai", "m", 0, Mono::<String>never, r -> 0).subscribe();
+        props.getRateLimits().setQueueTimeoutMillis(50);
+        assertThatThrownBy(() -> limiter.call("openai", "m", 0, () -> Mono.just("late"), r -> 0).block(Duration.ofSeconds(5)))
+                .isInstanceOf(RateLimitedException.class);
+        assertThat(registry.get("codegen.ratelimit.queued").gauge().value()).isZero();
+        assertThat(inFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void rateLimitOnOneBackendLeavesTheOthersAlone() {
+        props.getRateLimits().setQueueTimeoutMillis(50);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Retry-After", "10");
+        WebClientResponseException throttled = WebClientResponseException.create(429, "Too Many Requests", headers, null, null);
+
+        assertThatThrownBy(() -> limiter.onBackend("azure", "east", "m", () -> Mono.<String>error(throttled), r -> 0)
+                .block(Duration.ofSeconds(5))).isSameAs(throttled);
+        assertThat(limiter.onBackend("azure", "west", "m", () -> Mono.just("ok"), r -> 0).block(Duration.ofSeconds(5)))
+                .isEqualTo("ok");
+        assertThatThrownBy(() -> limiter.onBackend("azure", "east", "m", () -> Mono.just("paused"), r -> 0)
+                .block(Duration.ofSeconds(5))).isInstanceOf(RateLimitedException.class);
+    }
+
+    @Test
+    void cancelRacingGrantNeverLeaksASlot() throws Exception {
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                // the holder takes the only slot, the waiter queues behind it
+                Sinks.One<String> holder = Sinks.one();
+                limiter.call("openai", "m", 0, holder::asMono, r -> 0).subscribe(r -> { }, errors::add);
+                Disposable waiter = limiter.call("openai", "m", 0, () -> Mono.<String>never(), r -> 0)
+                        .subscribe(r -> { }, errors::add);
+
+                Future<?> grant = pool.submit(() -> {
+                    barrier.await();
+                    holder.tryEmitValue("done"); // releases the slot, which drains to the waiter
+                    return null;
+                });
+                Future<?> cancel = pool.submit(() -> {
+                    barrier.await();
+                    waiter.dispose();
+                    return null;
+                });
+                try {
+                    grant.get(10, TimeUnit.SECONDS);
+                    cancel.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    errors.add(e.getCause());
+                }
+                assertThat(errors).as("round %d", round).isEmpty();
+                assertThat(inFlight()).as("round %d", round).isZero();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private double inFlight() {
+        return registry.get("codegen.ratelimit.inflight").gauge().value();
+    }
+
+    private static CodegenProperties singleSlot() {
+        CodegenProperties props = new CodegenProperties();
+        props.getRateLimits().getDefaults().setInitialConcurrency(1);
+        props.getRateLimits().getDefaults().setMinConcurrency(1);
+        props.getRateLimits().getDefaults().setMaxConcurrency(1);
+        return props;
+    }
+}
@@ -0,0 +1,32 @@
+package com.gjjfintech.aiprompts.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CodeParserTest {
+
+    @Test
+    void firstBlockWithItsOwnLanguage() {
+        CodeParser.CodeBlock block = CodeParser.extractFirstCodeBlock("```kotlin\nval a = 1\n```\n```java\nint b;\n```", "java");
+        assertThat(block).isEqualTo(new CodeParser.CodeBlock("kotlin", "val a = 1"));
+    }
+
+    @Test
+    void preferredLanguageWhenTheFenceHasNone() {
+        assertThat(CodeParser.extractFirstCodeBlock("```\nSELECT 1;\n```", "sql").language()).isEqualTo("sql");
+    }
+
+    @Test
+    void closingRunOnTheLastCodeLine() {
+        CodeParser.CodeBlock block = CodeParser.extractFirstCodeBlock("```java\nclass A {\n}```", null);
+        assertThat(block).isEqualTo(new CodeParser.CodeBlock("java", "class A {\n}"));
+    }
+
+    @Test
+    void nothingWithoutAClosedBlock() {
+        assertThat(CodeParser.extractFirstCodeBlock("no code here", "java")).isNull();
+        assertThat(CodeParser.extractFirstCodeBlock("```java\nclass A {", "java")).isNull();
+        assertThat(CodeParser.extractFirstCodeBlock(null, "java")).isNull();
+    }
+}
@@ -0,0 +1,149 @@
+package com.gjjfintech.aiprompts.util;
+
+import com.gjjfintech.aiprompts.util.FenceScanner.Fence;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The cases the old CodeParser / ArtifactSaver regexes handled, plus the fence forms they did
+ * not. Every text is also fed one character at a time, which must find the same fences.
+ */
+class FenceScannerTest {
+
+    @Test
+    void blockWithLanguage() {
+        Fence fence = only("Here you go:\n```java\nclass A {}\n```\nDone.");
+        assertThat(fence.language()).isEqualTo("java");
+        assertThat(fence.content()).isEqualTo("class A {}");
+        assertThat(fence.terminated()).isTrue();
+    }
+
+    @Test
+    void blockWithoutLanguage() {
+        Fence fence = only("```\nplain\ntext\n```");
+        assertThat(fence.language()).isNull();
+        assertThat(fence.content()).isEqualTo("plain\ntext");
+    }
+
+    @Test
+    void languagesWithPunctuation() {
+        assertThat(only("```c++\nint x;\n```").language()).isEqualTo("c++");
+        assertThat(only("```c#\nvar x = 1;\n```").language()).isEqualTo("c#");
+        assertThat(only("```objective-c\nint x;\n```").language()).isEqualTo("objective-c");
+        assertThat(only("```vue.js\n<template/>\n```").language()).isEqualTo("vue.js");
+    }
+
+    @Test
+    void closingRunAtTheEndOfAContentLine() {
+        Fence fence = only("```ts\nfunction f() {\n  return 1;\n}```\nThat's it.");
+        assertThat(fence.terminated()).isTrue();
+        assertThat(fence.content()).isEqualTo("function f() {\n  return 1;\n}");
+    }
+
+    @Test
+    void closingRunAtTheEndOfTheLastLine() {
+        Fence fence = only("```json\n{\"a\": 1}```");
+        assertThat(fence.terminated()).isTrue();
+        assertThat(fence.content()).isEqualTo("{\"a\": 1}");
+    }
+
+    @Test
+    void filenameAttribute() {
+        assertThat(only("```java filename=src/Foo.java\nclass Foo {}\n```").filename()).isEqualTo("src/Foo.java");
+        assertThat(only("```java filename=\"My File.java\"\nclass F {}\n```").filename()).isEqualTo("My File.java");
+        assertThat(only("```java filename='Foo.java'\nclass Foo {}\n```").filename()).isEqualTo("Foo.java");
+
+        Fence bare = only("```filename=notes.txt\nhello\n```");
+        assertThat(bare.language()).isNull();
+        assertThat(bare.filename()).isEqualTo("notes.txt");
+    }
+
+    @Test
+    void severalBlocksInOrder() {
+        List<Fence> fences = scan("```py\nprint(1)\n```\ntext\n```sh\necho 2\n```\n");
+        assertThat(fences).extracting(Fence::index).containsExactly(1, 2);
+        assertThat(fences).extracting(Fence::language).containsExactly("py", "sh");
+        assertThat(fences).extracting(Fence::content).containsExactly("print(1)", "echo 2");
+    }
+
+    @Test
+    void crlfLineEndings() {
+        Fence fence = only("```java\r\nint a;\r\nint b;\r\n```\r\n");
+        assertThat(fence.language()).isEqualTo("java");
+        assertThat(fence.content()).isEqualTo("int a;\r\nint b;");
+    }
+
+    @Test
+    void tildesAndLongerRuns() {
+        assertThat(only("~~~python\nx = 1\n~~~").content()).isEqualTo("x = 1");
+        // a shorter run inside a longer fence is content
+        Fence outer = only("````md\n```java\nint a;\n```\n````");
+        assertThat(outer.language()).isEqualTo("md");
+        assertThat(outer.content()).isEqualTo("```java\nint a;\n```");
+        // a run of the other character does not close
+        assertThat(only("~~~\n```\n~~~").content()).isEqualTo("```");
+    }
+
+    @Test
+    void inlineTripleBackticksDoNotOpen() {
+        assertThat(scan("Use ```code``` inline, not a block.")).isEmpty();
+        assertThat(scan("```inline``` only")).isEmpty();
+    }
+
+    @Test
+    void unterminatedBlockIsFlagged() {
+        Fence fence = only("```java\nclass A {\n");
+        assertThat(fence.terminated()).isFalse();
+        assertThat(fence.content()).isEqualTo("class A {");
+        assertThat(FenceScanner.first("```java\nclass A {\n")).isNull();
+    }
+
+    @Test
+    void firstStopsAtTheFirstClosedBlock() {
+        Fence fence = FenceScanner.first("intro\n```go\npackage main\n```\n```go\nfunc f() {}\n```");
+        assertThat(fence.language()).isEqualTo("go");
+        assertThat(fence.content()).isEqualTo("package main");
+    }
+
+    @Test
+    void offsetsPointIntoTheText() {
+        String text = "a\n```java\nint x;\n```\nb";
+        Fence fence = only(text);
+        assertThat(text.substring(fence.start(), fence.end())).isEqualTo("```java\nint x;\n```\n");
+        assertThat(text.substring(fence.contentStart(), fence.contentEnd())).isEqualTo("int x;");
+    }
+
+    @Test
+    void noFences() {
+        assertThat(scan("just prose")).isEmpty();
+        assertThat(scan("")).isEmpty();
+        assertThat(FenceScanner.scan(null)).isEmpty();
+    }
+
+    /* ---------------------------- helpers ---------------------------- */
+
+    /** Scans {@code text} whole and char by char, checks both agree and returns the fences. */
+    private static List<Fence> scan(String text) {
+        List<Fence> whole = FenceScanner.scan(text);
+
+        FenceScanner chunked = new FenceScanner();
+        List<Fence> fed = new ArrayList<>();
+        for (int i = 0; i < text.length(); i++) {
+            fed.addAll(chunked.feed(text.substring(i, i + 1)));
+        }
+        fed.addAll(chunked.finish());
+
+        assertThat(fed).as("chunked scan of %s", text).isEqualTo(whole);
+        return whole;
+    }
+
+    private static Fence only(String text) {
+        List<Fence> fences = scan(text);
+        assertThat(fences).hasSize(1);
+        return fences.get(0);
+    }
+}